@@ -0,0 +1,38 @@
+package promiscuity;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+
+/**
+ * The graph access used by AdjacencySearch, so the same search runs over the Neo4j store, a snapshot file or an edge
+ * list. Nodes are numbered densely from 0 to nodeCount() - 1, and every node keeps the degree it has in the graph the
+ * projection was taken from, so scores computed over a projection match the ones computed by promiscuity.promiscuityScore
+ * on that graph.
+ */
+public interface Adjacency {
+
+    int nodeCount();
+
+    /**
+     * The degree of the node: what Node.getDegree() returns (or returned when a snapshot was written), or the number of
+     * edges of an edge list touching the node.
+     */
+    int degree(int node);
+
+    /**
+     * Calls consumer with every neighbor of the node. Snapshots and edge lists pass every distinct neighbor once, in
+     * ascending order, while the live graph passes a neighbor once per relationship.
+     */
+    void forEachNeighbor(int node, IntProcedure consumer);
+
+    boolean hasNeighbor(int node, int other);
+
+    /**
+     * The Neo4j id of the node, or its id in an edge list.
+     */
+    long originalId(int node);
+
+    /**
+     * The dense id of the node with the given original id, or -1 if the node is not part of the projection.
+     */
+    int denseId(long originalId);
+}
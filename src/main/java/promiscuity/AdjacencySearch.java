@@ -0,0 +1,515 @@
+package promiscuity;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * The searches of promiscuity.promiscuityScore, promiscuityPath, promiscuityDFSScore and iterativeDeepeningScore, run
+ * over an Adjacency: the live graph of a transaction (TransactionAdjacency), a snapshot file (Snapshot) or an edge list
+ * loaded by the command line runner (EdgeListAdjacency).
+ *
+ * The degree-ordered search keeps its entries in parallel primitive lists and orders them by a binary heap of entry
+ * indices, so expanding a node allocates nothing per neighbor. An entry is given back to a free list once it has been
+ * polled and no queued entry descends from it, so the lists only hold the queued entries and their ancestors; without
+ * simple paths or paths to return, entries do not link to their parents and only the queued ones are held. The depth
+ * first searches keep one level of (degree, node) pairs per node on the current path, sorted by degree, in a single
+ * array used as a stack.
+ */
+public class AdjacencySearch {
+    private final Adjacency graph;
+    private final SearchConfig config;
+
+    //Entry i is the node nodes[i], reached with path_scores[i] at depths[i], from entry parents[i] (-1 for the source
+    // or when parents are not kept), and children[i] entries still held have it as their parent.
+    private final IntArrayList nodes = new IntArrayList();
+    private final IntArrayList degrees = new IntArrayList();
+    private final IntArrayList path_scores = new IntArrayList();
+    private final IntArrayList depths = new IntArrayList();
+    private final IntArrayList parents = new IntArrayList();
+    private final IntArrayList children = new IntArrayList();
+    private final IntArrayList free = new IntArrayList();
+    private int[] heap = new int[64];
+    private int heap_size = 0;
+    private boolean keep_parents;
+
+    //The levels of the depth first searches, each a run of degree << 32 | node sorted by degree.
+    private long[] levels = new long[64];
+    private int levels_size = 0;
+    //When only simple paths are wanted, path_stack[d] holds the node at depth d of the current depth first path.
+    private int[] path_stack;
+    private int top_level_next;
+    private int top_level_size;
+    private int dfs_best_score;
+    private int next_threshold;
+
+    private int search_tail;
+    private int search_k;
+
+    //Counts of the last search, for the PromiscuityEvents and the promiscuityQueueCount procedures.
+    private PromiscuityEvents.ExpansionRecorder recorder;
+    private long dequeued = 0;
+    private long peak_queue_size = 0;
+    private long peak_entries = 0;
+    private long skipped = 0;
+    private long excluded = 0;
+    private int neighbor_count = 0;
+
+    public AdjacencySearch(Adjacency graph, SearchConfig config) {
+        this.graph = graph;
+        this.config = config;
+    }
+
+    /**
+     * @return the lowest promiscuity score of paths of length k between the two dense ids, or Integer.MAX_VALUE if
+     * there is no such path.
+     */
+    public int lowestScore(int source, int tail, int k) {
+        return lowestScore(source, tail, k, Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs the search, giving up once it holds more than max_entries entries.
+     *
+     * @return the lowest promiscuity score of paths of length k between the two dense ids, Integer.MAX_VALUE if there
+     * is no such path, or Promiscuity.QUEUE_LIMIT_EXCEEDED if the search was given up.
+     */
+    public int lowestScore(int source, int tail, int k, long max_entries) {
+        start(source, tail, k, config.simplePaths);
+        int best_score = Integer.MAX_VALUE;
+        while (heap_size > 0) {
+            if (entries() > max_entries) {
+                best_score = Promiscuity.QUEUE_LIMIT_EXCEEDED;
+                break;
+            }
+            int found = step();
+            if (found != -1) {
+                best_score = path_scores.get(found);
+                break;
+            }
+        }
+        finish();
+        return best_score;
+    }
+
+    /**
+     * Starts the search of promiscuity.promiscuityPath, which is then advanced with step() while queued() is not 0.
+     */
+    public void startPaths(int source, int tail, int k) {
+        start(source, tail, k, true);
+    }
+
+    private void start(int source, int tail, int k, boolean keep_parents) {
+        clear();
+        this.keep_parents = keep_parents;
+        search_tail = tail;
+        search_k = k;
+        recorder = new PromiscuityEvents.ExpansionRecorder(graph.originalId(source));
+        int source_entry = addEntry(source, 0, 0, 0, -1);
+
+        //As in Promiscuity.lowestScore, the degree of the source node has no effect on the promiscuity score of paths.
+        expand(source_entry, 0, 1);
+        release(source_entry);
+    }
+
+    /**
+     * Polls the head of the queue, and expands it unless it is at depth k.
+     *
+     * @return the polled entry if it is at depth k and a neighbor of the tail, i.e. the end of a path whose score is
+     * score(entry), or -1. A returned entry is held until passed to release.
+     */
+    public int step() {
+        int head = poll();
+        dequeued++;
+        int node = nodes.get(head);
+        int depth = depths.get(head);
+        int updated_path_score = max(degrees.get(head), path_scores.get(head));
+        if (depth == search_k) {
+            if (graph.hasNeighbor(node, search_tail)) {
+                path_scores.set(head, updated_path_score);
+                return head;
+            }
+        } else {
+            expand(head, updated_path_score, depth + 1);
+        }
+        release(head);
+        return -1;
+    }
+
+    /**
+     * The number of entries on the queue.
+     */
+    public int queued() {
+        return heap_size;
+    }
+
+    /**
+     * The degree of the head of the queue, a lower bound on the score of every path not found yet.
+     */
+    public int headDegree() {
+        return degrees.get(heap[0]);
+    }
+
+    /**
+     * The promiscuity score of the path ending at an entry returned by step().
+     */
+    public int score(int entry) {
+        return path_scores.get(entry);
+    }
+
+    /**
+     * @return the dense ids of the nodes on the path from the source to an entry returned by step(), the tail excluded.
+     */
+    public int[] path(int entry) {
+        int[] path = new int[depths.get(entry) + 1];
+        for (int e = entry; e != -1; e = parents.get(e)) {
+            path[depths.get(e)] = nodes.get(e);
+        }
+        return path;
+    }
+
+    /**
+     * Gives an entry back to the free list once no held entry descends from it, and with it every ancestor left
+     * without descendants.
+     */
+    public void release(int entry) {
+        while (entry != -1 && children.get(entry) == 0) {
+            int parent = parents.get(entry);
+            free.add(entry);
+            if (parent != -1) children.set(parent, children.get(parent) - 1);
+            entry = parent;
+        }
+    }
+
+    /**
+     * Commits the expansions recorded since the last batch.
+     */
+    public void finish() {
+        recorder.flush(heap_size);
+    }
+
+    private void expand(int parent, int path_score, int depth) {
+        neighbor_count = 0;
+        graph.forEachNeighbor(nodes.get(parent), neighbor -> {
+            neighbor_count++;
+            if (config.isHub(graph.originalId(neighbor))) {
+                excluded++;
+                return;
+            }
+            if (config.simplePaths && (neighbor == search_tail || onPath(parent, neighbor))) {
+                skipped++;
+                return;
+            }
+            int degree = graph.degree(neighbor);
+            if (config.exceedsMaxDegree(degree)) {
+                excluded++;
+                return;
+            }
+            push(addEntry(neighbor, degree, path_score, depth, keep_parents ? parent : -1));
+        });
+        recorder.expanded(graph.originalId(nodes.get(parent)), depth - 1, neighbor_count, heap_size);
+    }
+
+    /**
+     * Runs the search of promiscuity.promiscuityDFSScore.
+     *
+     * @return the lowest promiscuity score of paths of length k between the two dense ids, or Integer.MAX_VALUE if
+     * there is no such path.
+     */
+    public int dfsLowestScore(int source, int tail, int k) {
+        startDepthFirst(source, tail, k);
+        while (nextImprovement() != -1) {
+            //Every improvement is kept as bestScore().
+        }
+        return dfs_best_score;
+    }
+
+    /**
+     * Starts the search of promiscuity.promiscuityDFSScore, which is then advanced with nextImprovement().
+     */
+    public void startDepthFirst(int source, int tail, int k) {
+        startLevels(source, tail, k);
+        pushLevel(source, 0, Integer.MAX_VALUE);
+        top_level_next = 0;
+        top_level_size = levels_size;
+        dfs_best_score = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Searches below the neighbors of the source, lowest degree first, until a path scoring lower than any found
+     * before turns up.
+     *
+     * @return the new lowest score, or -1 once the search is done, bestScore() then being the optimal score.
+     */
+    public int nextImprovement() {
+        while (top_level_next < top_level_size) {
+            long child = levels[top_level_next++];
+            dequeued++;
+            if ((int) (child >> 32) >= dfs_best_score) break;
+            int child_score = depthFirst((int) child, 1, dfs_best_score);
+            if (child_score != -1 && child_score < dfs_best_score) {
+                dfs_best_score = child_score;
+                return dfs_best_score;
+            }
+        }
+        top_level_next = top_level_size;
+        return -1;
+    }
+
+    /**
+     * The lowest score found so far by the depth first search, or Integer.MAX_VALUE.
+     */
+    public int bestScore() {
+        return dfs_best_score;
+    }
+
+    /**
+     * Explores below the node in a recursive DFS style, entering its neighbors lowest degree first and pruning those
+     * whose degree cannot beat best_score or the best path found below the node.
+     *
+     * @return the lowest score of a path from the node to the tail (taking in the node's degree), or -1 if there is
+     * none scoring lower than best_score.
+     */
+    private int depthFirst(int node, int depth, int best_score) {
+        if (path_stack != null) path_stack[depth] = node;
+        if (depth == search_k) return graph.hasNeighbor(node, search_tail) ? graph.degree(node) : -1;
+
+        int from = levels_size;
+        pushLevel(node, depth, Integer.MAX_VALUE);
+        int best_score_local = Integer.MAX_VALUE;
+        for (int i = from; i < levels_size; i++) {
+            long child = levels[i];
+            dequeued++;
+            int degree = (int) (child >> 32);
+            if (degree >= best_score || degree >= best_score_local) break;
+            int child_score = depthFirst((int) child, depth + 1, min(best_score, best_score_local));
+            if (child_score != -1) best_score_local = min(best_score_local, child_score);
+        }
+        levels_size = from;
+
+        //best_score_local was never updated. That means we could not find a path from this node to tail (with
+        // promiscuity lower than best_score).
+        if (best_score_local == Integer.MAX_VALUE) return -1;
+        return max(best_score_local, graph.degree(node));
+    }
+
+    /**
+     * Runs the search of promiscuity.iterativeDeepeningScore: depth first passes entering only nodes with a degree up
+     * to a threshold, raised after every pass to the lowest degree it turned away.
+     *
+     * @return the lowest promiscuity score of paths of length k between the two dense ids, or Integer.MAX_VALUE if
+     * there is no such path.
+     */
+    public int deepeningLowestScore(int source, int tail, int k) {
+        startLevels(source, tail, k);
+        int threshold = 0;
+        while (true) {
+            next_threshold = Integer.MAX_VALUE;
+            if (deepen(source, 0, threshold)) return threshold;
+            //Nothing was turned away, so raising the threshold cannot reach any more nodes.
+            if (next_threshold == Integer.MAX_VALUE) return Integer.MAX_VALUE;
+            threshold = next_threshold;
+        }
+    }
+
+    /**
+     * One pass of the iterative deepening search below the node.
+     *
+     * @return true if a path of length k to the tail through nodes with a degree up to threshold was found.
+     */
+    private boolean deepen(int node, int depth, int threshold) {
+        if (path_stack != null) path_stack[depth] = node;
+        if (depth == search_k) return graph.hasNeighbor(node, search_tail);
+
+        int from = levels_size;
+        pushLevel(node, depth, threshold);
+        boolean found = false;
+        for (int i = from; i < levels_size && !found; i++) {
+            dequeued++;
+            found = deepen((int) levels[i], depth + 1, threshold);
+        }
+        levels_size = from;
+        return found;
+    }
+
+    private void startLevels(int source, int tail, int k) {
+        clear();
+        search_tail = tail;
+        search_k = k;
+        path_stack = config.simplePaths ? new int[k + 1] : null;
+        if (path_stack != null) path_stack[0] = source;
+    }
+
+    /**
+     * Pushes the neighbors of the node a depth first search may enter as a new level, lowest degree first. Neighbors
+     * with a degree above threshold are left out, the lowest of their degrees being kept in next_threshold.
+     */
+    private void pushLevel(int node, int depth, int threshold) {
+        int from = levels_size;
+        graph.forEachNeighbor(node, neighbor -> {
+            if (config.isHub(graph.originalId(neighbor))) {
+                excluded++;
+                return;
+            }
+            if (path_stack != null && (neighbor == search_tail || onPathStack(depth, neighbor))) {
+                skipped++;
+                return;
+            }
+            int degree = graph.degree(neighbor);
+            if (config.exceedsMaxDegree(degree)) {
+                excluded++;
+                return;
+            }
+            if (degree > threshold) {
+                next_threshold = min(next_threshold, degree);
+                return;
+            }
+            if (levels_size == levels.length) levels = Arrays.copyOf(levels, levels.length * 2);
+            levels[levels_size++] = (long) degree << 32 | (neighbor & 0xffffffffL);
+        });
+        Arrays.sort(levels, from, levels_size);
+        if (levels_size > peak_queue_size) peak_queue_size = levels_size;
+        if (levels_size > peak_entries) peak_entries = levels_size;
+    }
+
+    private boolean onPathStack(int depth, int node) {
+        for (int d = 0; d <= depth; d++) {
+            if (path_stack[d] == node) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The number of entries polled from the queue (or taken from a level) by the last search.
+     */
+    long dequeued() {
+        return dequeued;
+    }
+
+    /**
+     * The number of nodes expanded by the last degree-ordered search, including the source. Not counted by the depth
+     * first searches.
+     */
+    long expansions() {
+        return recorder == null ? 0 : recorder.total_expansions;
+    }
+
+    /**
+     * The most entries the queue (or the levels) held at once during the last search.
+     */
+    long peakQueueSize() {
+        return peak_queue_size;
+    }
+
+    /**
+     * The most entries held at once during the last search, counting the polled entries kept as the ancestors of
+     * queued ones.
+     */
+    long peakEntries() {
+        return peak_entries;
+    }
+
+    /**
+     * The number of neighbors skipped by the last search because they were already on the path.
+     */
+    long skipped() {
+        return skipped;
+    }
+
+    /**
+     * The number of neighbors excluded by the last search as hubs or for exceeding maxDegree.
+     */
+    long excluded() {
+        return excluded;
+    }
+
+    /**
+     * The number of entries currently held, queued or kept as the ancestor of a queued entry.
+     */
+    private long entries() {
+        return nodes.size() - free.size();
+    }
+
+    private boolean onPath(int entry, int node) {
+        for (int e = entry; e != -1; e = parents.get(e)) {
+            if (nodes.get(e) == node) return true;
+        }
+        return false;
+    }
+
+    private int addEntry(int node, int degree, int path_score, int depth, int parent) {
+        int entry;
+        if (free.isEmpty()) {
+            entry = nodes.size();
+            nodes.add(node);
+            degrees.add(degree);
+            path_scores.add(path_score);
+            depths.add(depth);
+            parents.add(parent);
+            children.add(0);
+        } else {
+            entry = free.removeAtIndex(free.size() - 1);
+            nodes.set(entry, node);
+            degrees.set(entry, degree);
+            path_scores.set(entry, path_score);
+            depths.set(entry, depth);
+            parents.set(entry, parent);
+            children.set(entry, 0);
+        }
+        if (parent != -1) children.set(parent, children.get(parent) + 1);
+        if (entries() > peak_entries) peak_entries = entries();
+        return entry;
+    }
+
+    private void clear() {
+        nodes.clear();
+        degrees.clear();
+        path_scores.clear();
+        depths.clear();
+        parents.clear();
+        children.clear();
+        free.clear();
+        heap_size = 0;
+        levels_size = 0;
+        recorder = null;
+        dequeued = 0;
+        peak_queue_size = 0;
+        peak_entries = 0;
+        skipped = 0;
+        excluded = 0;
+    }
+
+    private void push(int entry) {
+        if (heap_size == heap.length) heap = Arrays.copyOf(heap, heap.length * 2);
+        int i = heap_size++;
+        if (heap_size > peak_queue_size) peak_queue_size = heap_size;
+        int degree = degrees.get(entry);
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (degrees.get(heap[parent]) <= degree) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private int poll() {
+        int head = heap[0];
+        int last = heap[--heap_size];
+        int degree = degrees.get(last);
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heap_size) break;
+            if (child + 1 < heap_size && degrees.get(heap[child + 1]) < degrees.get(heap[child])) child++;
+            if (degrees.get(heap[child]) >= degree) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return head;
+    }
+}
@@ -0,0 +1,275 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A rough estimate of how much work and memory the promiscuity engines need for one (source, tail, k) query, used by
+ * promiscuity.auto to pick an engine, by promiscuity.estimate, and by the maxHeapShare guard of SearchConfig.
+ *
+ * The degrees of up to SAMPLE_SIZE neighbors of the source and of the tail are read, skipping nodes the config
+ * excludes, and their mean is taken as the branching factor b of the graph around the query. With s usable neighbors of
+ * the source, the priority-queue search may hold up to s * (1 + b + ... + b^(k-1)) entries in the worst case, while the
+ * DFS (and the iterative deepening search) keeps one level of about b entries per node on its path, i.e. k * b entries.
+ * promiscuity.promiscuityPath holds the same entries as the priority-queue search, plus the paths it returns. These
+ * searches run in an AdjacencySearch over a TransactionAdjacency, which also keeps every node it has seen: at most one
+ * per path counted above, for the DFS as well, whose levels are small but which walks the same nodes. The naive
+ * searches and promiscuity.parallelPromiscuityPath queue Entry (or PathEntry) objects instead.
+ * These are upper bounds: the searches usually stop long before their queue holds every path.
+ *
+ * The QueryScheduler classifies every call of a search, so admission reads the samples from a small cache instead, kept
+ * per node and search options for SAMPLE_TTL_MS: calls repeating a source or tail skip the sampling, at the price of
+ * classifying them by degrees up to that old.
+ */
+public class CostModel {
+    static final int SAMPLE_SIZE = 64;
+    //An entry of an AdjacencySearch: six ints in its lists and an int in its heap, 28 bytes, and half as much again for
+    // the spare capacity the lists keep as they grow.
+    static final int ENTRY_BYTES = 42;
+    //A node seen by a TransactionAdjacency: its id in the hash map and in the id list, its Node and its cached degree.
+    static final int NODE_BYTES = 80;
+    //A long in the levels of an AdjacencySearch DFS, and the spare capacity of the doubling array holding them.
+    static final int LEVEL_BYTES = 16;
+    //Approximate heap size of an Entry object (or a PathEntry) and its slot in a queue, and a node of the LinkedList used
+    // by the naive search.
+    static final int OBJECT_ENTRY_BYTES = 48;
+    static final int PATH_ENTRY_BYTES = 56;
+    static final int LIST_NODE_BYTES = 24;
+    //Heap used by every hop of a returned path (node, relationship and their slots in the Path).
+    static final int PATH_HOP_BYTES = 64;
+
+    static final long SAMPLE_TTL_MS = 60_000;
+    static final int SAMPLE_CACHE_SIZE = 10_000;
+    //{usable neighbors, degree sum, degrees sampled, sampled at} per node, least recently used first.
+    private static final Map<SampleKey, long[]> samples = new LinkedHashMap<SampleKey, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SampleKey, long[]> eldest) {
+            return size() > SAMPLE_CACHE_SIZE;
+        }
+    };
+
+    public final int k;
+    public final int source_degree;
+    public final double branching;
+    public final double bfs_entries;
+    public final double dfs_entries;
+
+    CostModel(int source_degree, double branching, int k) {
+        this.k = k;
+        this.source_degree = source_degree;
+        this.branching = branching;
+        double level = source_degree;
+        double total = 0;
+        for (int d = 1; d <= k; d++) {
+            total += level;
+            level *= branching;
+        }
+        this.bfs_entries = total;
+        this.dfs_entries = k * Math.max(branching, source_degree);
+    }
+
+    static CostModel estimate(Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        long[] sample = new long[2];
+        int source_degree = sampleNeighbors(sourceNode, config, sample);
+        sampleNeighbors(tailNode, config, sample);
+        double branching = sample[1] == 0 ? 0 : (double) sample[0] / sample[1];
+        return new CostModel(source_degree, branching, k);
+    }
+
+    /**
+     * Works as estimate, but with the samples of the source and tail read from the cache when they are recent enough.
+     * Only used to classify calls for the QueryScheduler.
+     */
+    static CostModel admissionEstimate(GraphDatabaseService db, Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        long[] source = cachedSample(db, sourceNode, config);
+        long[] tail = cachedSample(db, tailNode, config);
+        long sampled = source[2] + tail[2];
+        double branching = sampled == 0 ? 0 : (double) (source[1] + tail[1]) / sampled;
+        return new CostModel((int) source[0], branching, k);
+    }
+
+    /**
+     * Works as admissionEstimate for a search from every one of the sources (repeats included, so a source counts once
+     * for every search started from it), e.g. for the Sets and ToLabel procedures, promiscuity.matrix and
+     * promiscuity.write. There is no single tail, so only the neighbors of the sources are sampled, and the source
+     * degree of the estimate is the number of usable neighbors of all sources together.
+     */
+    static CostModel admissionEstimate(GraphDatabaseService db, Iterable<Node> sources, int k, SearchConfig config) {
+        long usable = 0;
+        long degree_sum = 0;
+        long sampled = 0;
+        for (Node source : sources) {
+            long[] sample = cachedSample(db, source, config);
+            usable += sample[0];
+            degree_sum += sample[1];
+            sampled += sample[2];
+        }
+        double branching = sampled == 0 ? 0 : (double) degree_sum / sampled;
+        return new CostModel((int) Math.min(usable, Integer.MAX_VALUE), branching, k);
+    }
+
+    private static long[] cachedSample(GraphDatabaseService db, Node node, SearchConfig config) {
+        SampleKey key = new SampleKey(db.databaseName(), node.getId(), config);
+        long now = System.currentTimeMillis();
+        long[] sample;
+        synchronized (samples) {
+            sample = samples.get(key);
+        }
+        if (sample != null && now - sample[3] < SAMPLE_TTL_MS) return sample;
+        long[] degrees = new long[2];
+        int usable = sampleNeighbors(node, config, degrees);
+        sample = new long[]{usable, degrees[0], degrees[1], now};
+        synchronized (samples) {
+            samples.put(key, sample);
+        }
+        return sample;
+    }
+
+    /**
+     * Adds the degrees of up to SAMPLE_SIZE usable neighbors of the node to sample[0] and their number to sample[1].
+     *
+     * @return the number of neighbors of the node, estimated from the sampled fraction if not all of them were read.
+     */
+    private static int sampleNeighbors(Node node, SearchConfig config, long[] sample) {
+        int read = 0;
+        int usable = 0;
+        for (Relationship rel : node.getRelationships()) {
+            if (read == SAMPLE_SIZE) break;
+            read++;
+            Node other = rel.getOtherNode(node);
+            if (config.isHub(other)) continue;
+            int degree = other.getDegree();
+            if (config.exceedsMaxDegree(config.weight(other, degree))) continue;
+            usable++;
+            sample[0] += degree;
+            sample[1]++;
+        }
+        if (read < SAMPLE_SIZE) return usable;
+        return (int) ((long) node.getDegree() * usable / read);
+    }
+
+    /**
+     * @return the estimated peak heap in bytes of the priority-queue search of promiscuity.promiscuityScore.
+     */
+    public double bfsBytes() {
+        return bfs_entries * (ENTRY_BYTES + NODE_BYTES);
+    }
+
+    /**
+     * @return the number of entries the priority-queue search can hold in the given heap, counting for every entry the
+     * node it may have added to the TransactionAdjacency.
+     */
+    static long entryLimit(long bytes) {
+        return bytes / (ENTRY_BYTES + NODE_BYTES);
+    }
+
+    /**
+     * @param procedure name of a procedure, with or without the promiscuity. prefix.
+     * @param numPaths  number of paths requested, only used by promiscuityPath.
+     * @return the estimated peak number of queue entries held by the procedure.
+     */
+    public double peakEntries(String procedure, int numPaths) {
+        switch (procedureName(procedure)) {
+            case "promiscuityScore":
+            case "naivePromiscuityScore":
+                return bfs_entries;
+            case "promiscuityPath":
+            case "parallelPromiscuityPath":
+                return bfs_entries + (double) numPaths * (k + 1);
+            case "promiscuityDFSScore":
+            case "naivePromiscuityDFSScore":
+            case "iterativeDeepeningScore":
+                return dfs_entries;
+            default:
+                throw new IllegalArgumentException("No memory estimate for procedure " + procedure + ", expected one of " +
+                        "promiscuityScore, promiscuityPath, parallelPromiscuityPath, promiscuityDFSScore, naivePromiscuityScore, " +
+                        "naivePromiscuityDFSScore or iterativeDeepeningScore");
+        }
+    }
+
+    /**
+     * @return the estimated peak heap in bytes used by the procedure's queues and results.
+     */
+    public double peakBytes(String procedure, int numPaths) {
+        double paths = (double) numPaths * (k + 1) * PATH_HOP_BYTES;
+        switch (procedureName(procedure)) {
+            case "promiscuityPath":
+                return bfsBytes() + paths;
+            case "parallelPromiscuityPath":
+                return bfs_entries * PATH_ENTRY_BYTES + paths;
+            case "promiscuityDFSScore":
+            case "iterativeDeepeningScore":
+                return dfs_entries * LEVEL_BYTES + bfs_entries * NODE_BYTES;
+            case "naivePromiscuityScore":
+                return bfs_entries * (OBJECT_ENTRY_BYTES + LIST_NODE_BYTES);
+            case "naivePromiscuityDFSScore":
+                return dfs_entries * (OBJECT_ENTRY_BYTES + LIST_NODE_BYTES);
+            default:
+                return peakEntries(procedure, numPaths) * (ENTRY_BYTES + NODE_BYTES);
+        }
+    }
+
+    private static String procedureName(String procedure) {
+        return procedure.startsWith("promiscuity.") ? procedure.substring("promiscuity.".length()) : procedure;
+    }
+
+    /**
+     * @return the heap which can still be allocated: the maximum heap size minus the heap in use.
+     */
+    static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * @return the heap a single query may use under the config's maxHeapShare, or Long.MAX_VALUE if it is not set.
+     */
+    static long heapBudget(SearchConfig config) {
+        if (config.maxHeapShare <= 0) return Long.MAX_VALUE;
+        return (long) (config.maxHeapShare * freeHeap());
+    }
+
+    /**
+     * Refuses to run the procedure by throwing an IllegalStateException if the config sets maxHeapShare and the
+     * procedure is estimated to need more heap than that share of the free heap.
+     */
+    static void checkHeap(String procedure, Node sourceNode, Node tailNode, int k, int numPaths, SearchConfig config) {
+        if (config.maxHeapShare <= 0) return;
+        long budget = heapBudget(config);
+        double bytes = estimate(sourceNode, tailNode, k, config).peakBytes(procedure, numPaths);
+        if (bytes > budget) {
+            throw new IllegalStateException(String.format("%s is estimated to need %.1f MB of heap, more than maxHeapShare " +
+                    "(%.2f) of the %.1f MB free. Lower k or numPaths, or exclude hubs with maxDegree or hubs.",
+                    procedure, bytes / (1 << 20), config.maxHeapShare, freeHeap() / (double) (1 << 20)));
+        }
+    }
+
+    private static class SampleKey {
+        final String database;
+        final long node;
+        final SearchConfig config;
+
+        SampleKey(String database, long node, SearchConfig config) {
+            this.database = database;
+            this.node = node;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SampleKey)) return false;
+            SampleKey other = (SampleKey) o;
+            return node == other.node && database.equals(other.database) && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(database, node, config);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package promiscuity;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.api.block.procedure.primitive.LongLongProcedure;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An Adjacency loaded from an edge-list file, for running the promiscuity search without Neo4j (see PromiscuityCli).
+ * Edges are undirected, as Node.getRelationships() returns both directions. The degree of a node is the number of edges
+ * touching it, counting repeated edges as Neo4j counts parallel relationships, while neighbors are kept once each in
+ * ascending order, as in a snapshot. Nodes are numbered in ascending order of their ids in the file.
+ */
+public class EdgeListAdjacency implements Adjacency {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final long[] ids;
+    private final int[] degrees;
+    private final int[] offsets;
+    private final int[] targets;
+
+    private EdgeListAdjacency(long[] ids, int[] degrees, int[] offsets, int[] targets) {
+        this.ids = ids;
+        this.degrees = degrees;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Reads the edges of the file, see parse, into primitive adjacency arrays.
+     */
+    public static EdgeListAdjacency load(Path file) throws IOException {
+        LongArrayList sources = new LongArrayList();
+        LongArrayList tails = new LongArrayList();
+        parse(file, (source, tail) -> {
+            sources.add(source);
+            tails.add(tail);
+        });
+
+        LongHashSet seen = new LongHashSet();
+        seen.addAll(sources);
+        seen.addAll(tails);
+        long[] ids = seen.toSortedArray();
+        int n = ids.length;
+        int m = sources.size();
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] degrees = new int[n];
+        for (int i = 0; i < m; i++) {
+            from[i] = Arrays.binarySearch(ids, sources.get(i));
+            to[i] = Arrays.binarySearch(ids, tails.get(i));
+            degrees[from[i]]++;
+            //A self loop is a single relationship of its node.
+            if (to[i] != from[i]) degrees[to[i]]++;
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) offsets[v + 1] = offsets[v] + degrees[v];
+        int[] targets = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < m; i++) {
+            targets[fill[from[i]]++] = to[i];
+            if (to[i] != from[i]) targets[fill[to[i]]++] = from[i];
+        }
+
+        //Sort every node's neighbors and drop repeats, compacting the targets in place.
+        int write = 0;
+        int start = 0;
+        for (int v = 0; v < n; v++) {
+            int end = offsets[v + 1];
+            Arrays.sort(targets, start, end);
+            offsets[v] = write;
+            for (int i = start; i < end; i++) {
+                if (i == start || targets[i] != targets[i - 1]) targets[write++] = targets[i];
+            }
+            start = end;
+        }
+        offsets[n] = write;
+        return new EdgeListAdjacency(ids, degrees, offsets, Arrays.copyOf(targets, write));
+    }
+
+    /**
+     * Streams the lines of a CSV or whitespace separated file through a fixed buffer, and calls consumer with the first
+     * two fields of every line, which must be non-negative integer ids. Fields may be separated by commas, semicolons,
+     * tabs or spaces, and quoted. Further fields are ignored, and lines whose first two fields are not ids (headers,
+     * comments starting with #) are skipped.
+     */
+    public static void parse(Path file, LongLongProcedure consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long[] fields = new long[2];
+            int field = 0;
+            long value = 0;
+            boolean in_number = false;
+            boolean skip_line = false;
+            while (true) {
+                buffer.clear();
+                boolean eof = channel.read(buffer) == -1;
+                buffer.flip();
+                while (buffer.hasRemaining() || eof) {
+                    byte b = eof ? (byte) '\n' : buffer.get();
+                    if (b == '\n' || b == '\r') {
+                        if (in_number && field < 2) fields[field++] = value;
+                        if (!skip_line && field == 2) consumer.value(fields[0], fields[1]);
+                        field = 0;
+                        value = 0;
+                        in_number = false;
+                        skip_line = false;
+                        if (eof) return;
+                    } else if (skip_line || field == 2) {
+                        continue;
+                    } else if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        in_number = true;
+                    } else if (b == ',' || b == ';' || b == '\t' || b == ' ') {
+                        if (in_number) fields[field++] = value;
+                        value = 0;
+                        in_number = false;
+                    } else if (b != '"') {
+                        skip_line = true;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int nodeCount() {
+        return ids.length;
+    }
+
+    @Override
+    public int degree(int node) {
+        return degrees[node];
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntProcedure consumer) {
+        for (int i = offsets[node]; i < offsets[node + 1]; i++) consumer.value(targets[i]);
+    }
+
+    @Override
+    public boolean hasNeighbor(int node, int other) {
+        return Arrays.binarySearch(targets, offsets[node], offsets[node + 1], other) >= 0;
+    }
+
+    @Override
+    public long originalId(int node) {
+        return ids[node];
+    }
+
+    @Override
+    public int denseId(long originalId) {
+        int dense = Arrays.binarySearch(ids, originalId);
+        return dense >= 0 ? dense : -1;
+    }
+}
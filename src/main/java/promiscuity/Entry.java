@@ -18,14 +18,21 @@ public class Entry implements Comparator<Entry>, Comparable<Entry> {
         this.node = node;
     }
 
+    /**
+     * The promiscuity score of the path ending at this entry, i.e. including this entry's own node.
+     */
+    public int updatedPathScore() {
+        return Math.max(degree, path_score);
+    }
+
     @java.lang.Override
     public int compareTo(Entry o) {
-        return this.degree - o.degree;
+        return Integer.compare(this.degree, o.degree);
     }
 
     @java.lang.Override
     public int compare(Entry e1, Entry e2) {
-        return e1.degree - e2.degree;
+        return Integer.compare(e1.degree, e2.degree);
     }
 
 }
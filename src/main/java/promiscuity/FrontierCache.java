@@ -0,0 +1,300 @@
+package promiscuity;
+
+import org.eclipse.collections.api.iterator.LongIterator;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.*;
+
+import static java.lang.Math.max;
+
+/**
+ * A bounded cache of source frontiers, for sessions which fix one source node and score it against many tails.
+ *
+ * The frontier of a source node for length k holds every node v which can be reached at depth k (v is the last node
+ * before the tail on a path of length k), together with the lowest promiscuity score of the paths reaching it. It is
+ * computed layer by layer: a node at depth 1 scores its own degree, and a node w at depth d + 1 scores the minimum over
+ * its neighbors v at depth d of max(score of v, degree of w). The lowest score for a tail is then the lowest frontier
+ * score of a tail neighbor, the same value the degree-ordered search of promiscuity.promiscuityScore returns. The
+ * frontier is kept sorted by score, so a tail is answered by scanning it until the first tail neighbor.
+ *
+ * Entries are keyed by database, source node, k and search options, and evicted least recently used once their total
+ * size exceeds MAX_BYTES. Only transactions without uncommitted writes use the cache. Every entry records the nodes whose degree or relationships went into it, and a transaction
+ * listener drops the entries covering any node whose relationships are created or deleted. Simple paths cannot be
+ * computed layer by layer, so they are never cached.
+ */
+public class FrontierCache {
+    static final long MAX_BYTES = 256L << 20;
+
+    private static final LinkedHashMap<Key, Frontier> frontiers = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Set<String> registered_databases = new HashSet<>();
+    private static long size_bytes = 0;
+    //Incremented by every invalidation, so a frontier computed while a write committed is not cached.
+    private static long generation = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long invalidations = 0;
+
+    /**
+     * Returns the lowest promiscuity score of paths of length k from sourceNode to tailNode, or Integer.MAX_VALUE if
+     * there is no such path, using the cached frontier of sourceNode if there is one.
+     */
+    static int lowestScore(GraphDatabaseService db, Transaction tx, Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        return frontier(db, tx, sourceNode, k, config).lowestScore(tailNode);
+    }
+
+    static Frontier frontier(GraphDatabaseService db, Transaction tx, Node sourceNode, int k, SearchConfig config) {
+        //A frontier read by a transaction with uncommitted writes may describe a graph which never gets committed, so it
+        // is neither cached nor answered from the cache.
+        if (Promiscuity.hasPendingChanges(tx)) return Frontier.compute(tx, sourceNode, k, config);
+        register(db);
+        Key key = new Key(db.databaseName(), sourceNode.getId(), k, config);
+        long start_generation;
+        synchronized (FrontierCache.class) {
+            Frontier frontier = frontiers.get(key);
+            if (frontier != null) {
+                hits++;
+                return frontier;
+            }
+            misses++;
+            start_generation = generation;
+        }
+        Frontier frontier = Frontier.compute(tx, sourceNode, k, config);
+        synchronized (FrontierCache.class) {
+            if (start_generation == generation && frontier.sizeBytes() <= MAX_BYTES) {
+                Frontier previous = frontiers.put(key, frontier);
+                if (previous != null) size_bytes -= previous.sizeBytes();
+                size_bytes += frontier.sizeBytes();
+                Iterator<Frontier> eldest = frontiers.values().iterator();
+                while (size_bytes > MAX_BYTES) {
+                    size_bytes -= eldest.next().sizeBytes();
+                    eldest.remove();
+                }
+            }
+        }
+        return frontier;
+    }
+
+    /**
+     * @return the number of cached frontiers, their size in bytes, and the hit, miss and invalidation counts.
+     */
+    static synchronized long[] stats() {
+        return new long[]{frontiers.size(), size_bytes, hits, misses, invalidations};
+    }
+
+    static synchronized void clear() {
+        frontiers.clear();
+        size_bytes = 0;
+        generation++;
+        hits = 0;
+        misses = 0;
+        invalidations = 0;
+    }
+
+    private static synchronized void invalidate(String database, LongHashSet touched) {
+        generation++;
+        Iterator<Map.Entry<Key, Frontier>> it = frontiers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Frontier> entry = it.next();
+            if (entry.getKey().database.equals(database) && entry.getValue().covers(touched)) {
+                size_bytes -= entry.getValue().sizeBytes();
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drops the frontiers of the database computed with the weights of the property, once its WeightCache is evicted.
+     */
+    static synchronized void invalidateWeights(String database, String property) {
+        generation++;
+        Iterator<Map.Entry<Key, Frontier>> it = frontiers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Frontier> entry = it.next();
+            if (entry.getKey().database.equals(database) && property.equals(entry.getKey().config.weightProperty)) {
+                size_bytes -= entry.getValue().sizeBytes();
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private static synchronized void register(GraphDatabaseService db) {
+        if (!registered_databases.add(db.databaseName())) return;
+        ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(DatabaseManagementService.class)
+                .registerTransactionEventListener(db.databaseName(), new InvalidationListener(db.databaseName()));
+    }
+
+    /**
+     * @return the ids of the endpoints of all relationships created or deleted by the transaction, of all nodes it
+     * deleted, and of all nodes whose value of a cached weightProperty it changed, i.e. every node whose relationships,
+     * degree or weight changed.
+     */
+    static LongHashSet touchedNodes(TransactionData data) {
+        LongHashSet touched = new LongHashSet();
+        for (Relationship rel : data.createdRelationships()) {
+            touched.add(rel.getStartNode().getId());
+            touched.add(rel.getEndNode().getId());
+        }
+        for (Relationship rel : data.deletedRelationships()) {
+            touched.add(rel.getStartNode().getId());
+            touched.add(rel.getEndNode().getId());
+        }
+        for (Node node : data.deletedNodes()) {
+            touched.add(node.getId());
+        }
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (WeightCache.isCached(entry.key())) touched.add(entry.entity().getId());
+        }
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (WeightCache.isCached(entry.key())) touched.add(entry.entity().getId());
+        }
+        return touched;
+    }
+
+    /**
+     * Collects the endpoints of all created and deleted relationships, and all deleted nodes, before a transaction
+     * commits, and drops the frontiers covering any of them once it has.
+     */
+    static class InvalidationListener extends TransactionEventListenerAdapter<LongHashSet> {
+        private final String database;
+
+        InvalidationListener(String database) {
+            this.database = database;
+        }
+
+        @Override
+        public LongHashSet beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+            return touchedNodes(data);
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, LongHashSet touched, GraphDatabaseService databaseService) {
+            if (touched != null && !touched.isEmpty()) invalidate(database, touched);
+        }
+    }
+
+    static class Key {
+        final String database;
+        final long source;
+        final int k;
+        final SearchConfig config;
+
+        Key(String database, long source, int k, SearchConfig config) {
+            this.database = database;
+            this.source = source;
+            this.k = k;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return source == other.source && k == other.k && database.equals(other.database) && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(database, source, k, config);
+        }
+    }
+
+    /**
+     * The frontier of one source node, as parallel arrays of node ids and scores sorted by ascending score, plus the
+     * sorted ids of every node it covers.
+     */
+    static class Frontier {
+        final long[] nodes;
+        final int[] scores;
+        final long[] covered;
+
+        Frontier(long[] nodes, int[] scores, long[] covered) {
+            this.nodes = nodes;
+            this.scores = scores;
+            this.covered = covered;
+        }
+
+        static Frontier compute(Transaction tx, Node sourceNode, int k, SearchConfig config) {
+            LongIntHashMap degrees = new LongIntHashMap();
+            LongIntHashMap layer = new LongIntHashMap();
+            //As in the search, the degree of the source node has no effect on the promiscuity score of paths.
+            for (Relationship rel : sourceNode.getRelationships()) {
+                visit(layer, degrees, rel.getOtherNode(sourceNode), 0, config);
+            }
+            for (int depth = 1; depth < k; depth++) {
+                LongIntHashMap next = new LongIntHashMap();
+                LongIntHashMap current = layer;
+                current.forEachKeyValue((id, score) -> {
+                    Node node = tx.getNodeById(id);
+                    for (Relationship rel : node.getRelationships()) {
+                        visit(next, degrees, rel.getOtherNode(node), score, config);
+                    }
+                });
+                layer = next;
+            }
+
+            long[] keys = new long[layer.size()];
+            long[] ids = layer.keySet().toArray();
+            for (int i = 0; i < ids.length; i++) keys[i] = ((long) layer.get(ids[i]) << 32) | i;
+            Arrays.sort(keys);
+            long[] nodes = new long[keys.length];
+            int[] scores = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                nodes[i] = ids[(int) keys[i]];
+                scores[i] = (int) (keys[i] >>> 32);
+            }
+            LongHashSet covered = new LongHashSet();
+            covered.addAll(degrees.keySet());
+            covered.add(sourceNode.getId());
+            long[] sorted_covered = covered.toSortedArray();
+            return new Frontier(nodes, scores, sorted_covered);
+        }
+
+        private static void visit(LongIntHashMap layer, LongIntHashMap degrees, Node node, int path_score, SearchConfig config) {
+            if (config.isHub(node)) return;
+            long id = node.getId();
+            int degree = degrees.getIfAbsent(id, -1);
+            if (degree == -1) {
+                degree = config.weight(node);
+                degrees.put(id, degree);
+            }
+            if (config.exceedsMaxDegree(degree)) return;
+            int score = max(path_score, degree);
+            if (score < layer.getIfAbsent(id, Integer.MAX_VALUE)) layer.put(id, score);
+        }
+
+        int lowestScore(Node tailNode) {
+            LongHashSet tail_neighbors = new LongHashSet();
+            for (Relationship rel : tailNode.getRelationships()) {
+                tail_neighbors.add(rel.getOtherNode(tailNode).getId());
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                if (tail_neighbors.contains(nodes[i])) return scores[i];
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        boolean covers(LongHashSet touched) {
+            LongIterator it = touched.longIterator();
+            while (it.hasNext()) {
+                if (Arrays.binarySearch(covered, it.next()) >= 0) return true;
+            }
+            return false;
+        }
+
+        long sizeBytes() {
+            return 12L * nodes.length + 8L * covered.length;
+        }
+    }
+}
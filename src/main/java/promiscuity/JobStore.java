@@ -0,0 +1,386 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.lang.Math.max;
+
+/**
+ * The promiscuity searches submitted as jobs with promiscuity.submit. A job runs on a pool of background threads in a
+ * transaction of its own, so it keeps running when the connection of the client who submitted it drops.
+ *
+ * Jobs run the search of promiscuity.promiscuityPath in its streaming form, which reports its progress to the job: the
+ * entries dequeued, the best score found, and a lower bound on the score of the paths not found yet. Every path not
+ * found yet passes through an entry on the queue, so the degree of the queue's head bounds its score; that degree is
+ * not monotonic, as an entry may have neighbors of a lower degree, so the job reports the highest bound seen. Every path is appended to the job's result file
+ * as soon as it is final, so the results read while the job runs are the final first rows, and large result sets are
+ * kept on disk rather than on the heap. Heavy jobs are admitted by the QueryScheduler like calls of the procedures, and a job
+ * runs with the access of the user who submitted it.
+ *
+ * At most MAX_QUEUED_JOBS jobs wait for a thread, and every user may have at most MAX_ACTIVE_JOBS_PER_USER queued or
+ * running jobs; submitting more fails. A job is only visible to the user who submitted it. Ended jobs and their result files are kept for RETENTION_MS after
+ * they end, and at most MAX_ENDED_JOBS of them, the oldest being forgotten first.
+ */
+public class JobStore {
+    static final String QUEUED = "queued";
+    static final String RUNNING = "running";
+    static final String DONE = "done";
+    static final String FAILED = "failed";
+    static final String CANCELLED = "cancelled";
+    static final long RETENTION_MS = 60 * 60 * 1000;
+    static final int MAX_ENDED_JOBS = 1000;
+    static final int MAX_QUEUED_JOBS = 1000;
+    static final int MAX_ACTIVE_JOBS_PER_USER = 50;
+
+    private static final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    //Number of queued or running jobs per user. Guarded by itself.
+    private static final Map<String, Integer> user_jobs = new HashMap<>();
+    private static final AtomicLong next_id = new AtomicLong(1);
+    private static final AtomicInteger next_thread = new AtomicInteger(1);
+    private static final int THREADS = max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_JOBS), r -> {
+                Thread thread = new Thread(r, "promiscuity-job-" + next_thread.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, (r, pool) -> {
+                throw new IllegalStateException("Too many promiscuity jobs are queued, at most " + MAX_QUEUED_JOBS +
+                        " wait for a thread; try again later");
+            });
+    private static Path directory;
+
+    /**
+     * Checks the parameters of the procedure and queues a job running it.
+     *
+     * @param procedure promiscuityPath or promiscuityScore, with or without the promiscuity. prefix.
+     * @param params    sourceNode, tailNode (nodes or node ids), k, numPaths (promiscuityPath only, default 1) and
+     *                  config (optional, see SearchConfig).
+     * @throws IllegalStateException if the user already has MAX_ACTIVE_JOBS_PER_USER queued or running jobs, or
+     *                               MAX_QUEUED_JOBS jobs are queued.
+     */
+    static Job submit(GraphDatabaseService db, Transaction tx, String procedure, Map<String, Object> params) {
+        String name = procedure.startsWith("promiscuity.") ? procedure.substring("promiscuity.".length()) : procedure;
+        if (!name.equals("promiscuityPath") && !name.equals("promiscuityScore")) {
+            throw new IllegalArgumentException("Cannot submit " + procedure + " as a job, expected promiscuityPath or promiscuityScore");
+        }
+        for (String key : params.keySet()) {
+            boolean known;
+            switch (key) {
+                case "sourceNode":
+                case "tailNode":
+                case "k":
+                case "config":
+                    known = true;
+                    break;
+                case "numPaths":
+                    known = name.equals("promiscuityPath");
+                    break;
+                default:
+                    known = false;
+            }
+            if (!known) throw new IllegalArgumentException("Unknown parameter of " + name + ": " + key);
+        }
+        if (!params.containsKey("sourceNode") || !params.containsKey("tailNode") || !params.containsKey("k")) {
+            throw new IllegalArgumentException(name + " requires sourceNode, tailNode and k");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> config_input = (Map<String, Object>) params.getOrDefault("config", Collections.emptyMap());
+        //Fails on unknown keys before the job is queued.
+        new SearchConfig(config_input, tx, db);
+
+        evict(System.currentTimeMillis());
+        Job job = new Job(next_id.getAndIncrement(), name, QueryScheduler.user(tx), Promiscuity.securityContext(tx),
+                nodeId(tx, params.get("sourceNode")), nodeId(tx, params.get("tailNode")),
+                ((Number) params.get("k")).intValue(), ((Number) params.getOrDefault("numPaths", 1)).intValue(), config_input);
+        synchronized (user_jobs) {
+            int active = user_jobs.getOrDefault(job.user, 0);
+            if (active >= MAX_ACTIVE_JOBS_PER_USER) {
+                throw new IllegalStateException("At most " + MAX_ACTIVE_JOBS_PER_USER + " promiscuity jobs can be queued " +
+                        "or running per user, wait for some to end or cancel them first");
+            }
+            user_jobs.put(job.user, active + 1);
+        }
+        try {
+            synchronized (job) {
+                job.future = executor.submit(() -> job.run(db));
+            }
+        } catch (RuntimeException e) {
+            ended(job);
+            throw e;
+        }
+        jobs.put(job.id, job);
+        return job;
+    }
+
+    /**
+     * Counts the job out of the queued or running jobs of its user.
+     */
+    private static void ended(Job job) {
+        synchronized (user_jobs) {
+            user_jobs.computeIfPresent(job.user, (user, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    private static long nodeId(Transaction tx, Object node) {
+        //Looks the node up, so that a job is not queued for a node which does not exist.
+        return node instanceof Node ? ((Node) node).getId() : tx.getNodeById(((Number) node).longValue()).getId();
+    }
+
+    /**
+     * @return the job, if it was submitted by the user.
+     * @throws IllegalArgumentException if there is no such job, or another user submitted it.
+     */
+    static Job get(long id, String user) {
+        evict(System.currentTimeMillis());
+        Job job = jobs.get(id);
+        //Other users' jobs are reported as missing, so their ids are not revealed either.
+        if (job == null || !job.user.equals(user)) throw new IllegalArgumentException("No promiscuity job with id " + id);
+        return job;
+    }
+
+    /**
+     * Stops a queued or running job of the user. A job which already ended is forgotten, and its result file deleted.
+     */
+    static Job cancel(long id, String user) {
+        Job job = get(id, user);
+        synchronized (job) {
+            if (job.state.equals(QUEUED) || job.state.equals(RUNNING)) {
+                job.cancelled = true;
+                if (job.future.cancel(false)) {
+                    job.finish(CANCELLED, null);
+                    //Frees the slot of the queue the job was waiting in.
+                    executor.purge();
+                }
+                return job;
+            }
+        }
+        forget(job);
+        return job;
+    }
+
+    /**
+     * Forgets the jobs which ended more than RETENTION_MS before now, and the oldest ended jobs beyond MAX_ENDED_JOBS.
+     */
+    static void evict(long now) {
+        List<Job> ended = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.finished_at == 0) continue;
+            if (now - job.finished_at > RETENTION_MS) forget(job);
+            else ended.add(job);
+        }
+        if (ended.size() <= MAX_ENDED_JOBS) return;
+        ended.sort(Comparator.comparingLong(job -> job.finished_at));
+        for (Job job : ended.subList(0, ended.size() - MAX_ENDED_JOBS)) forget(job);
+    }
+
+    private static void forget(Job job) {
+        if (jobs.remove(job.id) == null) return;
+        try {
+            if (job.file != null) Files.deleteIfExists(job.file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static synchronized Path directory() throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory("promiscuity-jobs");
+            directory.toFile().deleteOnExit();
+        }
+        return directory;
+    }
+
+    static class Job {
+        final long id;
+        final String procedure;
+        final String user;
+        //Access of the user who submitted the job, which its transaction runs with.
+        final SecurityContext security;
+        final long source;
+        final long tail;
+        final int k;
+        final int numPaths;
+        final Map<String, Object> config_input;
+        final long submitted_at = System.currentTimeMillis();
+        //Guarded by the Job.
+        private Future<?> future;
+        volatile String state = QUEUED;
+        volatile boolean cancelled = false;
+        volatile long started_at = 0;
+        volatile long finished_at = 0;
+        volatile String error = null;
+        volatile Path file = null;
+        //Progress, written by the thread running the job only.
+        volatile long dequeued = 0;
+        volatile int best_score = Integer.MAX_VALUE;
+        volatile int lower_bound = 0;
+        //Rows written to the result file so far. A row is flushed before it is counted.
+        volatile long rows = 0;
+
+        Job(long id, String procedure, String user, SecurityContext security, long source, long tail, int k, int numPaths,
+            Map<String, Object> config_input) {
+            this.id = id;
+            this.procedure = procedure;
+            this.user = user;
+            this.security = security;
+            this.source = source;
+            this.tail = tail;
+            this.k = k;
+            this.numPaths = numPaths;
+            this.config_input = config_input;
+        }
+
+        private void run(GraphDatabaseService db) {
+            synchronized (this) {
+                if (cancelled) {
+                    finish(CANCELLED, null);
+                    return;
+                }
+                state = RUNNING;
+                started_at = System.currentTimeMillis();
+            }
+            try (Transaction tx = Promiscuity.beginTx(db, security)) {
+                file = Files.createTempFile(directory(), "job-" + id + "-", ".bin");
+                file.toFile().deleteOnExit();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                    search(db, tx, out);
+                }
+                tx.commit();
+                finish(DONE, null);
+            } catch (CancellationException e) {
+                finish(CANCELLED, null);
+            } catch (IOException e) {
+                finish(FAILED, "Could not write the results of the job: " + e.getMessage());
+            } catch (RuntimeException e) {
+                finish(cancelled ? CANCELLED : FAILED, e.getMessage());
+            }
+        }
+
+        private void search(GraphDatabaseService db, Transaction tx, DataOutputStream out) throws IOException {
+            Node sourceNode = tx.getNodeById(source);
+            Node tailNode = tx.getNodeById(tail);
+            SearchConfig config = new SearchConfig(config_input, tx, db);
+            CostModel.checkHeap("promiscuity.promiscuityPath", sourceNode, tailNode, k, numPaths, config);
+            Promiscuity promiscuity = new Promiscuity();
+            promiscuity.tx = tx;
+            promiscuity.db = db;
+            CostModel cost = CostModel.admissionEstimate(db, sourceNode, tailNode, k, config);
+            QueryScheduler.Permit permit = QueryScheduler.SHARED.admit(user, "promiscuity." + procedure, cost.bfs_entries);
+            try {
+                Iterator<Promiscuity.PathOutput> paths = promiscuity.streamPaths(sourceNode, tailNode, k, numPaths, config, this).iterator();
+                while (paths.hasNext()) {
+                    Promiscuity.PathOutput path = paths.next();
+                    out.writeInt(path.promiscuity_score.intValue());
+                    out.writeInt(path.promiscuity_path.length() + 1);
+                    for (Node node : path.promiscuity_path.nodes()) out.writeLong(node.getId());
+                    out.flush();
+                    rows++;
+                }
+            } finally {
+                permit.close();
+            }
+        }
+
+        private synchronized void finish(String state, String error) {
+            if (finished_at == 0) ended(this);
+            this.error = error;
+            this.finished_at = System.currentTimeMillis();
+            this.state = state;
+        }
+
+        /**
+         * Called by the search for every entry it dequeues.
+         *
+         * @throws CancellationException if the job was cancelled.
+         */
+        void dequeued(int degree) {
+            if (cancelled) throw new CancellationException();
+            dequeued++;
+            //The paths not found yet are a subset of those not found when an earlier bound was reported, so the
+            // highest bound holds for them.
+            if (degree > lower_bound) lower_bound = degree;
+        }
+
+        /**
+         * Called by the search for every path it finds.
+         */
+        void found(int score) {
+            if (score < best_score) best_score = score;
+        }
+
+        /**
+         * @return the rows of the result file written so far, read lazily while the stream is consumed.
+         */
+        Stream<Row> results() {
+            Path file = this.file;
+            long count = rows;
+            if (file == null || count == 0) return Stream.empty();
+            DataInputStream in;
+            try {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Iterator<Row> it = new Iterator<Row>() {
+                long read = 0;
+
+                @Override
+                public boolean hasNext() {
+                    if (read < count) return true;
+                    close(in);
+                    return false;
+                }
+
+                @Override
+                public Row next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    try {
+                        int score = in.readInt();
+                        long[] path = new long[in.readInt()];
+                        for (int i = 0; i < path.length; i++) path[i] = in.readLong();
+                        read++;
+                        return new Row(score, path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliterator(it, count, Spliterator.ORDERED), false).onClose(() -> close(in));
+        }
+
+        private static void close(InputStream in) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static class Row {
+        final int score;
+        final long[] path;
+
+        Row(int score, long[] path) {
+            this.score = score;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package promiscuity;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.Math.max;
+
+/**
+ * Computes the lowest promiscuity score of walks of length k by dynamic programming over layers instead of enumerating
+ * walks. With best[d][v] the lowest score of walks reaching v as the d-th node after the source,
+ *     best[1][v] = deg(v)  for the neighbors v of the source,
+ *     best[d][w] = min over neighbors v of w of max(best[d-1][v], deg(w)),
+ * and the answer is the lowest best[k][v] over the neighbors v of the tail. Every layer costs at most one pass over the
+ * relationships of the subgraph, so the search is O(k * m) whatever the degrees, where the other engines are exponential
+ * in k in the worst case.
+ *
+ * The layers are restricted to the nodes v for which a walk source -> v -> tail of length k + 1 could exist at all,
+ * i.e. dist(source, v) + dist(v, tail) <= k + 1, found with one bounded BFS from each end. Those nodes are given dense
+ * ids and their relationships within the subgraph are copied into arrays once, so the layers are primitive int arrays of
+ * which only two are kept. If a path is requested, the predecessor of every node is recorded per layer.
+ * Simple paths cannot be computed layer by layer, so they are not supported.
+ */
+public class LayeredSearch {
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final Transaction tx;
+    private final SearchConfig config;
+
+    //Degrees of the nodes read so far, or -1 for nodes the config excludes from paths.
+    private final LongIntHashMap usable_degrees = new LongIntHashMap();
+    //The nodes of the subgraph, by dense id, with their degree, remaining hops to the tail, and neighbors (CSR form).
+    private final LongIntHashMap dense_ids = new LongIntHashMap();
+    private final LongArrayList ids = new LongArrayList();
+    private int[] degrees;
+    private int[] tail_distances;
+    private int[] offsets;
+    private int[] neighbors;
+    //predecessors[d][v] is the dense id of the node before v at depth d + 1 on its best walk, when recording a path.
+    private int[][] predecessors;
+    private List<Long> path = null;
+
+    public LayeredSearch(Transaction tx, SearchConfig config) {
+        if (config.simplePaths) {
+            throw new IllegalArgumentException("The layered search scores walks, simplePaths is not supported");
+        }
+        this.tx = tx;
+        this.config = config;
+    }
+
+    /**
+     * @param record_path if true, the nodes of a lowest scoring walk are kept, see path().
+     * @return the lowest promiscuity score of walks of length k, or Integer.MAX_VALUE if there is no such walk.
+     */
+    public int lowestScore(Node sourceNode, Node tailNode, int k, boolean record_path) {
+        path = null;
+        if (k < 1) return Integer.MAX_VALUE;
+        LongIntHashMap source_distances = distances(sourceNode, k);
+        LongIntHashMap tail_distances_by_id = distances(tailNode, k);
+        buildSubgraph(source_distances, tail_distances_by_id, k);
+        int n = ids.size();
+        predecessors = record_path ? new int[k][] : null;
+
+        int[] layer = new int[n];
+        Arrays.fill(layer, UNREACHED);
+        int[] first_predecessors = record_path ? new int[n] : null;
+        //As in the other engines, the degree of the source node has no effect on the promiscuity score of paths.
+        for (Relationship rel : sourceNode.getRelationships()) {
+            int v = dense_ids.getIfAbsent(rel.getOtherNode(sourceNode).getId(), -1);
+            if (v == -1 || tail_distances[v] > k) continue;
+            layer[v] = degrees[v];
+            if (record_path) first_predecessors[v] = -1;
+        }
+        if (record_path) predecessors[0] = first_predecessors;
+
+        int[] next = new int[n];
+        for (int depth = 2; depth <= k; depth++) {
+            Arrays.fill(next, UNREACHED);
+            int[] layer_predecessors = record_path ? new int[n] : null;
+            int remaining = k + 1 - depth;
+            for (int v = 0; v < n; v++) {
+                int score = layer[v];
+                if (score == UNREACHED) continue;
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int w = neighbors[i];
+                    if (tail_distances[w] > remaining) continue;
+                    int updated_score = max(score, degrees[w]);
+                    if (updated_score < next[w]) {
+                        next[w] = updated_score;
+                        if (record_path) layer_predecessors[w] = v;
+                    }
+                }
+            }
+            if (record_path) predecessors[depth - 1] = layer_predecessors;
+            int[] swap = layer;
+            layer = next;
+            next = swap;
+        }
+
+        int best_score = Integer.MAX_VALUE;
+        int best_node = -1;
+        for (Relationship rel : tailNode.getRelationships()) {
+            int v = dense_ids.getIfAbsent(rel.getOtherNode(tailNode).getId(), -1);
+            if (v != -1 && layer[v] < best_score) {
+                best_score = layer[v];
+                best_node = v;
+            }
+        }
+        if (record_path && best_node != -1) {
+            path = new ArrayList<>(k + 2);
+            path.add(tailNode.getId());
+            for (int depth = k - 1, v = best_node; v != -1; v = predecessors[depth--][v]) path.add(ids.get(v));
+            path.add(sourceNode.getId());
+            Collections.reverse(path);
+        }
+        return best_score;
+    }
+
+    /**
+     * @return the node ids of a lowest scoring walk found by the last lowestScore call with record_path set, from the
+     * source to the tail, or null if there was no walk.
+     */
+    public List<Long> path() {
+        return path;
+    }
+
+    /**
+     * Runs a BFS of at most k hops from the node, only passing through nodes the config allows on paths.
+     *
+     * @return the hop distance from the node to every node reached, the node itself at 0.
+     */
+    private LongIntHashMap distances(Node start, int k) {
+        LongIntHashMap distances = new LongIntHashMap();
+        distances.put(start.getId(), 0);
+        List<Node> frontier = Collections.singletonList(start);
+        for (int depth = 1; depth <= k && !frontier.isEmpty(); depth++) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : frontier) {
+                for (Relationship rel : node.getRelationships()) {
+                    Node other = rel.getOtherNode(node);
+                    long id = other.getId();
+                    if (distances.containsKey(id) || usableDegree(other) == -1) continue;
+                    distances.put(id, depth);
+                    next.add(other);
+                }
+            }
+            frontier = next;
+        }
+        return distances;
+    }
+
+    /**
+     * Gives a dense id to every node allowed on paths that lies on some walk of length k + 1 from the source to the
+     * tail, and copies the relationships between them into offsets and neighbors.
+     */
+    private void buildSubgraph(LongIntHashMap source_distances, LongIntHashMap tail_distances_by_id, int k) {
+        dense_ids.clear();
+        ids.clear();
+        IntArrayList remaining = new IntArrayList();
+        source_distances.forEachKeyValue((id, source_distance) -> {
+            int tail_distance = tail_distances_by_id.getIfAbsent(id, -1);
+            if (tail_distance == -1 || source_distance + tail_distance > k + 1) return;
+            if (usable_degrees.getIfAbsent(id, -1) == -1) return;
+            dense_ids.put(id, ids.size());
+            ids.add(id);
+            remaining.add(tail_distance);
+        });
+        int n = ids.size();
+        degrees = new int[n];
+        tail_distances = remaining.toArray();
+        offsets = new int[n + 1];
+        IntArrayList targets = new IntArrayList();
+        for (int v = 0; v < n; v++) {
+            Node node = tx.getNodeById(ids.get(v));
+            degrees[v] = usable_degrees.get(ids.get(v));
+            for (Relationship rel : node.getRelationships()) {
+                int w = dense_ids.getIfAbsent(rel.getOtherNode(node).getId(), -1);
+                if (w != -1) targets.add(w);
+            }
+            offsets[v + 1] = targets.size();
+        }
+        neighbors = targets.toArray();
+    }
+
+    private int usableDegree(Node node) {
+        long id = node.getId();
+        if (usable_degrees.containsKey(id)) return usable_degrees.get(id);
+        int degree = -1;
+        if (!config.isHub(node)) {
+            degree = config.weight(node);
+            if (config.exceedsMaxDegree(degree)) degree = -1;
+        }
+        usable_degrees.put(id, degree);
+        return degree;
+    }
+}
@@ -0,0 +1,233 @@
+package promiscuity;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Computes the lowest promiscuity scores of walks of length k between all pairs of a set of nodes, as k products in the
+ * (min, max) semiring. With S_d[s][v] the lowest score of walks from s reaching v as the d-th node after s,
+ *     S_1[s][v] = deg(v)  for the neighbors v of s,
+ *     S_d[s][w] = max(deg(w), min over neighbors v of w of S_(d-1)[s][v]),
+ * and the score of (s, t) is the lowest S_k[s][v] over the neighbors v of t, as in LayeredSearch for a single pair.
+ *
+ * The graph is read once, on the calling thread: the nodes within k hops of the set (the only ones a walk between two
+ * of its nodes can pass through) are given dense ids, and their weights, distance to the set and relationships within
+ * that neighborhood are copied into primitive arrays. The products are then computed without touching the database, so
+ * blocks of sources can be computed on several threads. A block holds the rows of up to BLOCK_SIZE sources interleaved
+ * (entry [v * block + b]), so a relationship is read once per block and the inner loop runs over contiguous ints. The
+ * rows are kept sparse: only the nodes reached in a layer are visited and reset, and nodes too far from the set to
+ * still reach a tail in the remaining hops are skipped. Simple paths cannot be computed this way, so they are not
+ * supported.
+ */
+public class MatrixSearch {
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    static final int BLOCK_SIZE = 64;
+    //The most ints a layer of a block may hold; the block size is lowered for large neighborhoods.
+    static final int MAX_LAYER_INTS = 1 << 22;
+
+    private final int k;
+    //Dense ids of the nodes of the set, in the order given.
+    private final int[] set;
+    //Weight of every node of the neighborhood, or UNREACHED for nodes the config excludes from paths.
+    private final int[] weights;
+    //Hops from every node to the nearest node of the set.
+    private final int[] distances;
+    private final int[] offsets;
+    private final int[] neighbors;
+    final int block_size;
+
+    public MatrixSearch(List<Node> nodes, int k, SearchConfig config) {
+        if (config.simplePaths) {
+            throw new IllegalArgumentException("The matrix search scores walks, simplePaths is not supported");
+        }
+        this.k = k;
+        LongIntHashMap dense_ids = new LongIntHashMap();
+        IntArrayList distance_list = new IntArrayList();
+        IntArrayList weight_list = new IntArrayList();
+        //Nodes by dense id, while the neighborhood is found. Only the ones within k - 1 hops are expanded.
+        ArrayList<Node> found = new ArrayList<>();
+        this.set = new int[nodes.size()];
+        for (int i = 0; i < set.length; i++) {
+            Node node = nodes.get(i);
+            int dense = dense_ids.getIfAbsent(node.getId(), -1);
+            if (dense == -1) {
+                dense = found.size();
+                dense_ids.put(node.getId(), dense);
+                found.add(node);
+                distance_list.add(0);
+                weight_list.add(usableWeight(node, config));
+            }
+            set[i] = dense;
+        }
+
+        //A breadth first search from the whole set, which also copies the relationships of every expanded node.
+        IntArrayList offset_list = new IntArrayList();
+        IntArrayList neighbor_list = new IntArrayList();
+        for (int v = 0; v < found.size(); v++) {
+            offset_list.add(neighbor_list.size());
+            int distance = distance_list.get(v);
+            //Nodes of the set are always expanded as sources, other nodes only if they may be put on a path.
+            if (distance >= k || (distance > 0 && weight_list.get(v) == UNREACHED)) continue;
+            Node node = found.get(v);
+            for (Relationship rel : node.getRelationships()) {
+                Node other = rel.getOtherNode(node);
+                int w = dense_ids.getIfAbsent(other.getId(), -1);
+                if (w == -1) {
+                    w = found.size();
+                    dense_ids.put(other.getId(), w);
+                    found.add(other);
+                    distance_list.add(distance + 1);
+                    weight_list.add(usableWeight(other, config));
+                }
+                neighbor_list.add(w);
+            }
+        }
+        offset_list.add(neighbor_list.size());
+
+        this.weights = weight_list.toArray();
+        this.distances = distance_list.toArray();
+        this.offsets = offset_list.toArray();
+        this.neighbors = neighbor_list.toArray();
+        this.block_size = max(1, min(BLOCK_SIZE, MAX_LAYER_INTS / max(1, weights.length)));
+    }
+
+    private static int usableWeight(Node node, SearchConfig config) {
+        if (config.isHub(node)) return UNREACHED;
+        int weight = config.weight(node);
+        return config.exceedsMaxDegree(weight) ? UNREACHED : weight;
+    }
+
+    /**
+     * @return the number of nodes of the set.
+     */
+    public int size() {
+        return set.length;
+    }
+
+    /**
+     * @return the number of nodes within k hops of the set.
+     */
+    public int neighborhoodSize() {
+        return weights.length;
+    }
+
+    /**
+     * Computes the rows of the sources from (inclusive) to to (exclusive), at most block_size of them, using the
+     * buffers of the given kernel. Safe to call from several threads with a kernel each.
+     *
+     * @return for every source, the lowest score to every node of the set, or Integer.MAX_VALUE if there is no walk.
+     */
+    int[][] rows(int from, int to, Kernel kernel) {
+        int block = to - from;
+        int[][] rows = new int[block][set.length];
+        for (int[] row : rows) Arrays.fill(row, UNREACHED);
+        if (k < 1) return rows;
+        int[] layer = kernel.layer;
+        int[] next = kernel.next;
+        IntArrayList active = kernel.active;
+        IntArrayList next_active = kernel.next_active;
+        boolean[] reached = kernel.reached;
+
+        //As in the other engines, the degree of the source node has no effect on the promiscuity score of paths.
+        for (int b = 0; b < block; b++) {
+            int s = set[from + b];
+            for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+                int v = neighbors[i];
+                if (weights[v] == UNREACHED || distances[v] > k) continue;
+                if (!reached[v]) {
+                    reached[v] = true;
+                    active.add(v);
+                }
+                layer[v * block + b] = weights[v];
+            }
+        }
+        clearReached(active, reached);
+
+        for (int depth = 2; depth <= k; depth++) {
+            int remaining = k + 1 - depth;
+            for (int a = 0; a < active.size(); a++) {
+                int v = active.get(a);
+                int row = v * block;
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int w = neighbors[i];
+                    if (weights[w] == UNREACHED || distances[w] > remaining) continue;
+                    if (!reached[w]) {
+                        reached[w] = true;
+                        next_active.add(w);
+                    }
+                    int target = w * block;
+                    for (int b = 0; b < block; b++) {
+                        next[target + b] = min(next[target + b], layer[row + b]);
+                    }
+                }
+            }
+            for (int a = 0; a < next_active.size(); a++) {
+                int w = next_active.get(a);
+                int target = w * block;
+                int weight = weights[w];
+                for (int b = 0; b < block; b++) {
+                    if (next[target + b] != UNREACHED) next[target + b] = max(next[target + b], weight);
+                }
+            }
+            clearRows(active, layer, block);
+            clearReached(next_active, reached);
+            int[] swap = layer;
+            layer = next;
+            next = swap;
+            IntArrayList swap_active = active;
+            active = next_active;
+            next_active = swap_active;
+        }
+
+        for (int j = 0; j < set.length; j++) {
+            int t = set[j];
+            for (int i = offsets[t]; i < offsets[t + 1]; i++) {
+                int row = neighbors[i] * block;
+                for (int b = 0; b < block; b++) rows[b][j] = min(rows[b][j], layer[row + b]);
+            }
+        }
+        clearRows(active, layer, block);
+        return rows;
+    }
+
+    private static void clearRows(IntArrayList nodes, int[] layer, int block) {
+        for (int a = 0; a < nodes.size(); a++) {
+            int row = nodes.get(a) * block;
+            Arrays.fill(layer, row, row + block, UNREACHED);
+        }
+        nodes.clear();
+    }
+
+    private static void clearReached(IntArrayList nodes, boolean[] reached) {
+        for (int a = 0; a < nodes.size(); a++) reached[nodes.get(a)] = false;
+    }
+
+    /**
+     * The buffers of one thread computing blocks: two layers of the neighborhood's size times the block size, which are
+     * all UNREACHED between blocks, and the nodes reached in each.
+     */
+    class Kernel {
+        final int[] layer;
+        final int[] next;
+        final IntArrayList active = new IntArrayList();
+        final IntArrayList next_active = new IntArrayList();
+        final boolean[] reached;
+
+        Kernel() {
+            layer = new int[weights.length * block_size];
+            next = new int[weights.length * block_size];
+            Arrays.fill(layer, UNREACHED);
+            Arrays.fill(next, UNREACHED);
+            reached = new boolean[weights.length];
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Math.max;
+
+/**
+ * The search of promiscuity.promiscuityPath run by several worker threads at once, each reading the graph in a
+ * transaction of its own with the access of the caller. The workers therefore see the committed graph, not the changes
+ * of the calling transaction, and run on a pool of daemon threads shared by all searches rather than on threads of their own.
+ *
+ * The single priority queue is replaced by a MultiQueue: QUEUES_PER_THREAD heaps per worker, each behind its own lock.
+ * An entry is pushed to a random heap, and a worker pops from the better of two random heaps (by the degree at their
+ * heads), so the workers rarely contend for a lock and the entries dequeued are close to, but not exactly, in degree
+ * order. The paths found are kept in a concurrent sorted set trimmed to numPaths, and the score of its last path bounds
+ * the search: an entry whose degree or path score is at least that bound cannot make the top n, so it is dropped, and
+ * with it the rest of its heap, whose degrees are no lower. The search ends once every heap is empty and no worker holds
+ * an entry. Since an entry is only dropped when it cannot beat n paths already found, the scores returned are exactly
+ * those of the sequential search, though paths with tied scores may differ.
+ */
+public class ParallelPathSearch {
+    static final int QUEUES_PER_THREAD = 2;
+
+    private static final AtomicInteger next_thread = new AtomicInteger(1);
+    //Workers of a search queued behind those of others start late, and find less or nothing left to do, but never block
+    // the search: any one worker can run it to the end.
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "promiscuity-parallel-" + next_thread.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final GraphDatabaseService db;
+    //Access of the caller, which the workers' transactions run with.
+    private final SecurityContext security;
+    private final long source;
+    private final long tail;
+    private final int k;
+    private final int numPaths;
+    private final SearchConfig config;
+    private final int concurrency;
+
+    private final Heap[] heaps;
+    private final ConcurrentSkipListSet<Found> found = new ConcurrentSkipListSet<>();
+    //Paths in found, never more than it holds: a path is added before it is counted and uncounted before it is removed.
+    private final AtomicInteger found_count = new AtomicInteger();
+    //The score of the n-th path found so far, or Integer.MAX_VALUE.
+    private final AtomicInteger bound = new AtomicInteger(Integer.MAX_VALUE);
+    //Workers holding an entry, and the entries pushed so far, to tell when the search has ended.
+    private final AtomicInteger busy = new AtomicInteger();
+    private final LongAdder pushed = new LongAdder();
+    private final AtomicLong found_sequence = new AtomicLong();
+    private volatile Throwable failure = null;
+
+    ParallelPathSearch(GraphDatabaseService db, SecurityContext security, Node sourceNode, Node tailNode, int k, int numPaths,
+                       SearchConfig config, int concurrency) {
+        this.db = db;
+        this.security = security;
+        this.source = sourceNode.getId();
+        this.tail = tailNode.getId();
+        this.k = k;
+        this.numPaths = numPaths;
+        this.config = config;
+        this.concurrency = concurrency;
+        this.heaps = new Heap[QUEUES_PER_THREAD * concurrency];
+        for (int i = 0; i < heaps.length; i++) heaps[i] = new Heap();
+    }
+
+    /**
+     * Runs the search as concurrency workers on the shared pool, and waits for it to end.
+     *
+     * @return the node ids of the top numPaths paths from source to tail with their scores, by increasing score.
+     */
+    List<Found> run() {
+        if (k < 1 || numPaths < 1) return Collections.emptyList();
+        //The source is expanded like any other entry. Its degree is 0, as the degree of the source node has no effect on
+        // the promiscuity score of paths.
+        push(new Item(source, 0, 0, 0, null));
+
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < concurrency; i++) workers.add(executor.submit(this::work));
+            for (Future<?> worker : workers) worker.get();
+        } catch (InterruptedException e) {
+            failure = e;
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the parallel promiscuity search", e);
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+            throw new RuntimeException("The parallel promiscuity search failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            //Workers still queued are dropped; running ones stop at their next entry once failure is set.
+            for (Future<?> worker : workers) worker.cancel(false);
+        }
+
+        List<Found> results = new ArrayList<>(numPaths);
+        for (Found path : found) {
+            if (results.size() == numPaths) break;
+            results.add(path);
+        }
+        return results;
+    }
+
+    private void work() {
+        try (Transaction worker_tx = Promiscuity.beginTx(db, security); NodeCursor cursor = nodeCursor(worker_tx)) {
+            Read read = ((InternalTransaction) worker_tx).kernelTransaction().dataRead();
+            while (failure == null) {
+                long pushed_before = pushed.sum();
+                busy.incrementAndGet();
+                Item item;
+                try {
+                    item = pop();
+                    if (item != null) expand(worker_tx, read, cursor, item);
+                } finally {
+                    busy.decrementAndGet();
+                }
+                if (item != null) continue;
+                //A worker pushes before it stops being busy, so if every heap is empty, then no worker holds an entry, and
+                // none was pushed since this one started looking, there is nothing left for any worker.
+                if (allEmpty() && busy.get() == 0 && pushed.sum() == pushed_before) break;
+                LockSupport.parkNanos(10_000);
+            }
+            worker_tx.commit();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private static NodeCursor nodeCursor(Transaction tx) {
+        KernelTransaction kernel_tx = ((InternalTransaction) tx).kernelTransaction();
+        return kernel_tx.cursors().allocateNodeCursor(kernel_tx.pageCursorTracer());
+    }
+
+    /**
+     * Expands the entry as the search of promiscuity.promiscuityPath does, unless it can no longer make the top n. The
+     * weights of the neighbors are read by id with the worker's cursor, so no Node is created for a neighbor.
+     */
+    private void expand(Transaction worker_tx, Read read, NodeCursor cursor, Item item) {
+        int updated_path_score = max(item.degree, item.path_score);
+        if (updated_path_score >= bound.get()) return;
+        Node node = worker_tx.getNodeById(item.node);
+        if (item.depth == k) {
+            for (Relationship rel : node.getRelationships()) {
+                if (rel.getOtherNodeId(item.node) == tail) {
+                    found(updated_path_score, item);
+                    return;
+                }
+            }
+            return;
+        }
+        for (Relationship rel : node.getRelationships()) {
+            long other = rel.getOtherNodeId(item.node);
+            if (config.isHub(other)) continue;
+            if (config.simplePaths && (other == tail || item.onPath(other))) continue;
+            int degree = config.weight(read, cursor, other);
+            if (config.exceedsMaxDegree(degree) || degree >= bound.get()) continue;
+            push(new Item(other, degree, updated_path_score, item.depth + 1, item));
+        }
+    }
+
+    private void found(int score, Item item) {
+        found.add(new Found(score, found_sequence.getAndIncrement(), item));
+        found_count.incrementAndGet();
+        while (true) {
+            int count = found_count.get();
+            if (count <= numPaths) break;
+            if (found_count.compareAndSet(count, count - 1)) found.pollLast();
+        }
+        if (found_count.get() >= numPaths) {
+            int nth_score = found.last().score;
+            bound.accumulateAndGet(nth_score, Math::min);
+        }
+    }
+
+    private void push(Item item) {
+        Heap heap = heaps[ThreadLocalRandom.current().nextInt(heaps.length)];
+        heap.lock.lock();
+        try {
+            heap.items.add(item);
+            heap.updateHead();
+        } finally {
+            heap.lock.unlock();
+        }
+        pushed.increment();
+    }
+
+    /**
+     * Pops the head of the better of two random heaps. If both look empty, the heaps are scanned for one which is not.
+     *
+     * @return the entry popped, or null if every heap was empty.
+     */
+    private Item pop() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            Heap first = heaps[random.nextInt(heaps.length)];
+            Heap second = heaps[random.nextInt(heaps.length)];
+            Heap heap = second.head_degree < first.head_degree ? second : first;
+            if (heap.head_degree == Integer.MAX_VALUE) {
+                heap = nonEmpty(random.nextInt(heaps.length));
+                if (heap == null) return null;
+            }
+            if (!heap.lock.tryLock()) continue;
+            try {
+                Item item = heap.items.poll();
+                //The rest of the heap is no better than its head, so it is dropped along with it.
+                if (item != null && item.degree >= bound.get()) heap.items.clear();
+                heap.updateHead();
+                if (item != null) return item;
+            } finally {
+                heap.lock.unlock();
+            }
+        }
+    }
+
+    private Heap nonEmpty(int start) {
+        for (int i = 0; i < heaps.length; i++) {
+            Heap heap = heaps[(start + i) % heaps.length];
+            if (heap.head_degree != Integer.MAX_VALUE) return heap;
+        }
+        return null;
+    }
+
+    private boolean allEmpty() {
+        return nonEmpty(0) == null;
+    }
+
+    private static class Heap {
+        final ReentrantLock lock = new ReentrantLock();
+        final PriorityQueue<Item> items = new PriorityQueue<>();
+        //The degree at the head, Integer.MAX_VALUE if the heap is empty. Read without the lock to pick a heap.
+        volatile int head_degree = Integer.MAX_VALUE;
+
+        void updateHead() {
+            Item head = items.peek();
+            head_degree = head == null ? Integer.MAX_VALUE : head.degree;
+        }
+    }
+
+    /**
+     * An entry of the search, as a PathEntry but holding a node id, since its node is read by whichever worker pops it.
+     */
+    static class Item implements Comparable<Item> {
+        final long node;
+        final int degree;
+        final int path_score;
+        final int depth;
+        final Item parent;
+
+        Item(long node, int degree, int path_score, int depth, Item parent) {
+            this.node = node;
+            this.degree = degree;
+            this.path_score = path_score;
+            this.depth = depth;
+            this.parent = parent;
+        }
+
+        boolean onPath(long node) {
+            for (Item e = this; e != null; e = e.parent) {
+                if (e.node == node) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(Item other) {
+            return Integer.compare(degree, other.degree);
+        }
+    }
+
+    /**
+     * A path found, ordered by score and then by the order the paths were found in.
+     */
+    class Found implements Comparable<Found> {
+        final int score;
+        final long sequence;
+        final Item last;
+
+        Found(int score, long sequence, Item last) {
+            this.score = score;
+            this.sequence = sequence;
+            this.last = last;
+        }
+
+        /**
+         * @return the node ids of the path, from the source to the tail.
+         */
+        long[] path() {
+            long[] path = new long[last.depth + 2];
+            path[path.length - 1] = tail;
+            for (Item e = last; e != null; e = e.parent) path[e.depth] = e.node;
+            return path;
+        }
+
+        @Override
+        public int compareTo(Found other) {
+            int by_score = Integer.compare(score, other.score);
+            return by_score != 0 ? by_score : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -11,4 +11,15 @@ public class PathEntry extends Entry {
         super(degree, path_score, depth, node);
         this.parent = parent;
     }
+
+    /**
+     * Returns true if the given node is this entry's node or one of its ancestors, i.e. it already appears on the path
+     * from the source node to this entry. Walks the parent chain, so the check is O(depth).
+     */
+    public boolean onPath(Node node) {
+        for (PathEntry e = this; e != null; e = e.parent) {
+            if (e.node.equals(node)) return true;
+        }
+        return false;
+    }
 }
\ No newline at end of file
@@ -1,8 +1,18 @@
 package promiscuity;
 
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Description;
@@ -33,6 +43,12 @@ public class Promiscuity {
     @Context
     public Log log;
 
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k. This version of the algorithm is a
      * modification of BFS. It uses a priority queue to ensure only the nodes of low degree are inspected.
@@ -41,6 +57,7 @@ public class Promiscuity {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuity.promiscuityScore")
@@ -48,35 +65,148 @@ public class Promiscuity {
     public Stream<Output> promiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<Output> result = new ArrayList<>();
         int k = k_input.intValue();
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
-
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1));
-
-        int best_score = Integer.MAX_VALUE;
-        while (!priorityQueue.isEmpty()) {
-            Entry head = priorityQueue.poll();
-            Node node = head.node;
-            //if (head.degree >= best_score) {
-            //    result.add(new Output(best_score));
-            //    break;
-            //}
-            int x = promiscuityScore_subroutine(node, tailNode, head.depth, k, head.path_score, priorityQueue);
-            if (x != -1) {
-                best_score = min(best_score, x);
-                break;
-            }
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        int best_score;
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityScore", sourceNode, tailNode, k, config);
+        try {
+            best_score = lowestScore(sourceNode, tailNode, k, config);
+        } finally {
+            permit.close();
         }
         if(best_score < Integer.MAX_VALUE){
             result.add(new Output(best_score));
         }
         return result.stream();
     }
+
+    /**
+     * Runs the search behind promiscuity.promiscuityScore, so it can also be used outside of a procedure call (e.g. by
+     * the worker threads of promiscuity.write, which set tx and db themselves). If frontierCache is set the score is
+     * answered from the source's cached frontier instead. If maxHeapShare is set, the DFS search is used when the queue
+     * is estimated to need more than the allowed heap, or once it actually grows past it.
+     *
+     * @return the lowest promiscuity score of paths of length k, or Integer.MAX_VALUE if there is no such path.
+     */
+    int lowestScore(Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        if (config.frontierCache && !config.simplePaths) {
+            return FrontierCache.lowestScore(db, tx, sourceNode, tailNode, k, config);
+        }
+        if (config.maxHeapShare > 0) {
+            long budget = CostModel.heapBudget(config);
+            if (CostModel.estimate(sourceNode, tailNode, k, config).bfsBytes() > budget) {
+                return dfsLowestScore(sourceNode, tailNode, k, config);
+            }
+            int best_score = lowestScore(sourceNode, tailNode, k, config, CostModel.entryLimit(budget));
+            if (best_score != QUEUE_LIMIT_EXCEEDED) return best_score;
+            return dfsLowestScore(sourceNode, tailNode, k, config);
+        }
+        return lowestScore(sourceNode, tailNode, k, config, Long.MAX_VALUE);
+    }
+
+    //Returned by the bounded lowestScore when the queue grew past its limit before a path was found.
+    static final int QUEUE_LIMIT_EXCEEDED = -2;
+
+    /**
+     * Runs the search behind promiscuity.promiscuityScore, giving up once it holds more than max_entries entries, the
+     * queued ones and those kept as their ancestors. The search is the AdjacencySearch shared with snapshots and the command line runner, run
+     * over the graph of the transaction.
+     *
+     * @return the lowest promiscuity score of paths of length k, Integer.MAX_VALUE if there is no such path, or
+     * QUEUE_LIMIT_EXCEEDED if the search was given up.
+     */
+    int lowestScore(Node sourceNode, Node tailNode, int k, SearchConfig config, long max_entries) {
+        PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+        event.begin();
+        TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+        int source = graph.denseId(sourceNode);
+        int tail = graph.denseId(tailNode);
+        AdjacencySearch search = new AdjacencySearch(graph, config);
+        int best_score = search.lowestScore(source, tail, k, max_entries);
+        if (event.shouldCommit()) {
+            event.engine = "promiscuityScore";
+            commitQueryEvent(event, sourceNode, tailNode, k, best_score, search.dequeued(), search.expansions(), search.peakQueueSize());
+        }
+        return best_score;
+    }
+
+    /**
+     * Fills in and commits a PromiscuityEvents.QueryEvent whose engine has been set.
+     */
+    static void commitQueryEvent(PromiscuityEvents.QueryEvent event, Node sourceNode, Node tailNode, int k, int best_score,
+                                 long dequeued, long expansions, long peak_queue_size) {
+        event.sourceNodeId = sourceNode.getId();
+        event.tailNodeId = tailNode.getId();
+        event.k = k;
+        event.score = best_score >= 0 && best_score < Integer.MAX_VALUE ? best_score : -1;
+        event.dequeued = dequeued;
+        event.expansions = expansions;
+        event.peakQueueSize = peak_queue_size;
+        event.commit();
+    }
+
+    /**
+     * @return true if the transaction has written to the graph without committing yet.
+     */
+    static boolean hasPendingChanges(Transaction tx) {
+        return ((InternalTransaction) tx).kernelTransaction().dataRead().transactionStateHasChanges();
+    }
+
+    /**
+     * @return the security context the transaction runs with, to open the transactions of worker threads with.
+     */
+    static SecurityContext securityContext(Transaction tx) {
+        return ((InternalTransaction) tx).securityContext();
+    }
+
+    /**
+     * Begins a transaction with the given access, unlike GraphDatabaseService.beginTx(), which has full access. Work
+     * done on behalf of a caller in transactions of its own runs with the caller's security context this way.
+     */
+    static Transaction beginTx(GraphDatabaseService db, SecurityContext security) {
+        return ((GraphDatabaseAPI) db).beginTransaction(KernelTransaction.Type.EXPLICIT, security);
+    }
+
+    /**
+     * Admits a call of the procedure to the QueryScheduler, classified by the cached CostModel estimate of its work.
+     */
+    private QueryScheduler.Permit admit(String procedure, Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        return QueryScheduler.admit(tx, procedure, CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+    }
+
+    /**
+     * Admits a call of a procedure searching from several sources (or towards a label), classified by the estimate of
+     * the searches from all of them.
+     */
+    private QueryScheduler.Permit admit(String procedure, List<Node> sources, int k, SearchConfig config) {
+        return QueryScheduler.admit(tx, procedure, CostModel.admissionEstimate(db, sources, k, config));
+    }
+
+    /**
+     * Admits a call of an approximate procedure. Its beam holds at most beamWidth entries per depth, so the call is
+     * classified by the entries the beams can take in if that is below the estimate of the full search.
+     */
+    private QueryScheduler.Permit admitBeam(String procedure, Node sourceNode, Node tailNode, int k, int beamWidth, SearchConfig config) {
+        CostModel cost = CostModel.admissionEstimate(db, sourceNode, tailNode, k, config);
+        double beam_entries = (double) k * beamWidth * max(1, cost.branching);
+        return QueryScheduler.SHARED.admit(QueryScheduler.user(tx), procedure, min(cost.bfs_entries, beam_entries));
+    }
+
+    /**
+     * Returns a stream which releases the permit once it is closed, so a search run while its rows are read keeps its
+     * slot until then. The permit is released right away if building the stream fails.
+     */
+    private static <T> Stream<T> releasedOnClose(QueryScheduler.Permit permit, java.util.function.Supplier<Stream<T>> stream) {
+        try {
+            return stream.get().onClose(permit::close);
+        } catch (RuntimeException | Error e) {
+            permit.close();
+            throw e;
+        }
+    }
     /*
         ArrayList<Output> result = new ArrayList<>();
         int k = k_input.intValue();
@@ -106,6 +236,163 @@ public class Promiscuity {
     }*/
 
 
+    /**
+     * This procedure takes a source Node, a tail Node, and a length parameter k, and computes the lowest promiscuity
+     * score by dynamic programming over the k layers of the subgraph between them, see LayeredSearch. Unlike the other
+     * engines its running time is polynomial in k, O(k * m) for the m relationships of that subgraph, which pays off
+     * once k is large or the nodes near the source and tail have high degrees. Simple paths are not supported.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
+     */
+    @Procedure(value = "promiscuity.dpPromiscuityScore")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source and tail node, by dynamic programming over layers.")
+    public Stream<Output> dpPromiscuityScore(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        LayeredSearch search = new LayeredSearch(tx, config);
+        int best_score;
+        QueryScheduler.Permit permit = admit("promiscuity.dpPromiscuityScore", sourceNode, tailNode, k, config);
+        try {
+            best_score = search.lowestScore(sourceNode, tailNode, k, false);
+        } finally {
+            permit.close();
+        }
+        if (best_score == Integer.MAX_VALUE) return Stream.empty();
+        return Stream.of(new Output(best_score));
+    }
+
+    /**
+     * This procedure works as promiscuity.dpPromiscuityScore, but also recovers a path with the lowest score from the
+     * predecessors recorded in every layer.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A PathOutput with the lowest promiscuity score and a path scoring it, or nothing if there is no path.
+     */
+    @Procedure(value = "promiscuity.dpPromiscuityPath")
+    @Description("Get a least promiscuous path of length k connecting a source and tail node, by dynamic programming over layers.")
+    public Stream<PathOutput> dpPromiscuityPath(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        LayeredSearch search = new LayeredSearch(tx, config);
+        int best_score;
+        QueryScheduler.Permit permit = admit("promiscuity.dpPromiscuityPath", sourceNode, tailNode, k, config);
+        try {
+            best_score = search.lowestScore(sourceNode, tailNode, k, true);
+        } finally {
+            permit.close();
+        }
+        if (best_score == Integer.MAX_VALUE) return Stream.empty();
+        ArrayList<Node> nodes = new ArrayList<>();
+        for (long id : search.path()) nodes.add(tx.getNodeById(id));
+        return Stream.of(new PathOutput(best_score, buildPath(nodes)));
+    }
+
+    /**
+     * This procedure takes a source Node, a tail Node, and a maximum length parameter maxK. It runs a single
+     * degree-ordered expansion, in the same fashion as promiscuity.promiscuityScore, and records the lowest score found
+     * at every depth where the tail node becomes adjacent. This replaces calling promiscuityScore once for every k, which
+     * re-expands all of the shorter levels each time.
+     * Every path not yet found passes through a node still on the queue, so once the head of the queue has a degree of
+     * at least the score recorded at every depth, none of the scores can improve and we stop.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param maxK_input longest path length to report. Must be of type Number to satisfy Neo4j.
+     * @param atMost     if true, return only the lowest score over all path lengths 1..maxK ("at most k hops").
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A ProfileOutput for every path length with a connecting path, or a single ProfileOutput if atMost is set.
+     */
+    @Procedure(value = "promiscuity.promiscuityScoreProfile")
+    @Description("Get the lowest promiscuity score of paths of every length 1..maxK connecting a source and tail node.")
+    public Stream<ProfileOutput> promiscuityScoreProfile(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("maxK") Number maxK_input,
+            @Name(value = "atMost", defaultValue = "false") boolean atMost,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        ArrayList<ProfileOutput> result = new ArrayList<>();
+        int maxK = maxK_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        //best_scores[d] holds the lowest score found so far for paths of length d. Index 0 is unused.
+        int[] best_scores = new int[maxK + 1];
+        Arrays.fill(best_scores, Integer.MAX_VALUE);
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityScoreProfile", sourceNode, tailNode, maxK, config);
+        try {
+            PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
+
+            //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
+            // source node has no effect on the promiscuity score of paths.
+            PathEntry sourceNodeEntry = new PathEntry(0,0,0, sourceNode,null);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1, sourceNodeEntry, tailNode, config));
+
+            while (!priorityQueue.isEmpty()) {
+                Entry head = priorityQueue.poll();
+                if (!canImproveProfile(head.degree, profileBound(best_scores, 1, atMost), atMost)) break;
+                Node node = head.node;
+                int updated_path_score = max(head.degree, head.path_score);
+                if (updated_path_score < best_scores[head.depth] && getRelationship(node, tailNode) != null) {
+                    best_scores[head.depth] = updated_path_score;
+                }
+                //Only expand if a longer path through this node could still improve one of the deeper depths.
+                if (head.depth < maxK && canImproveProfile(updated_path_score, profileBound(best_scores, head.depth + 1, atMost), atMost)) {
+                    PathEntry parent = config.simplePaths ? (PathEntry) head : null;
+                    node.getRelationships().iterator()
+                            .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), updated_path_score, head.depth + 1, parent, tailNode, config));
+                }
+            }
+        } finally {
+            permit.close();
+        }
+
+        if (atMost) {
+            int best_k = 0;
+            for (int d = 1; d <= maxK; d++) {
+                if (best_scores[d] < best_scores[best_k]) best_k = d;
+            }
+            if (best_k > 0) result.add(new ProfileOutput(best_k, best_scores[best_k]));
+        } else {
+            for (int d = 1; d <= maxK; d++) {
+                if (best_scores[d] < Integer.MAX_VALUE) result.add(new ProfileOutput(d, best_scores[d]));
+            }
+        }
+        return result.stream();
+    }
+
+    /**
+     * Returns the score a path with a length in fromDepth..maxK must beat to change the profile. In exact mode each of
+     * those depths has to be settled, so this is the worst of their recorded scores. In atMost mode only the overall
+     * best matters, whatever its length. Index 0 of best_scores is unused and stays at Integer.MAX_VALUE.
+     */
+    private int profileBound(int[] best_scores, int fromDepth, boolean atMost) {
+        if (atMost) return Arrays.stream(best_scores).min().getAsInt();
+        int bound = Integer.MIN_VALUE;
+        for (int d = fromDepth; d < best_scores.length; d++) bound = max(bound, best_scores[d]);
+        return bound;
+    }
+
+    /**
+     * In atMost mode a path that ties the best score is still explored, so that among equal scores the shortest path
+     * length is the one reported.
+     */
+    private boolean canImproveProfile(int score, int bound, boolean atMost) {
+        return atMost ? score <= bound : score < bound;
+    }
 
 
     /**
@@ -116,6 +403,7 @@ public class Promiscuity {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuity.promiscuityPath")
@@ -124,66 +412,180 @@ public class Promiscuity {
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
             @Name("k") Number k_input,
-            @Name("numPaths") Number numPaths_input) {
+            @Name("numPaths") Number numPaths_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         int k = k_input.intValue();
         int numPaths = numPaths_input.intValue();
-        ArrayList<PathOutput> results = new ArrayList<>(numPaths*2+5);
-        PathOutput emptyResult = new PathOutput(Integer.MAX_VALUE, null);
-
-        for(int i=0;i<numPaths;i++) results.add(emptyResult);
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        CostModel.checkHeap("promiscuity.promiscuityPath", sourceNode, tailNode, k, numPaths, config);
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityPath", sourceNode, tailNode, k, config);
+        //A streaming search runs while its rows are read, so it keeps its slot until the stream is closed.
+        if (config.streaming) return releasedOnClose(permit, () -> streamPaths(sourceNode, tailNode, k, numPaths, config, null));
+        try {
+            ArrayList<PathOutput> results = new ArrayList<>(numPaths*2+5);
+            PathOutput emptyResult = new PathOutput(Integer.MAX_VALUE, null);
+
+            for(int i=0;i<numPaths;i++) results.add(emptyResult);
+
+            TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+            AdjacencySearch search = new AdjacencySearch(graph, config);
+
+            PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+            event.begin();
+            search.startPaths(graph.denseId(sourceNode), graph.denseId(tailNode), k);
+            int enqueuedPaths = 0;
+            while (search.queued() > 0) {
+                int best_score = results.get(numPaths-1).promiscuity_score.intValue();
+                if (search.headDegree() >= best_score) break;
+                int found = search.step();
+                if (found != -1) {
+                    results.add(new PathOutput(search.score(found), buildPath(graph, search.path(found), tailNode)));
+                    search.release(found);
+                    enqueuedPaths++;
+                    Collections.sort(results);
+                }
+            }
+            search.finish();
+            if (event.shouldCommit()) {
+                event.engine = "promiscuityPath";
+                int best_score = numPaths > 0 ? results.get(0).promiscuity_score.intValue() : Integer.MAX_VALUE;
+                commitQueryEvent(event, sourceNode, tailNode, k, best_score, search.dequeued(),
+                        search.expansions(), search.peakQueueSize());
+            }
 
-        PriorityQueue<PathEntry> priorityQueue = new PriorityQueue<>();
+            //We only want to return EITHER number of enqueued paths (i.e. if there are only three possible paths and
+            // the user requested five, we should return five.) OR the lowest promiscuity score paths up to numPaths.
+            int numResults = min(numPaths,enqueuedPaths);
 
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        PathEntry sourceNodeEntry = new PathEntry(0,0,0, sourceNode,null);
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1,sourceNodeEntry));
+            //Gets the top n (n = numPaths) results from the "results" list. If there are not n paths to return, return
+            // every path enqueued.
+            return results.subList(0,numResults).stream();
+        } finally {
+            permit.close();
+        }
+    }
 
-        int enqueuedPaths = 0;
-        while (!priorityQueue.isEmpty()) {
-            int best_score = results.get(numPaths-1).promiscuity_score.intValue();
-
-            PathEntry head = priorityQueue.poll();
-            assert head != null;
-            if (head.degree >= best_score) break;
-            int x = promiscuityPath_subroutine(head, tailNode, k, priorityQueue);
-            if (x != -1) {
-                Path p = buildPath(head, tailNode);
-                results.add(new PathOutput(x, p));
-                enqueuedPaths++;
-                Collections.sort(results);
+    /**
+     * This procedure computes the same top n least promiscuous paths as promiscuity.promiscuityPath, with the search
+     * spread over concurrency worker threads, see ParallelPathSearch. The workers read the committed graph in
+     * transactions of their own, so the procedure cannot be called from a transaction with uncommitted changes, which
+     * the workers would not see; such a call fails. A path through a node deleted by another transaction committed while
+     * the search runs is left out. The scores returned match those of promiscuity.promiscuityPath, while the paths
+     * returned for tied scores may differ.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param numPaths_input number of paths to return.
+     * @param concurrency_input number of worker threads.
+     * @param config_input optional map of search options, see SearchConfig. streaming is ignored.
+     * @return Up to numPaths PathOutputs ordered by promiscuity score.
+     */
+    @Procedure(value = "promiscuity.parallelPromiscuityPath")
+    @Description("Get the top n least promiscuous paths of length k connecting a source and tail node, using several threads. " +
+            "Reads the committed graph, so it cannot be called from a transaction with uncommitted changes.")
+    public Stream<PathOutput> parallelPromiscuityPath(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name("numPaths") Number numPaths_input,
+            @Name(value = "concurrency", defaultValue = "4") Number concurrency_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        int numPaths = numPaths_input.intValue();
+        int concurrency = concurrency_input.intValue();
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if (hasPendingChanges(tx)) {
+            throw new IllegalStateException("promiscuity.parallelPromiscuityPath reads the committed graph, so it cannot see " +
+                    "the uncommitted changes of this transaction; commit them first, or use promiscuity.promiscuityPath");
+        }
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        CostModel.checkHeap("promiscuity.parallelPromiscuityPath", sourceNode, tailNode, k, numPaths, config);
+        List<ParallelPathSearch.Found> paths;
+        QueryScheduler.Permit permit = admit("promiscuity.parallelPromiscuityPath", sourceNode, tailNode, k, config);
+        try {
+            paths = new ParallelPathSearch(db, securityContext(tx), sourceNode, tailNode, k, numPaths, config, concurrency).run();
+        } finally {
+            permit.close();
+        }
+        ArrayList<PathOutput> results = new ArrayList<>(paths.size());
+        for (ParallelPathSearch.Found path : paths) {
+            ArrayList<Node> nodes = new ArrayList<>();
+            try {
+                for (long id : path.path()) nodes.add(tx.getNodeById(id));
+            } catch (NotFoundException e) {
+                //Deleted since the workers read it.
+                continue;
             }
+            results.add(new PathOutput(path.score, buildPath(nodes)));
         }
+        return results.stream();
+    }
 
-        //We only want to return EITHER number of enqueued paths (i.e. if there are only three possible paths and
-        // the user requested five, we should return five.) OR the lowest promiscuity score paths up to numPaths.
-        int numResults = min(numPaths,enqueuedPaths);
+    /**
+     * Runs the search of promiscuity.promiscuityPath lazily, returning each path as soon as it is final. Every path not
+     * found yet passes through an entry still on the queue, so its score is at least the degree of the queue's head; a
+     * found path scoring no more than that can therefore be returned right away. Found paths wait in a queue of their
+     * own until then, and the search only advances while the caller asks for more rows.
+     *
+     * @param job the job running the search, whose progress is updated as it goes, or null.
+     */
+    Stream<PathOutput> streamPaths(Node sourceNode, Node tailNode, int k, int numPaths, SearchConfig config, JobStore.Job job) {
+        TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+        AdjacencySearch search = new AdjacencySearch(graph, config);
+        PriorityQueue<PathOutput> found = new PriorityQueue<>();
+        search.startPaths(graph.denseId(sourceNode), graph.denseId(tailNode), k);
+
+        Iterator<PathOutput> paths = new Iterator<PathOutput>() {
+            int returned = 0;
+            PathOutput next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && returned < numPaths) next = advance();
+                return next != null;
+            }
+
+            @Override
+            public PathOutput next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                PathOutput path = next;
+                next = null;
+                returned++;
+                return path;
+            }
 
-        //Gets the top n (n = numPaths) results from the "results" list. If there are not n paths to return, return
-        // every path enqueued.
-        return results.subList(0,numResults).stream();
+            private PathOutput advance() {
+                while (true) {
+                    if (!found.isEmpty() && (search.queued() == 0
+                            || found.peek().promiscuity_score.intValue() <= search.headDegree())) {
+                        return found.poll();
+                    }
+                    if (search.queued() == 0) return null;
+                    if (job != null) job.dequeued(search.headDegree());
+                    int entry = search.step();
+                    if (entry != -1) {
+                        int x = search.score(entry);
+                        found.add(new PathOutput(x, buildPath(graph, search.path(entry), tailNode)));
+                        search.release(entry);
+                        if (job != null) job.found(x);
+                    }
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED), false);
     }
 
     /**
-     * This procedure serves to look a PathEntry object from the top of the queue. We then check if our current depth
-     * (length of path) is equal to the desired depth (parameter k). If we are at the desired depth: we check to see if
-     * an edge exists between our node and the tail node. If we are not at the desired depth, we add all neighbors of
-     * the provided node to the queue, with the depth value (path length) increased by one.
-     **/
-    int promiscuityPath_subroutine(PathEntry entry, Node tail, int k, PriorityQueue<PathEntry> priorityQueue) {
-        Node node = entry.node;
-        int updated_path_score = max(node.getDegree(), entry.path_score);
-        if (entry.depth == k) {
-            boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                    .anyMatch(rel -> rel.getOtherNode(node).equals(tail));
-            if (tail_neighbor) return updated_path_score;
-            else return -1;
-        } else {
-            node.getRelationships().iterator()
-                    .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), updated_path_score,entry.depth + 1,entry));
-        }
-        return -1;
+     * Builds the path through the nodes with the given dense ids, followed by the tail.
+     */
+    private Path buildPath(TransactionAdjacency graph, int[] path, Node tail) {
+        ArrayList<Node> nodeArrayList = new ArrayList<>(path.length + 1);
+        for (int node : path) nodeArrayList.add(graph.node(node));
+        nodeArrayList.add(tail);
+        return buildPath(nodeArrayList);
     }
 
     private Path buildPath(PathEntry head, Node tail) {
@@ -193,6 +595,26 @@ public class Promiscuity {
             nodeArrayList.add(e.node);
         }
         Collections.reverse(nodeArrayList);
+        return buildPath(nodeArrayList);
+    }
+
+    /**
+     * Builds a Path through the given nodes, following the first relationship found between each consecutive pair.
+     */
+    Path buildPath(List<Node> nodeArrayList) {
+        PromiscuityEvents.PathBuildEvent event = new PromiscuityEvents.PathBuildEvent();
+        event.begin();
+        Path path = buildPathThrough(nodeArrayList);
+        if (event.shouldCommit()) {
+            event.sourceNodeId = path.startNode().getId();
+            event.tailNodeId = path.endNode().getId();
+            event.length = path.length();
+            event.commit();
+        }
+        return path;
+    }
+
+    private Path buildPathThrough(List<Node> nodeArrayList) {
         Iterator<Node> nodeIterator = nodeArrayList.iterator();
         Node sourceNode = nodeIterator.next();
         PathImpl.Builder builder = new Builder(sourceNode);
@@ -214,6 +636,356 @@ public class Promiscuity {
         return null;
     }
 
+    /**
+     * This procedure takes a source Node, a label, and a length parameter k, and computes the lowest promiscuity score
+     * of paths of length k from the source to any node carrying the label, together with the node reached. It runs the
+     * degree-ordered search of promiscuity.promiscuityPath, but at depth k it checks every neighbor against the set of
+     * labelled node ids instead of comparing it with a single tail. The first hit popped from the queue is optimal for
+     * the same reason a tail hit is, so the search stops there.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param label      label of the nodes the search may end at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A LabelOutput with the lowest promiscuity score and the labelled node reached, or nothing if there is none.
+     */
+    @Procedure(value = "promiscuity.promiscuityScoreToLabel")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source node to any node with a label.")
+    public Stream<LabelOutput> promiscuityScoreToLabel(
+            @Name("sourceNode") Node sourceNode,
+            @Name("label") String label,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        List<Node> sources = Collections.singletonList(sourceNode);
+        PathOutput best;
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityScoreToLabel", sources, k, config);
+        try {
+            Iterator<PathOutput> paths = targetPaths(sources, labelledNodes(label), k, 1, config);
+            best = paths.hasNext() ? paths.next() : null;
+        } finally {
+            permit.close();
+        }
+        if (best == null) return Stream.empty();
+        return Stream.of(new LabelOutput(best.promiscuity_score, best.promiscuity_path.endNode()));
+    }
+
+    /**
+     * This procedure takes a source Node, a label, and a length parameter k, and computes the top n least promiscuous
+     * paths of length k from the source to nodes carrying the label, in the same way as promiscuity.promiscuityScoreToLabel.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param label      label of the nodes the search may end at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param numPaths_input number of paths to return.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return Up to numPaths PathOutputs ordered by promiscuity score, each ending at a labelled node.
+     */
+    @Procedure(value = "promiscuity.promiscuityPathToLabel")
+    @Description("Get the top n least promiscuous paths of length k connecting a source node to nodes with a label.")
+    public Stream<PathOutput> promiscuityPathToLabel(
+            @Name("sourceNode") Node sourceNode,
+            @Name("label") String label,
+            @Name("k") Number k_input,
+            @Name("numPaths") Number numPaths_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        List<Node> sources = Collections.singletonList(sourceNode);
+        //The paths are searched while they are read, so the call keeps its slot until the stream is closed.
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityPathToLabel", sources, k, config);
+        return releasedOnClose(permit, () -> {
+            Iterator<PathOutput> paths = targetPaths(sources, labelledNodes(label), k, numPaths_input.intValue(), config);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED), false);
+        });
+    }
+
+    /**
+     * This procedure takes a list of source Nodes, a list of tail Nodes, and a length parameter k, and computes the
+     * lowest promiscuity score of paths of length k from any of the sources to any of the tails, together with the pair
+     * it connects. It runs a single degree-ordered search seeded with the neighbors of every source, and at depth k
+     * checks the neighbors against the set of tail ids, as promiscuity.promiscuityScoreToLabel does for a label. This
+     * replaces calling promiscuity.promiscuityScore for every (source, tail) pair.
+     *
+     * @param sources    nodes to start promiscuity search from
+     * @param tails      nodes the search may end at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A SetOutput with the lowest promiscuity score and the source and tail of a path scoring it, or nothing if
+     * no source is connected to a tail.
+     */
+    @Procedure(value = "promiscuity.promiscuityScoreSets")
+    @Description("Get the lowest promiscuity score of paths of length k connecting any of the source nodes to any of the tail nodes.")
+    public Stream<SetOutput> promiscuityScoreSets(
+            @Name("sources") List<Node> sources,
+            @Name("tails") List<Node> tails,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        PathOutput best;
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityScoreSets", sources, k, config);
+        try {
+            Iterator<PathOutput> paths = targetPaths(sources, nodeIds(tails), k, 1, config);
+            best = paths.hasNext() ? paths.next() : null;
+        } finally {
+            permit.close();
+        }
+        if (best == null) return Stream.empty();
+        return Stream.of(new SetOutput(best.promiscuity_score, best.promiscuity_path.startNode(), best.promiscuity_path.endNode()));
+    }
+
+    /**
+     * This procedure takes a list of source Nodes, a list of tail Nodes, and a length parameter k, and computes the top
+     * n least promiscuous paths of length k from any of the sources to any of the tails, in the same way as
+     * promiscuity.promiscuityScoreSets. Each path starts at its source and ends at its tail.
+     *
+     * @param sources    nodes to start promiscuity search from
+     * @param tails      nodes the search may end at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param numPaths_input number of paths to return.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return Up to numPaths PathOutputs ordered by promiscuity score.
+     */
+    @Procedure(value = "promiscuity.promiscuityPathSets")
+    @Description("Get the top n least promiscuous paths of length k connecting any of the source nodes to any of the tail nodes.")
+    public Stream<PathOutput> promiscuityPathSets(
+            @Name("sources") List<Node> sources,
+            @Name("tails") List<Node> tails,
+            @Name("k") Number k_input,
+            @Name("numPaths") Number numPaths_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityPathSets", sources, k, config);
+        return releasedOnClose(permit, () -> {
+            Iterator<PathOutput> paths = targetPaths(sources, nodeIds(tails), k, numPaths_input.intValue(), config);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED), false);
+        });
+    }
+
+    private static LongHashSet nodeIds(List<Node> nodes) {
+        LongHashSet ids = new LongHashSet();
+        for (Node node : nodes) ids.add(node.getId());
+        return ids;
+    }
+
+    /**
+     * Reads the ids of all nodes carrying the label from the label index, so that the search can test a neighbor with
+     * a set lookup instead of reading its labels.
+     */
+    LongHashSet labelledNodes(String label) {
+        LongHashSet targets = new LongHashSet();
+        try (ResourceIterator<Node> nodes = tx.findNodes(Label.label(label))) {
+            while (nodes.hasNext()) targets.add(nodes.next().getId());
+        }
+        return targets;
+    }
+
+    /**
+     * Runs the search behind the ToLabel and Sets procedures lazily, in the same fashion as streamPaths: a path found
+     * at depth k is returned once its score is no more than the degree at the head of the queue. The queue is seeded
+     * with the neighbors of every source, each entry keeping the source it started from as the root of its path, so a
+     * single search covers all sources. Each entry at depth k yields one path per distinct target neighbor. With simple
+     * paths, a target neighbor already on the path is skipped.
+     */
+    private Iterator<PathOutput> targetPaths(List<Node> sources, LongHashSet targets, int k, int numPaths, SearchConfig config) {
+        PriorityQueue<PathEntry> priorityQueue = new PriorityQueue<>();
+        PriorityQueue<PathOutput> found = new PriorityQueue<>();
+
+        //There is no single tail here, so no node is kept off the path for being the tail.
+        LongHashSet seeded = new LongHashSet();
+        for (Node sourceNode : targets.isEmpty() ? Collections.<Node>emptyList() : sources) {
+            if (!seeded.add(sourceNode.getId())) continue;
+            PathEntry sourceNodeEntry = new PathEntry(0,0,0, sourceNode,null);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1, sourceNodeEntry, null, config));
+        }
+
+        return new Iterator<PathOutput>() {
+            int returned = 0;
+            PathOutput next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && returned < numPaths) next = advance();
+                return next != null;
+            }
+
+            @Override
+            public PathOutput next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                PathOutput path = next;
+                next = null;
+                returned++;
+                return path;
+            }
+
+            private PathOutput advance() {
+                while (true) {
+                    if (!found.isEmpty() && (priorityQueue.isEmpty()
+                            || found.peek().promiscuity_score.intValue() <= priorityQueue.peek().degree)) {
+                        return found.poll();
+                    }
+                    if (priorityQueue.isEmpty()) return null;
+                    PathEntry head = priorityQueue.poll();
+                    Node node = head.node;
+                    int updated_path_score = max(head.degree, head.path_score);
+                    if (head.depth < k) {
+                        node.getRelationships().iterator()
+                                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), updated_path_score, head.depth + 1, head, null, config));
+                        continue;
+                    }
+                    LongHashSet reached = new LongHashSet();
+                    for (Relationship rel : node.getRelationships()) {
+                        Node other = rel.getOtherNode(node);
+                        long id = other.getId();
+                        if (!targets.contains(id) || !reached.add(id)) continue;
+                        if (config.simplePaths && head.onPath(other)) continue;
+                        found.add(new PathOutput(updated_path_score, buildPath(head, other)));
+                    }
+                }
+            }
+        };
+    }
+
+
+    /**
+     * This procedure takes a source Node, a tail Node, a length parameter k and a beam width. It is an approximate
+     * version of promiscuity.promiscuityScore: instead of an unbounded priority queue it expands the graph one depth at a
+     * time and keeps only the beamWidth entries with the lowest path score at every depth. Memory is O(beamWidth) and
+     * the runtime is O(k * beamWidth * b).
+     * Any path missed by the search had a prefix pruned from the beam, and its score is at least that prefix's score.
+     * The lowest pruned score therefore gives a certified lower bound on the optimal score.
+     *
+     * @param sourceNode      node to start promiscuity search from
+     * @param tailNode        node to end promiscuity search at
+     * @param k_input         length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param beamWidth_input number of entries kept at every depth.
+     * @param config_input    optional map of search options, see SearchConfig.
+     * @return An ApproxOutput with the lowest score found (null if the beam found no path) and a lower bound on the
+     * optimal score. Nothing is returned if no path of length k exists.
+     */
+    @Procedure(value = "promiscuity.approxPromiscuityScore")
+    @Description("Get an approximate lowest promiscuity score of paths of length k, with a lower bound on the optimum.")
+    public Stream<ApproxOutput> approxPromiscuityScore(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name("beamWidth") Number beamWidth_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        int beamWidth = beamWidth_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        int[] pruned_score = {Integer.MAX_VALUE};
+        Entry best;
+        QueryScheduler.Permit permit = admitBeam("promiscuity.approxPromiscuityScore", sourceNode, tailNode, k, beamWidth, config);
+        try {
+            best = beamSearch(sourceNode, tailNode, k, beamWidth, false, config, pruned_score);
+        } finally {
+            permit.close();
+        }
+        if (best == null && pruned_score[0] == Integer.MAX_VALUE) return Stream.empty();
+        Integer score = best == null ? null : best.updatedPathScore();
+        return Stream.of(new ApproxOutput(score, lowerBound(best, pruned_score[0])));
+    }
+
+    /**
+     * This procedure is the path returning version of promiscuity.approxPromiscuityScore. Only the entries kept in the
+     * beams are retained, so memory is O(k * beamWidth).
+     *
+     * @param sourceNode      node to start promiscuity search from
+     * @param tailNode        node to end promiscuity search at
+     * @param k_input         length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param beamWidth_input number of entries kept at every depth.
+     * @param config_input    optional map of search options, see SearchConfig.
+     * @return An ApproxPathOutput with the least promiscuous path found and a lower bound on the optimal score.
+     */
+    @Procedure(value = "promiscuity.approxPromiscuityPath")
+    @Description("Get an approximate least promiscuous path of length k, with a lower bound on the optimal score.")
+    public Stream<ApproxPathOutput> approxPromiscuityPath(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name("beamWidth") Number beamWidth_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        int beamWidth = beamWidth_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        int[] pruned_score = {Integer.MAX_VALUE};
+        Entry best;
+        QueryScheduler.Permit permit = admitBeam("promiscuity.approxPromiscuityPath", sourceNode, tailNode, k, beamWidth, config);
+        try {
+            best = beamSearch(sourceNode, tailNode, k, beamWidth, true, config, pruned_score);
+        } finally {
+            permit.close();
+        }
+        if (best == null) {
+            if (pruned_score[0] == Integer.MAX_VALUE) return Stream.empty();
+            return Stream.of(new ApproxPathOutput(null, pruned_score[0], null));
+        }
+        Path p = buildPath((PathEntry) best, tailNode);
+        return Stream.of(new ApproxPathOutput(best.updatedPathScore(), lowerBound(best, pruned_score[0]), p));
+    }
+
+    /**
+     * Runs the beam search behind the approximate procedures. Every depth is built in a bounded queue ordered worst
+     * first, so a new entry either replaces the current worst one or is rejected without being allocated.
+     *
+     * @param keepPaths    if true, PathEntry objects are created so that the returned entry can be turned into a path.
+     * @param pruned_score single element array which receives the lowest score of any entry pruned from a beam.
+     * @return the entry at depth k adjacent to the tail with the lowest score, or null if the beam contains none.
+     */
+    private Entry beamSearch(Node sourceNode, Node tailNode, int k, int beamWidth, boolean keepPaths, SearchConfig config,
+                             int[] pruned_score) {
+        if (beamWidth < 1) throw new IllegalArgumentException("beamWidth must be at least 1, got " + beamWidth);
+        boolean pathEntries = keepPaths || config.simplePaths;
+        Comparator<Entry> worst_first = Comparator.comparingInt(Entry::updatedPathScore).reversed();
+
+        //The source node has a degree of 0 here, as its degree has no effect on the promiscuity score of paths.
+        List<Entry> layer = new ArrayList<>();
+        layer.add(new PathEntry(0,0,0, sourceNode,null));
+
+        for (int depth = 1; depth <= k; depth++) {
+            PriorityQueue<Entry> beam = new PriorityQueue<>(worst_first);
+            for (Entry entry : layer) {
+                int updated_path_score = entry.updatedPathScore();
+                PathEntry parent = pathEntries ? (PathEntry) entry : null;
+                for (Relationship rel : entry.node.getRelationships()) {
+                    Node neighbor = rel.getOtherNode(entry.node);
+                    if (config.isHub(neighbor)) continue;
+                    if (config.simplePaths && (neighbor.equals(tailNode) || parent.onPath(neighbor))) continue;
+                    int degree = config.weight(neighbor);
+                    if (config.exceedsMaxDegree(degree)) continue;
+                    int score = max(degree, updated_path_score);
+                    if (beam.size() == beamWidth) {
+                        if (score >= beam.peek().updatedPathScore()) {
+                            pruned_score[0] = min(pruned_score[0], score);
+                            continue;
+                        }
+                        pruned_score[0] = min(pruned_score[0], beam.poll().updatedPathScore());
+                    }
+                    beam.add(pathEntries ? new PathEntry(degree, updated_path_score, depth, neighbor, parent)
+                            : new Entry(degree, updated_path_score, depth, neighbor));
+                }
+            }
+            layer = new ArrayList<>(beam);
+        }
+
+        Entry best = null;
+        for (Entry entry : layer) {
+            if ((best == null || entry.updatedPathScore() < best.updatedPathScore()) && getRelationship(entry.node, tailNode) != null) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    private int lowerBound(Entry best, int pruned_score) {
+        return best == null ? pruned_score : min(best.updatedPathScore(), pruned_score);
+    }
+
 
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k. This version of the algorithm is a
@@ -224,6 +996,7 @@ public class Promiscuity {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuity.promiscuityDFSScore")
@@ -231,25 +1004,17 @@ public class Promiscuity {
     public Stream<Output> DFSPromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<Output> result = new ArrayList<>();
         int k = k_input.intValue();
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
-
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1));
-
-        int best_score = Integer.MAX_VALUE;
-        while (!priorityQueue.isEmpty()) {
-            Entry head = priorityQueue.poll();
-            Node node = head.node;
-            if (head.degree >= best_score) {
-                break;
-            }
-            int head_score = promiscuity_DFS_routine(node, tailNode,1, k, best_score);
-            if (head_score != -1) {
-                best_score = min(best_score, head_score);
-            }
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        int best_score;
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityDFSScore", sourceNode, tailNode, k, config);
+        try {
+            best_score = dfsLowestScore(sourceNode, tailNode, k, config);
+        } finally {
+            permit.close();
         }
         if(best_score < Integer.MAX_VALUE){
             result.add(new Output(best_score));
@@ -258,55 +1023,121 @@ public class Promiscuity {
     }
 
     /**
-     * This procedure serves to explore the provided Node in a recursive DFS style, finding the optimal path from the
-     * provided node to a tail node.
-     * If(depth==k), check if the node has an edge connected to the tail.
-     *      If yes: return the degree of the node.
-     *      If no: return -1.
-     * If(depth<k), check all neighbors of the node  in recursive fashion.
-     *     for neighbor of node:
-     *         check if path exists between node and t.
-     *             if yes, add score to local minimum and keep searching.
-     *     if path_found return MIN(DEGREE(node), path_score)
-     *     else: return -1
-     **/
-    private int promiscuity_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score) {
-        //String name = (String) node.getProperty("name");
-        if(depth==k){
-            boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                    .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-            if(tail_neighbor) return node.getDegree();
-            else return -1;
-        }
+     * This procedure runs the search of promiscuity.promiscuityDFSScore, but returns a row every time it finds a path
+     * with a lower score than any found before, instead of only the optimal score once the search is done. Each of
+     * these rows has optimal set to false. Once the search has proven the last score optimal, it is returned again with
+     * optimal set to true. The search only advances while the caller asks for more rows, so e.g. LIMIT 1 stops it at the
+     * first path found.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A ProgressOutput for every improvement of the score, followed by the optimal score.
+     */
+    @Procedure(value = "promiscuity.promiscuityDFSScoreProgressive")
+    @Description("Stream improving promiscuity scores of paths of length k connecting a source and tail node, ending with the optimal one.")
+    public Stream<ProgressOutput> DFSPromiscuityScoreProgressive(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        //The search advances while the rows are read, so the call keeps its slot until the stream is closed.
+        QueryScheduler.Permit permit = admit("promiscuity.promiscuityDFSScoreProgressive", sourceNode, tailNode, k, config);
+        return releasedOnClose(permit, () -> progressiveScores(sourceNode, tailNode, k, config));
+    }
 
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
+    private Stream<ProgressOutput> progressiveScores(Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+        AdjacencySearch search = new AdjacencySearch(graph, config);
+        search.startDepthFirst(graph.denseId(sourceNode), graph.denseId(tailNode), k);
 
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        node.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), 0, 1));
+        Iterator<ProgressOutput> scores = new Iterator<ProgressOutput>() {
+            boolean done = false;
+            ProgressOutput next = null;
 
-        int best_score_local = Integer.MAX_VALUE;
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) next = advance();
+                return next != null;
+            }
 
-        while (!priorityQueue.isEmpty()) {
-            Entry head = priorityQueue.poll();
-            Node headNode = head.node;
-            if (head.degree >= best_score || head.degree >= best_score_local) {
-                return max(best_score_local, node.getDegree());
+            @Override
+            public ProgressOutput next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ProgressOutput score = next;
+                next = null;
+                return score;
             }
-            int head_score = promiscuity_DFS_routine(headNode, tailNode,depth+1, k,  min(best_score,best_score_local));
-            if (head_score != -1) {
-                best_score_local = min(best_score_local, head_score);
+
+            private ProgressOutput advance() {
+                int score = search.nextImprovement();
+                if (score != -1) return new ProgressOutput(score, false);
+                done = true;
+                return search.bestScore() < Integer.MAX_VALUE ? new ProgressOutput(search.bestScore(), true) : null;
             }
-        }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scores, Spliterator.ORDERED), false);
+    }
 
-        //best_score_local was never updated. That means we could not find a path from this node to tail (with
-        // promiscuity lower than best_score).
-        if(best_score_local==Integer.MAX_VALUE){
-            return -1;
+    /**
+     * Runs the search behind promiscuity.promiscuityDFSScore.
+     *
+     * @return the lowest promiscuity score of paths of length k, or Integer.MAX_VALUE if there is no such path.
+     */
+    int dfsLowestScore(Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+        return new AdjacencySearch(graph, config).dfsLowestScore(graph.denseId(sourceNode), graph.denseId(tailNode), k);
+    }
+
+    /**
+     * This procedure takes a source Node, a tail Node, and a length parameter k. It finds the same score as
+     * promiscuity.promiscuityScore with iterative deepening on the score instead of a priority queue: each pass is a
+     * depth first search which only enters nodes with a degree up to a threshold, and the threshold starts below every
+     * degree and is raised to the lowest degree the previous pass turned away. The first pass to reach the tail has
+     * found a path scoring exactly its threshold, and nodes are entered in the same low-degree-first order as the
+     * priority-queue search. Only the current path and its siblings are held, so memory is O(k*b), at the cost of
+     * re-walking the lower degree nodes once per distinct degree below the score.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
+     */
+    @Procedure(value = "promiscuity.iterativeDeepeningScore")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source and tail node, using bounded memory.")
+    public Stream<Output> iterativeDeepeningScore(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        ArrayList<Output> result = new ArrayList<>();
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        int best_score;
+        QueryScheduler.Permit permit = admit("promiscuity.iterativeDeepeningScore", sourceNode, tailNode, k, config);
+        try {
+            best_score = iterativeDeepeningLowestScore(sourceNode, tailNode, k, config);
+        } finally {
+            permit.close();
         }
+        if(best_score < Integer.MAX_VALUE){
+            result.add(new Output(best_score));
+        }
+        return result.stream();
+    }
 
-        return max(best_score_local, node.getDegree());
+    /**
+     * Runs the search behind promiscuity.iterativeDeepeningScore.
+     *
+     * @return the lowest promiscuity score of paths of length k, or Integer.MAX_VALUE if there is no such path.
+     */
+    int iterativeDeepeningLowestScore(Node sourceNode, Node tailNode, int k, SearchConfig config) {
+        TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+        return new AdjacencySearch(graph, config).deepeningLowestScore(graph.denseId(sourceNode), graph.denseId(tailNode), k);
     }
 
     /**
@@ -318,6 +1149,7 @@ public class Promiscuity {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuity.naivePromiscuityDFSScore")
@@ -325,22 +1157,31 @@ public class Promiscuity {
     public Stream<Output> naiveDFSPromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<Output> result = new ArrayList<>();
         int k = k_input.intValue();
-        Queue<Entry> queue = new LinkedList<>();
-
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1));
-
+        SearchConfig config = new SearchConfig(config_input, tx, db);
         int best_score = Integer.MAX_VALUE;
-        while (!queue.isEmpty()) {
-            Entry head = queue.poll();
-            Node node = head.node;
-            int head_score = promiscuity_naive_DFS_routine(node, tailNode,1, k, best_score);
-            if (head_score != -1) {
-                best_score = min(best_score, head_score);
+        QueryScheduler.Permit permit = admit("promiscuity.naivePromiscuityDFSScore", sourceNode, tailNode, k, config);
+        try {
+            Queue<Entry> queue = new LinkedList<>();
+
+            //When only simple paths are wanted, path_stack[d] holds the id of the node at depth d of the current path.
+            long[] path_stack = newPathStack(sourceNode, k, config);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1, path_stack, 0, tailNode, config));
+
+            while (!queue.isEmpty()) {
+                Entry head = queue.poll();
+                Node node = head.node;
+                int head_score = promiscuity_naive_DFS_routine(node, tailNode,1, k, best_score, path_stack, config);
+                if (head_score != -1) {
+                    best_score = min(best_score, head_score);
+                }
             }
+        } finally {
+            permit.close();
         }
         if(best_score < Integer.MAX_VALUE){
             result.add(new Output(best_score));
@@ -361,12 +1202,13 @@ public class Promiscuity {
      *     if path_found return MIN(DEGREE(node), path_score)
      *     else: return -1
      **/
-    private int promiscuity_naive_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score) {
+    private int promiscuity_naive_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score, long[] path_stack, SearchConfig config) {
         //String name = (String) node.getProperty("name");
+        if (path_stack != null) path_stack[depth] = node.getId();
         if(depth==k){
             boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
                     .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-            if(tail_neighbor) return node.getDegree();
+            if(tail_neighbor) return config.weight(node);
             else return -1;
         }
 
@@ -375,14 +1217,14 @@ public class Promiscuity {
         //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
         // source node has no effect on the promiscuity score of paths.
         node.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), 0, 1));
+                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), 0, 1, path_stack, depth, tailNode, config));
 
         int best_score_local = Integer.MAX_VALUE;
 
         while (!queue.isEmpty()) {
             Entry head = queue.poll();
             Node headNode = head.node;
-            int head_score = promiscuity_naive_DFS_routine(headNode, tailNode,depth+1, k,  min(best_score,best_score_local));
+            int head_score = promiscuity_naive_DFS_routine(headNode, tailNode,depth+1, k,  min(best_score,best_score_local), path_stack, config);
             if (head_score != -1) {
                 best_score_local = min(best_score_local, head_score);
             }
@@ -394,31 +1236,10 @@ public class Promiscuity {
             return -1;
         }
 
-        return max(best_score_local, node.getDegree());
+        return max(best_score_local, config.weight(node));
     }
 
 
-    /**
-     * This procedure serves to look a node from the top of the queue. We then check if our current depth (length of
-     * path) is equal to the desired depth (parameter k). If we are at the desired depth: we check to see if an edge
-     * exists between the provided node and the tail node. If we are not at the desired depth, we add all neighbors of
-     * the provided node to the queue, with the depth value (path length) increased by one.
-     **/
-    public int promiscuityScore_subroutine(Node node, Node tail, int depth, int k, int path_score, PriorityQueue<Entry> priorityQueue) {
-        int updated_path_score = max(node.getDegree(), path_score);
-        if (depth == k) {
-            boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                    .anyMatch(rel -> rel.getOtherNode(node).equals(tail));
-            if (tail_neighbor) return updated_path_score;
-            else return -1;
-        } else {
-            node.getRelationships().iterator()
-                    .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), updated_path_score, depth + 1));
-        }
-
-        return -1;
-    }
-
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k. It finds the optimal promiscuity value
      * by traversing all possible paths in the graph.
@@ -426,6 +1247,7 @@ public class Promiscuity {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuity.naivePromiscuityScore")
@@ -433,30 +1255,40 @@ public class Promiscuity {
     public Stream<Output> naivePromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<Output> result = new ArrayList<>();
         int k = k_input.intValue();
-        Queue<Entry> queue = new LinkedList<>();
-
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1));
-
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        CostModel.checkHeap("promiscuity.naivePromiscuityScore", sourceNode, tailNode, k, 1, config);
         int best_score = Integer.MAX_VALUE;
-        while (!queue.isEmpty()) {
-            Entry head = queue.poll();
-            Node node = head.node;
-            int updated_path_score = max(node.getDegree(), head.path_score);
-            if (head.depth == k) {
-                boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                        .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-                if(tail_neighbor) best_score = min(best_score,updated_path_score);
-            }
-            else{
-                node.getRelationships().iterator()
-                        .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), updated_path_score, head.depth+1));
+        QueryScheduler.Permit permit = admit("promiscuity.naivePromiscuityScore", sourceNode, tailNode, k, config);
+        try {
+            Queue<Entry> queue = new LinkedList<>();
+
+            //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
+            // source node has no effect on the promiscuity score of paths.
+            PathEntry sourceNodeEntry = new PathEntry(0,0,0, sourceNode,null);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1, sourceNodeEntry, tailNode, config));
+
+            while (!queue.isEmpty()) {
+                Entry head = queue.poll();
+                Node node = head.node;
+                int updated_path_score = max(config.weight(node), head.path_score);
+                if (head.depth == k) {
+                    boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
+                            .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
+                    if(tail_neighbor) best_score = min(best_score,updated_path_score);
+                }
+                else{
+                    PathEntry parent = config.simplePaths ? (PathEntry) head : null;
+                    node.getRelationships().iterator()
+                            .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), updated_path_score, head.depth+1, parent, tailNode, config));
+                }
             }
+        } finally {
+            permit.close();
         }
         result.add(new Output(best_score));
 
@@ -466,25 +1298,75 @@ public class Promiscuity {
 
 
     /**
-     * Creates entry for given node and appends to priority queue.
+     * Creates entry for given node and appends to the queue. Nodes excluded by the config (hubs and nodes above
+     * maxDegree) are skipped before an Entry is allocated, and hubs are skipped before their degree is even read.
+     * If simple paths were requested a PathEntry is created instead, so that the path can be walked back from it, and
+     * nodes which already appear on the path from the source (or are the tail node itself) are rejected.
      *
-     * @param priorityQueue the queue which we are adding the Entry to.
-     * @param node          the node which we should create Entry for and append to queue.
+     * @param queue  the queue which we are adding the Entry to.
+     * @param node   the node which we should create Entry for and append to queue.
+     * @param parent the entry being expanded. Only used (and only required to be non-null) for simple paths.
+     * @return false if the node was skipped.
      */
-    void AddToQueue(Queue<Entry> priorityQueue, Node node, int path_score, int depth) {
-        Entry e = new Entry(node.getDegree(), path_score, depth, node);
-        priorityQueue.add(e);
+    boolean AddToQueue(Queue<Entry> queue, Node node, int path_score, int depth, PathEntry parent, Node tail, SearchConfig config) {
+        if (config.isHub(node)) return false;
+        if (config.simplePaths && (node.equals(tail) || parent.onPath(node))) return false;
+        int degree = config.weight(node);
+        if (config.exceedsMaxDegree(degree)) return false;
+        queue.add(config.simplePaths ? new PathEntry(degree, path_score, depth, node, parent) : new Entry(degree, path_score, depth, node));
+        return true;
     }
 
     /**
-     * Creates entry for given node and appends to priority queue.
+     * Creates entry for given node and appends to priority queue, skipping the same nodes as the method above.
      *
      * @param priorityQueue the queue which we are adding the Entry to.
      * @param node          the node which we should create Entry for and append to queue.
+     * @return false if the node was skipped.
      */
-    void AddToQueue(PriorityQueue<PathEntry> priorityQueue, Node node, int path_score, int depth, PathEntry parent) {
-        PathEntry e = new PathEntry(node.getDegree(), path_score, depth, node, parent);
+    boolean AddToQueue(PriorityQueue<PathEntry> priorityQueue, Node node, int path_score, int depth, PathEntry parent, Node tail, SearchConfig config) {
+        if (config.isHub(node)) return false;
+        if (config.simplePaths && (node.equals(tail) || parent.onPath(node))) return false;
+        int degree = config.weight(node);
+        if (config.exceedsMaxDegree(degree)) return false;
+        PathEntry e = new PathEntry(degree, path_score, depth, node, parent);
         priorityQueue.add(e);
+        return true;
+    }
+
+    /**
+     * Creates entry for given node and appends to the queue of a DFS routine, skipping the same nodes as the methods
+     * above. Here simple paths are requested by passing a path_stack, and nodes found at positions 0..stack_depth of
+     * the stack are rejected.
+     *
+     * @return false if the node was skipped.
+     */
+    boolean AddToQueue(Queue<Entry> queue, Node node, int path_score, int depth, long[] path_stack, int stack_depth, Node tail, SearchConfig config) {
+        if (config.isHub(node)) return false;
+        if (path_stack != null && (node.equals(tail) || onPathStack(path_stack, stack_depth, node))) return false;
+        int degree = config.weight(node);
+        if (config.exceedsMaxDegree(degree)) return false;
+        queue.add(new Entry(degree, path_score, depth, node));
+        return true;
+    }
+
+    /**
+     * Returns the path stack used by the DFS routines to reject revisits, with the source node at depth 0, or null if
+     * simple paths were not requested.
+     */
+    static long[] newPathStack(Node sourceNode, int k, SearchConfig config) {
+        if (!config.simplePaths) return null;
+        long[] path_stack = new long[k + 1];
+        path_stack[0] = sourceNode.getId();
+        return path_stack;
+    }
+
+    static boolean onPathStack(long[] path_stack, int stack_depth, Node node) {
+        long id = node.getId();
+        for (int d = 0; d <= stack_depth; d++) {
+            if (path_stack[d] == id) return true;
+        }
+        return false;
     }
 
     public static class Output {
@@ -499,6 +1381,74 @@ public class Promiscuity {
         }
     }
 
+    public static class ApproxOutput {
+        public final Number promiscuity_score;
+        public final Number lower_bound;
+
+        public ApproxOutput(Number promiscuity_score, Number lower_bound) {
+            this.promiscuity_score = promiscuity_score;
+            this.lower_bound = lower_bound;
+        }
+    }
+
+    public static class ApproxPathOutput {
+        public final Number promiscuity_score;
+        public final Number lower_bound;
+        public final Path promiscuity_path;
+
+        public ApproxPathOutput(Number promiscuity_score, Number lower_bound, Path promiscuity_path) {
+            this.promiscuity_score = promiscuity_score;
+            this.lower_bound = lower_bound;
+            this.promiscuity_path = promiscuity_path;
+        }
+    }
+
+    public static class LabelOutput {
+        public final Number promiscuity_score;
+        public final Node tail;
+
+        public LabelOutput(Number promiscuity_score, Node tail) {
+            this.promiscuity_score = promiscuity_score;
+            this.tail = tail;
+        }
+    }
+
+    public static class SetOutput {
+        public final Number promiscuity_score;
+        public final Node source;
+        public final Node tail;
+
+        public SetOutput(Number promiscuity_score, Node source, Node tail) {
+            this.promiscuity_score = promiscuity_score;
+            this.source = source;
+            this.tail = tail;
+        }
+    }
+
+    public static class ProgressOutput {
+        public final Number promiscuity_score;
+        public final boolean optimal;
+
+        public ProgressOutput(Number promiscuity_score, boolean optimal) {
+            this.promiscuity_score = promiscuity_score;
+            this.optimal = optimal;
+        }
+    }
+
+    public static class ProfileOutput {
+        public final Number k;
+        public final Number promiscuity_score;
+
+        public ProfileOutput(Number k, Number promiscuity_score) {
+            this.k = k;
+            this.promiscuity_score = promiscuity_score;
+        }
+
+        public ProfileOutput(int k, int promiscuity_score) {
+            this((Number) k, (Number) promiscuity_score);
+        }
+    }
+
     public static class PathOutput implements Comparator<PathOutput>, Comparable<PathOutput> {
         public final Number promiscuity_score;
         public final Path promiscuity_path;
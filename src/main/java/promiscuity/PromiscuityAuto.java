@@ -0,0 +1,119 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedure here picks between the priority-queue search of promiscuity.promiscuityScore and the branch and prune
+ * search of promiscuity.promiscuityDFSScore for the caller, based on a CostModel estimate of the query. The naive
+ * procedures always explore every path, so they are never picked.
+ */
+public class PromiscuityAuto {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    static final long DEFAULT_MAX_QUEUE_BYTES = 256L << 20;
+
+    /**
+     * This procedure takes a source Node, a tail Node, and a length parameter k, and computes the lowest promiscuity
+     * score with the engine expected to do best:
+     *   frontierCache - if requested in the config, as the cached frontier answers without searching.
+     *   bfs           - the priority-queue search, if its queue is estimated to fit in maxQueueBytes. It usually
+     *                   expands the fewest nodes, but holds its whole frontier in memory.
+     *   dfs           - the branch and prune search otherwise, whose memory only grows with k. The bfs engine also
+     *                   switches to it when its queue outgrows maxQueueBytes despite the estimate.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig, plus maxQueueBytes (default 256MB).
+     * @return An AutoOutput with the lowest promiscuity score (null if there is no path), the engine used and why.
+     */
+    @Procedure(value = "promiscuity.auto")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source and tail node, choosing the search engine automatically.")
+    public Stream<AutoOutput> auto(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        Map<String, Object> search_config = new HashMap<>(config_input);
+        long max_queue_bytes = ((Number) search_config.getOrDefault("maxQueueBytes", DEFAULT_MAX_QUEUE_BYTES)).longValue();
+        search_config.remove("maxQueueBytes");
+        SearchConfig config = new SearchConfig(search_config, tx, db);
+
+        Promiscuity promiscuity = new Promiscuity();
+        promiscuity.tx = tx;
+        promiscuity.db = db;
+        CostModel cost = CostModel.estimate(sourceNode, tailNode, k, config);
+
+        String engine;
+        String reason;
+        int best_score;
+        long max_queue_size = CostModel.entryLimit(max_queue_bytes);
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuity.auto",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            if (config.frontierCache && !config.simplePaths) {
+                engine = "frontierCache";
+                reason = "frontierCache was requested";
+                best_score = FrontierCache.lowestScore(db, tx, sourceNode, tailNode, k, config);
+            } else if (cost.bfsBytes() > max_queue_bytes) {
+                engine = "dfs";
+                reason = String.format("estimated bfs queue of %.0f entries (%.1f MB) exceeds maxQueueBytes, dfs needs about %.0f",
+                        cost.bfs_entries, cost.bfsBytes() / (1 << 20), cost.dfs_entries);
+                best_score = promiscuity.dfsLowestScore(sourceNode, tailNode, k, config);
+            } else {
+                engine = "bfs";
+                reason = String.format("estimated bfs queue of %.0f entries (%.1f MB) fits in maxQueueBytes",
+                        cost.bfs_entries, cost.bfsBytes() / (1 << 20));
+                best_score = promiscuity.lowestScore(sourceNode, tailNode, k, config, max_queue_size);
+                if (best_score == Promiscuity.QUEUE_LIMIT_EXCEEDED) {
+                    engine = "dfs";
+                    reason = String.format("bfs queue passed %d entries (maxQueueBytes), switched to dfs", max_queue_size);
+                    best_score = promiscuity.dfsLowestScore(sourceNode, tailNode, k, config);
+                }
+            }
+        } finally {
+            permit.close();
+        }
+        log.debug("promiscuity.auto used %s: %s", engine, reason);
+        return Stream.of(new AutoOutput(best_score < Integer.MAX_VALUE ? best_score : null, engine, reason,
+                cost.branching, (long) cost.bfs_entries));
+    }
+
+    public static class AutoOutput {
+        public final Number promiscuity_score;
+        public final String engine;
+        public final String reason;
+        public final Number branching;
+        public final Number estimated_bfs_entries;
+
+        public AutoOutput(Number promiscuity_score, String engine, String reason, Number branching, Number estimated_bfs_entries) {
+            this.promiscuity_score = promiscuity_score;
+            this.engine = engine;
+            this.reason = reason;
+            this.branching = branching;
+            this.estimated_bfs_entries = estimated_bfs_entries;
+        }
+    }
+}
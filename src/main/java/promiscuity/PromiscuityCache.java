@@ -0,0 +1,61 @@
+package promiscuity;
+
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Admin;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Procedure;
+
+import java.util.stream.Stream;
+
+
+/**
+ * The procedures here inspect and reset the source frontier cache used by promiscuity.promiscuityScore when called with
+ * {frontierCache: true}, see FrontierCache.
+ */
+public class PromiscuityCache {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    /**
+     * @return A CacheOutput with the current size of the frontier cache and its hit, miss and invalidation counts.
+     */
+    @Procedure(value = "promiscuity.frontierCache.stats")
+    @Description("Get the size and hit counts of the promiscuity source frontier cache.")
+    public Stream<CacheOutput> stats() {
+        return Stream.of(new CacheOutput(FrontierCache.stats()));
+    }
+
+    /**
+     * Drops every cached frontier and resets the counts. The cache is shared by all users, so only admins may clear it.
+     *
+     * @return A CacheOutput with the size and counts of the cache before it was cleared.
+     */
+    @Admin
+    @Procedure(value = "promiscuity.frontierCache.clear")
+    @Description("Drop all frontiers from the promiscuity source frontier cache.")
+    public Stream<CacheOutput> clear() {
+        long[] stats = FrontierCache.stats();
+        FrontierCache.clear();
+        log.info("Cleared %d frontiers (%d bytes) from the promiscuity frontier cache", stats[0], stats[1]);
+        return Stream.of(new CacheOutput(stats));
+    }
+
+    public static class CacheOutput {
+        public final Number frontiers;
+        public final Number size_bytes;
+        public final Number hits;
+        public final Number misses;
+        public final Number invalidations;
+
+        public CacheOutput(long[] stats) {
+            this.frontiers = stats[0];
+            this.size_bytes = stats[1];
+            this.hits = stats[2];
+            this.misses = stats[3];
+            this.invalidations = stats[4];
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package promiscuity;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.min;
+
+
+/**
+ * Computes promiscuity scores without a running Neo4j instance, e.g. for backfills over exported subgraphs. The graph
+ * is loaded from an edge-list file (see EdgeListAdjacency) and every pair of a pair file is scored with the same
+ * AdjacencySearch that promiscuity.promiscuityScore runs, on a pool of threads. The scores are written as CSV with the
+ * columns source, tail and promiscuity_score, left empty for pairs without a path.
+ *
+ * Usage, with the Neo4j jars on the class path for the collections and API classes the search uses:
+ *   java -cp promiscuity-plugin.jar:$NEO4J_HOME/lib/* promiscuity.PromiscuityCli edges.csv pairs.csv k scores.csv
+ *        [--threads=N] [--simplePaths] [--maxDegree=N] [--hubs=id,id,...]
+ */
+public class PromiscuityCli {
+    static final int BATCH_SIZE = 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (args.length < 4) {
+            System.err.println("Usage: PromiscuityCli edges pairs k output [--threads=N] [--simplePaths] [--maxDegree=N] [--hubs=id,...]");
+            System.exit(2);
+        }
+        Path edges = Paths.get(args[0]);
+        Path pairs = Paths.get(args[1]);
+        int k = Integer.parseInt(args[2]);
+        Path output = Paths.get(args[3]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        Map<String, Object> config = new HashMap<>();
+        for (int i = 4; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--simplePaths")) {
+                config.put("simplePaths", true);
+            } else if (arg.startsWith("--maxDegree=")) {
+                config.put("maxDegree", Integer.parseInt(arg.substring("--maxDegree=".length())));
+            } else if (arg.startsWith("--hubs=")) {
+                List<Long> hubs = new ArrayList<>();
+                for (String hub : arg.substring("--hubs=".length()).split(",")) hubs.add(Long.parseLong(hub.trim()));
+                config.put("hubs", hubs);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        long start = System.nanoTime();
+        EdgeListAdjacency graph = EdgeListAdjacency.load(edges);
+        System.err.printf("Loaded %d nodes from %s in %d ms%n", graph.nodeCount(), edges, (System.nanoTime() - start) / 1_000_000);
+        start = System.nanoTime();
+        long count = run(graph, pairs, k, new SearchConfig(config), threads, output);
+        System.err.printf("Scored %d pairs in %d ms%n", count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Scores every pair of the pair file over the graph and writes the results to output, in the order of the pairs.
+     *
+     * @return the number of pairs.
+     */
+    static long run(Adjacency graph, Path pairs, int k, SearchConfig config, int threads, Path output)
+            throws IOException, InterruptedException, ExecutionException {
+        LongArrayList sources = new LongArrayList();
+        LongArrayList tails = new LongArrayList();
+        EdgeListAdjacency.parse(pairs, (source, tail) -> {
+            sources.add(source);
+            tails.add(tail);
+        });
+        int[] scores = new int[sources.size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (int from = 0; from < scores.length; from += BATCH_SIZE) {
+                int batch_start = from;
+                int batch_end = min(from + BATCH_SIZE, scores.length);
+                batches.add(executor.submit(() -> {
+                    //An AdjacencySearch reuses its buffers between queries, so every batch has its own.
+                    AdjacencySearch search = new AdjacencySearch(graph, config);
+                    for (int i = batch_start; i < batch_end; i++) {
+                        int source = graph.denseId(sources.get(i));
+                        int tail = graph.denseId(tails.get(i));
+                        scores[i] = source == -1 || tail == -1 ? Integer.MAX_VALUE : search.lowestScore(source, tail, k);
+                    }
+                }));
+            }
+            for (Future<?> batch : batches) batch.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("source,tail,promiscuity_score\n");
+            for (int i = 0; i < scores.length; i++) {
+                writer.write(sources.get(i) + "," + tails.get(i) + "," + (scores[i] < Integer.MAX_VALUE ? scores[i] : "") + "\n");
+            }
+        }
+        return scores.length;
+    }
+}
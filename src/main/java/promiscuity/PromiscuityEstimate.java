@@ -0,0 +1,81 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedure here predicts the memory a promiscuity query will need before it is run, see CostModel. The
+ * promiscuityQueueCount procedures report the same estimate next to the peak actually reached, to check the model.
+ */
+public class PromiscuityEstimate {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * This procedure takes the name of a procedure and the arguments it would be called with, and estimates the peak
+     * number of queue entries and heap bytes the call would need, from the degrees around the source and tail.
+     *
+     * @param procedure      promiscuityScore, promiscuityPath, promiscuityDFSScore, naivePromiscuityScore,
+     *                       naivePromiscuityDFSScore or iterativeDeepeningScore, with or without the promiscuity. prefix.
+     * @param sourceNode     node to start promiscuity search from
+     * @param tailNode       node to end promiscuity search at
+     * @param k_input        length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param numPaths_input number of paths requested, only used for promiscuityPath.
+     * @param config_input   optional map of search options, see SearchConfig.
+     * @return An EstimateOutput with the estimate and the heap currently free.
+     */
+    @Procedure(value = "promiscuity.estimate")
+    @Description("Estimate the peak queue entries and heap of a promiscuity procedure call before running it.")
+    public Stream<EstimateOutput> estimate(
+            @Name("procedure") String procedure,
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "numPaths", defaultValue = "1") Number numPaths_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int numPaths = numPaths_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        CostModel cost = CostModel.estimate(sourceNode, tailNode, k_input.intValue(), config);
+        double bytes = cost.peakBytes(procedure, numPaths);
+        long free_heap = CostModel.freeHeap();
+        return Stream.of(new EstimateOutput(procedure, (long) cost.peakEntries(procedure, numPaths), (long) bytes,
+                free_heap, bytes / free_heap, cost.branching));
+    }
+
+    public static class EstimateOutput {
+        public final String procedure;
+        public final Number estimated_entries;
+        public final Number estimated_bytes;
+        public final Number free_heap_bytes;
+        public final Number heap_share;
+        public final Number branching;
+
+        public EstimateOutput(String procedure, Number estimated_entries, Number estimated_bytes, Number free_heap_bytes,
+                              Number heap_share, Number branching) {
+            this.procedure = procedure;
+            this.estimated_entries = estimated_entries;
+            this.estimated_bytes = estimated_bytes;
+            this.free_heap_bytes = free_heap_bytes;
+            this.heap_share = heap_share;
+            this.branching = branching;
+        }
+    }
+}
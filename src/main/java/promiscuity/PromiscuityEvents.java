@@ -0,0 +1,128 @@
+package promiscuity;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events emitted by the promiscuity searches, to tell where the time of a slow query goes when
+ * profiling a live instance, e.g. with jcmd <pid> JFR.start and JDK Mission Control. Events are only filled in and
+ * committed while a recording has them enabled, otherwise a search pays for a few counter increments.
+ *
+ *   promiscuity.Query          - one per search, with its source, tail, k, score and totals.
+ *   promiscuity.ExpansionBatch - one per EXPANSION_BATCH nodes expanded by a search (and one for the rest), timing
+ *                                the batch, i.e. the degree reads, relationship iteration and queue operations.
+ *   promiscuity.BuildPath      - one per path built from a search entry.
+ */
+public class PromiscuityEvents {
+    static final int EXPANSION_BATCH = 1024;
+
+    @Name("promiscuity.Query")
+    @Label("Promiscuity Query")
+    @Category({"Neo4j", "Promiscuity"})
+    @Description("A promiscuity search for one source, tail and k.")
+    public static class QueryEvent extends Event {
+        @Label("Engine")
+        public String engine;
+        @Label("Source Node Id")
+        public long sourceNodeId;
+        @Label("Tail Node Id")
+        public long tailNodeId;
+        @Label("k")
+        public int k;
+        @Label("Score")
+        @Description("Lowest promiscuity score found, -1 if there is no path.")
+        public int score;
+        @Label("Dequeued")
+        public long dequeued;
+        @Label("Expansions")
+        @Description("Nodes expanded, 0 for the DFS engines, which do not count them.")
+        public long expansions;
+        @Label("Peak Queue Size")
+        public long peakQueueSize;
+    }
+
+    @Name("promiscuity.ExpansionBatch")
+    @Label("Promiscuity Expansion Batch")
+    @Category({"Neo4j", "Promiscuity"})
+    @Description("A batch of nodes expanded by a promiscuity search.")
+    public static class ExpansionBatchEvent extends Event {
+        @Label("Source Node Id")
+        public long sourceNodeId;
+        @Label("Expansions")
+        public int expansions;
+        @Label("Neighbors")
+        @Description("Neighbors read while expanding the batch, including the ones skipped by the config.")
+        public long neighbors;
+        @Label("Last Node Id")
+        public long lastNodeId;
+        @Label("Max Depth")
+        public int maxDepth;
+        @Label("Frontier Size")
+        @Description("Entries on the queue at the end of the batch.")
+        public long frontierSize;
+    }
+
+    @Name("promiscuity.BuildPath")
+    @Label("Promiscuity Build Path")
+    @Category({"Neo4j", "Promiscuity"})
+    @Description("Building a Path from the entries of a promiscuity search.")
+    public static class PathBuildEvent extends Event {
+        @Label("Source Node Id")
+        public long sourceNodeId;
+        @Label("Tail Node Id")
+        public long tailNodeId;
+        @Label("Length")
+        public int length;
+    }
+
+    /**
+     * Counts the expansions of one search and commits an ExpansionBatchEvent every EXPANSION_BATCH of them.
+     */
+    static class ExpansionRecorder {
+        private final long source_id;
+        private ExpansionBatchEvent event = new ExpansionBatchEvent();
+        private int expansions = 0;
+        private long neighbors = 0;
+        private long last_node_id = -1;
+        private int max_depth = 0;
+        long total_expansions = 0;
+
+        ExpansionRecorder(long source_id) {
+            this.source_id = source_id;
+            event.begin();
+        }
+
+        void expanded(long node_id, int depth, int neighbor_count, long frontier_size) {
+            expansions++;
+            total_expansions++;
+            neighbors += neighbor_count;
+            last_node_id = node_id;
+            if (depth > max_depth) max_depth = depth;
+            if (expansions == EXPANSION_BATCH) flush(frontier_size);
+        }
+
+        /**
+         * Commits the expansions since the last batch, if any.
+         */
+        void flush(long frontier_size) {
+            if (expansions == 0) return;
+            if (event.shouldCommit()) {
+                event.sourceNodeId = source_id;
+                event.expansions = expansions;
+                event.neighbors = neighbors;
+                event.lastNodeId = last_node_id;
+                event.maxDepth = max_depth;
+                event.frontierSize = frontier_size;
+                event.commit();
+            }
+            event = new ExpansionBatchEvent();
+            event.begin();
+            expansions = 0;
+            neighbors = 0;
+            max_depth = 0;
+        }
+    }
+}
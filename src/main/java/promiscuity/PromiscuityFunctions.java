@@ -0,0 +1,150 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.UserFunction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+
+/**
+ * The functions here return promiscuity scores as plain values, so they can be used inside WITH, WHERE and ORDER BY
+ * without a CALL per row. Scores are memoized for the duration of the transaction, keyed by source, tail, k and search
+ * options, so rows repeating the same pair are only computed once. The SearchConfig of every distinct config map is
+ * memoized alongside, so hubs and hubLabel are only looked up once per transaction rather than once per row. The memo
+ * does not see writes made later in the same transaction.
+ */
+public class PromiscuityFunctions {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    //One memo per open transaction. Dropped when the transaction closes, or collected with it.
+    private static final Map<Transaction, Memo> memos = new WeakHashMap<>();
+
+    /**
+     * This function takes a source Node, a tail Node, and a length parameter k, and returns the lowest promiscuity
+     * score of paths of length k connecting them, as computed by promiscuity.promiscuityScore.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return the lowest promiscuity score, or null if there is no path (or either node is null).
+     */
+    @UserFunction(value = "promiscuity.score")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source and tail node, or null if there is none.")
+    public Long score(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        if (sourceNode == null || tailNode == null) return null;
+        int k = k_input.intValue();
+        Memo memo = memo(tx);
+        SearchConfig config;
+        synchronized (memo) {
+            config = memo.configs.get(config_input);
+        }
+        if (config == null) {
+            config = new SearchConfig(config_input, tx, db);
+            synchronized (memo) {
+                memo.configs.put(config_input, config);
+            }
+        }
+        Key key = new Key(sourceNode.getId(), tailNode.getId(), k, config);
+        Integer best_score;
+        synchronized (memo) {
+            best_score = memo.scores.get(key);
+        }
+        if (best_score == null) {
+            Promiscuity promiscuity = new Promiscuity();
+            promiscuity.tx = tx;
+            promiscuity.db = db;
+            QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuity.score",
+                    CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+            try {
+                best_score = promiscuity.lowestScore(sourceNode, tailNode, k, config);
+            } finally {
+                permit.close();
+            }
+            synchronized (memo) {
+                memo.scores.put(key, best_score);
+            }
+        }
+        return best_score < Integer.MAX_VALUE ? (long) best_score : null;
+    }
+
+    /**
+     * Returns the memo of the transaction. Every function call is handed a new wrapper around the transaction, so the
+     * memo is keyed by the user transaction the wrapper belongs to instead.
+     */
+    private static synchronized Memo memo(Transaction tx) {
+        Transaction user_tx = tx;
+        if (tx instanceof InternalTransaction) {
+            InternalTransaction internal_tx = ((InternalTransaction) tx).kernelTransaction().internalTransaction();
+            if (internal_tx != null) user_tx = internal_tx;
+        }
+        Memo memo = memos.get(user_tx);
+        if (memo == null) {
+            memo = new Memo();
+            memos.put(user_tx, memo);
+            if (user_tx instanceof InternalTransaction) {
+                Transaction closed_tx = user_tx;
+                ((InternalTransaction) user_tx).addCloseCallback(() -> {
+                    synchronized (PromiscuityFunctions.class) {
+                        memos.remove(closed_tx);
+                    }
+                });
+            }
+        }
+        return memo;
+    }
+
+    private static class Memo {
+        final Map<Map<String, Object>, SearchConfig> configs = new HashMap<>();
+        final Map<Key, Integer> scores = new HashMap<>();
+    }
+
+    static class Key {
+        final long source;
+        final long tail;
+        final int k;
+        final SearchConfig config;
+
+        Key(long source, long tail, int k, SearchConfig config) {
+            this.source = source;
+            this.tail = tail;
+            this.k = k;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return source == other.source && tail == other.tail && k == other.k && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, tail, k, config);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedures here run long promiscuity searches as background jobs, see JobStore, which survive the connection of
+ * the client that submitted them. A job is submitted, polled for its progress and partial results, and its results
+ * read once it is done. Only the user who submitted a job can see or cancel it.
+ */
+public class PromiscuityJobs {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * This procedure queues a promiscuity search to run in the background, in a transaction of its own.
+     *
+     * @param procedure promiscuityPath or promiscuityScore, with or without the promiscuity. prefix.
+     * @param params    map with the parameters of the procedure: sourceNode, tailNode (nodes or node ids), k, numPaths
+     *                  (promiscuityPath only, default 1) and config (optional, see SearchConfig).
+     * @return A JobOutput with the id of the job.
+     */
+    @Procedure(value = "promiscuity.submit")
+    @Description("Run promiscuityPath or promiscuityScore as a background job and return its id.")
+    public Stream<JobOutput> submit(
+            @Name("procedure") String procedure,
+            @Name("params") Map<String, Object> params) {
+        JobStore.Job job = JobStore.submit(db, tx, procedure, params);
+        log.info("Submitted promiscuity job %d: %s %s", job.id, procedure, params);
+        return Stream.of(new JobOutput(job));
+    }
+
+    /**
+     * @return A JobOutput with the state of the job, its progress (entries dequeued, best score found and a lower bound
+     * on the scores still to be found) and the number of result rows so far.
+     */
+    @Procedure(value = "promiscuity.status")
+    @Description("Get the state, progress and number of results of a promiscuity job.")
+    public Stream<JobOutput> status(@Name("jobId") Number jobId) {
+        return Stream.of(new JobOutput(JobStore.get(jobId.longValue(), QueryScheduler.user(tx))));
+    }
+
+    /**
+     * @return A JobResultOutput with the score and the node ids of the path for every result of the job so far, in the
+     * order the search found them, i.e. by increasing score. promiscuityScore jobs return their best path as well.
+     */
+    @Procedure(value = "promiscuity.results")
+    @Description("Get the results of a promiscuity job, including the ones found so far while it runs.")
+    public Stream<JobResultOutput> results(@Name("jobId") Number jobId) {
+        return JobStore.get(jobId.longValue(), QueryScheduler.user(tx)).results().map(JobResultOutput::new);
+    }
+
+    /**
+     * Stops a queued or running job. Cancelling a job which has ended forgets it and deletes its results.
+     *
+     * @return A JobOutput with the state of the job.
+     */
+    @Procedure(value = "promiscuity.cancel")
+    @Description("Cancel a promiscuity job, or discard the results of one which has ended.")
+    public Stream<JobOutput> cancel(@Name("jobId") Number jobId) {
+        return Stream.of(new JobOutput(JobStore.cancel(jobId.longValue(), QueryScheduler.user(tx))));
+    }
+
+    public static class JobOutput {
+        public final Number job_id;
+        public final String procedure;
+        public final String state;
+        public final Number submitted_at;
+        public final Number started_at;
+        public final Number finished_at;
+        public final Number dequeued;
+        public final Number best_score;
+        public final Number lower_bound;
+        public final Number results;
+        public final String error;
+
+        public JobOutput(JobStore.Job job) {
+            this.job_id = job.id;
+            this.procedure = job.procedure;
+            this.state = job.state;
+            this.submitted_at = job.submitted_at;
+            this.started_at = job.started_at > 0 ? job.started_at : null;
+            this.finished_at = job.finished_at > 0 ? job.finished_at : null;
+            this.dequeued = job.dequeued;
+            this.best_score = job.best_score < Integer.MAX_VALUE ? job.best_score : null;
+            this.lower_bound = job.started_at > 0 ? job.lower_bound : null;
+            this.results = job.rows;
+            this.error = job.error;
+        }
+    }
+
+    public static class JobResultOutput {
+        public final Number promiscuity_score;
+        public final List<Long> path;
+
+        public JobResultOutput(JobStore.Row row) {
+            this.promiscuity_score = row.score;
+            this.path = new ArrayList<>(row.path.length);
+            for (long id : row.path) this.path.add(id);
+        }
+    }
+}
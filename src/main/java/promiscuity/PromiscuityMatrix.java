@@ -0,0 +1,168 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.lang.Math.min;
+
+
+/**
+ * The procedure here computes the promiscuity scores between all pairs of a set of nodes at once, see MatrixSearch.
+ */
+public class PromiscuityMatrix {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction tx;
+
+    /**
+     * This procedure computes the lowest promiscuity score of a path of length k between every pair of the given
+     * nodes, as promiscuity.promiscuityScore would for each pair, reading the neighborhood of the nodes once instead of
+     * once per pair. Blocks of source nodes are computed on concurrency worker threads, and the rows are streamed in
+     * the order of the nodes while the later blocks are still running.
+     *
+     * @param nodes             list of nodes, used both as sources and as tails.
+     * @param k_input           length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input      optional map of search options, see SearchConfig. simplePaths is not supported.
+     * @param concurrency_input number of worker threads.
+     * @return A MatrixOutput for every node of the list, with its scores to every node of the list in the same order.
+     */
+    @Procedure(value = "promiscuity.matrix")
+    @Description("Compute the promiscuity scores between all pairs of a list of nodes, one row per source node.")
+    public Stream<MatrixOutput> matrix(
+            @Name("nodes") List<Node> nodes,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input,
+            @Name(value = "concurrency", defaultValue = "4") Number concurrency_input) {
+        int concurrency = concurrency_input.intValue();
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        //Every node is the source of a search, and the rows are computed while they are read, so the call keeps its
+        // slot until the stream is closed.
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuity.matrix", CostModel.admissionEstimate(db, nodes, k, config));
+        MatrixJob job;
+        try {
+            long start = System.nanoTime();
+            MatrixSearch search = new MatrixSearch(nodes, k, config);
+            log.debug("promiscuity.matrix read a neighborhood of %d nodes for %d nodes in %d ms, in blocks of %d sources",
+                    search.neighborhoodSize(), search.size(), (System.nanoTime() - start) / 1_000_000, search.block_size);
+            job = new MatrixJob(nodes, search, concurrency);
+        } catch (RuntimeException | Error e) {
+            permit.close();
+            throw e;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(job, Spliterator.ORDERED), false)
+                .onClose(job::close).onClose(permit::close);
+    }
+
+    /**
+     * Computes the blocks of rows on a worker pool, keeping a few blocks per thread ahead of the one being streamed so
+     * the threads stay busy without holding the whole matrix. Iterating over the job returns the rows in order.
+     */
+    private static class MatrixJob implements Iterator<MatrixOutput> {
+        final List<Node> nodes;
+        final MatrixSearch search;
+        final ExecutorService executor;
+        final ThreadLocal<MatrixSearch.Kernel> kernels;
+        final ArrayDeque<Future<int[][]>> pending = new ArrayDeque<>();
+        final int lookahead;
+        int submitted = 0;
+        int returned = 0;
+        int[][] rows = null;
+        int row = 0;
+
+        MatrixJob(List<Node> nodes, MatrixSearch search, int concurrency) {
+            this.nodes = nodes;
+            this.search = search;
+            this.kernels = ThreadLocal.withInitial(() -> search.new Kernel());
+            this.lookahead = 2 * concurrency;
+            AtomicInteger thread_count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread thread = new Thread(r, "promiscuity-matrix-" + thread_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            submit();
+        }
+
+        private void submit() {
+            while (pending.size() < lookahead && submitted < nodes.size()) {
+                int from = submitted;
+                int to = min(from + search.block_size, nodes.size());
+                pending.add(executor.submit(() -> search.rows(from, to, kernels.get())));
+                submitted = to;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (returned < nodes.size()) return true;
+            close();
+            return false;
+        }
+
+        @Override
+        public MatrixOutput next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (rows == null || row == rows.length) {
+                rows = take();
+                row = 0;
+                submit();
+            }
+            return new MatrixOutput(nodes.get(returned++), rows[row++]);
+        }
+
+        private int[][] take() {
+            try {
+                return pending.poll().get();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for promiscuity.matrix rows", e);
+            } catch (ExecutionException e) {
+                close();
+                throw new RuntimeException("A promiscuity.matrix block failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        void close() {
+            executor.shutdownNow();
+        }
+    }
+
+    public static class MatrixOutput {
+        public final Node source;
+        //Score to every node of the list, null if there is no path of length k.
+        public final List<Long> promiscuity_scores;
+
+        public MatrixOutput(Node source, int[] scores) {
+            this.source = source;
+            this.promiscuity_scores = new ArrayList<>(scores.length);
+            for (int score : scores) this.promiscuity_scores.add(score == Integer.MAX_VALUE ? null : (long) score);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package promiscuity;
 
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.logging.Log;
 import org.neo4j.procedure.Context;
 import org.neo4j.procedure.Description;
@@ -20,7 +22,12 @@ import static java.lang.Math.min;
 
 /**
  * The procedures here aim to enable the user to count the number of node dequeues in the naive and novel verions of the
- * promiscuity score algorithm.
+ * promiscuity score algorithm. When simple paths are requested, they also count the neighbors which were skipped
+ * because they already appear on the current path, i.e. the expansions saved by the option. Neighbors skipped as hubs
+ * or for exceeding maxDegree are counted separately. Every procedure also reports the peak number of entries its queues
+ * held at once next to the CostModel estimate of that peak, so the estimate can be checked against real queries.
+ * The counts of the novel versions are kept by the AdjacencySearch they share with promiscuity.promiscuityScore and
+ * promiscuity.promiscuityDFSScore, so they describe the searches those procedures actually run.
  */
 public class PromiscuityQueueNodeCount {
     // This gives us a log instance that outputs messages to the
@@ -28,12 +35,26 @@ public class PromiscuityQueueNodeCount {
     @Context
     public Log log;
 
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    //Like dfs_queue_cnt below, these are reset at the start of every naive procedure.
+    static int skipped_count;
+    static int excluded_count;
+    //Entries currently held by all queues of a DFS (one per level of the recursion), and the most held at once.
+    static long live_entries;
+    static long peak_entries;
+
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k.
      *
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuityQueueCount.promiscuityScoreQueueCount")
@@ -41,51 +62,35 @@ public class PromiscuityQueueNodeCount {
     public Stream<OutputQueueCount> promiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<OutputQueueCount> result = new ArrayList<>();
         int k = k_input.intValue();
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
-
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1));
-
-        int best_score = Integer.MAX_VALUE;
-        int queue_count = 0;
-        while (!priorityQueue.isEmpty()) {
-            queue_count++;
-            Entry head = priorityQueue.poll();
-            Node node = head.node;
-            int x = promiscuityScore_subroutine(node, tailNode, head.depth, k, head.path_score, priorityQueue);
-            if (x != -1) {
-                best_score = x;
-                break;
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuityQueueCount.promiscuityScoreQueueCount",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            double estimated_entries = CostModel.estimate(sourceNode, tailNode, k, config).peakEntries("promiscuity.promiscuityScore", 1);
+            TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+            AdjacencySearch search = new AdjacencySearch(graph, config);
+
+            PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+            event.begin();
+            int best_score = search.lowestScore(graph.denseId(sourceNode), graph.denseId(tailNode), k);
+            if (event.shouldCommit()) {
+                event.engine = "promiscuityScoreQueueCount";
+                Promiscuity.commitQueryEvent(event, sourceNode, tailNode, k, best_score, search.dequeued(), search.expansions(), search.peakEntries());
             }
-        }
-
-        result.add(new OutputQueueCount(best_score,queue_count));
-
-        return result.stream();
-    }
 
-    int promiscuityScore_subroutine(Node node, Node tail, int depth, int k, int path_score, PriorityQueue<Entry> priorityQueue) {
-        int updated_path_score = max(node.getDegree(), path_score);
-        if (depth == k) {
-            boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                    .anyMatch(rel -> rel.getOtherNode(node).equals(tail));
-            if (tail_neighbor) return updated_path_score;
-            else return -1;
-        } else {
-            node.getRelationships().iterator()
-                    .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), updated_path_score, depth + 1));
+            result.add(new OutputQueueCount(best_score, search.dequeued(), search.skipped(), search.excluded(),
+                    (long) estimated_entries, search.peakEntries()));
+        } finally {
+            permit.close();
         }
 
-        return -1;
+        return result.stream();
     }
 
-
-    static int dfs_queue_cnt;
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k. This version of the algorithm is a
      * modification of DFS. It uses a priority queue to ensure only the nodes of low degree are inspected, but does this
@@ -95,6 +100,7 @@ public class PromiscuityQueueNodeCount {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuityQueueCount.promiscuityDFSScoreQueueCount")
@@ -102,95 +108,43 @@ public class PromiscuityQueueNodeCount {
     public Stream<OutputQueueCount> DFSPromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<OutputQueueCount> result = new ArrayList<>();
         int k = k_input.intValue();
-        dfs_queue_cnt = 0;
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
-
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(sourceNode), 0, 1));
-
-        int best_score = Integer.MAX_VALUE;
-        while (!priorityQueue.isEmpty()) {
-            dfs_queue_cnt++;
-            Entry head = priorityQueue.poll();
-            Node node = head.node;
-            if (head.degree >= best_score) {
-                break;
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuityQueueCount.promiscuityDFSScoreQueueCount",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            double estimated_entries = CostModel.estimate(sourceNode, tailNode, k, config).peakEntries("promiscuity.promiscuityDFSScore", 1);
+            TransactionAdjacency graph = new TransactionAdjacency(tx, config);
+            AdjacencySearch search = new AdjacencySearch(graph, config);
+
+            PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+            event.begin();
+            int best_score = search.dfsLowestScore(graph.denseId(sourceNode), graph.denseId(tailNode), k);
+            if (event.shouldCommit()) {
+                event.engine = "promiscuityDFSScoreQueueCount";
+                Promiscuity.commitQueryEvent(event, sourceNode, tailNode, k, best_score, search.dequeued(), 0, search.peakEntries());
             }
-            int head_score = promiscuity_DFS_routine(node, tailNode,1, k, best_score);
-            if (head_score != -1) {
-                best_score = min(best_score, head_score);
-            }
-        }
 
-        result.add(new OutputQueueCount(best_score,dfs_queue_cnt));
-
-        return result.stream();
-    }
-
-    /**
-     * This procedure serves to explore the provided Node in a recursive DFS style, finding the optimal path from the
-     * provided node to a tail node.
-     * If(depth==k), check if the node has an edge connected to the tail.
-     *      If yes: return the degree of the node.
-     *      If no: return -1.
-     * If(depth<k), check all neighbors of the node  in recursive fashion.
-     *     for neighbor of node:
-     *         check if path exists between node and t.
-     *             if yes, add score to local minimum and keep searching.
-     *     if path_found return MIN(DEGREE(node), path_score)
-     *     else: return -1
-     **/
-    private int promiscuity_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score) {
-        //String name = (String) node.getProperty("name");
-        if (depth == k) {
-            boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                    .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-            if (tail_neighbor) return node.getDegree();
-            else return -1;
+            result.add(new OutputQueueCount(best_score, search.dequeued(), search.skipped(), search.excluded(),
+                    (long) estimated_entries, search.peakEntries()));
+        } finally {
+            permit.close();
         }
 
-        PriorityQueue<Entry> priorityQueue = new PriorityQueue<>();
-
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        node.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(priorityQueue, rel.getOtherNode(node), 0, 1));
-
-        int best_score_local = Integer.MAX_VALUE;
-
-        while (!priorityQueue.isEmpty()) {
-            dfs_queue_cnt++;
-            Entry head = priorityQueue.poll();
-            Node headNode = head.node;
-            if (head.degree >= best_score || head.degree >= best_score_local) {
-                return max(best_score_local, node.getDegree());
-            }
-            int head_score = promiscuity_DFS_routine(headNode, tailNode, depth + 1, k, min(best_score, best_score_local));
-            if (head_score != -1) {
-                best_score_local = min(best_score_local, head_score);
-            }
-        }
-
-        //best_score_local was never updated. That means we could not find a path from this node to tail (with
-        // promiscuity lower than best_score).
-        if(best_score_local==Integer.MAX_VALUE){
-            return -1;
-        }
-
-        return max(best_score_local, node.getDegree());
+        return result.stream();
     }
 
-
-
+    static int dfs_queue_cnt;
     /**
      * This procedure takes a source Node, a tail Node, and a length parameter k.
      *
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuityQueueCount.naivePromiscuityScoreQueueCount")
@@ -199,34 +153,59 @@ public class PromiscuityQueueNodeCount {
     public Stream<OutputQueueCount> naivePromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<OutputQueueCount> result = new ArrayList<>();
         int k = k_input.intValue();
-        Queue<Entry> queue = new LinkedList<>();
-
-        //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
-        // source node has no effect on the promiscuity score of paths.
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1));
-
-        int best_score = Integer.MAX_VALUE;
-        int queue_count = 0;
-        while (!queue.isEmpty()) {
-            queue_count++;
-            Entry head = queue.poll();
-            Node node = head.node;
-            int updated_path_score = max(node.getDegree(), head.path_score);
-            if (head.depth == k) {
-                boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
-                        .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-                if(tail_neighbor) best_score = min(best_score,updated_path_score);
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuityQueueCount.naivePromiscuityScoreQueueCount",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            skipped_count = 0;
+            excluded_count = 0;
+            live_entries = 0;
+            peak_entries = 0;
+            double estimated_entries = CostModel.estimate(sourceNode, tailNode, k, config).peakEntries("promiscuity.naivePromiscuityScore", 1);
+            Queue<Entry> queue = new LinkedList<>();
+
+            //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
+            // source node has no effect on the promiscuity score of paths.
+            PathEntry sourceNodeEntry = new PathEntry(0,0,0, sourceNode,null);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1, sourceNodeEntry, tailNode, config));
+
+            PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+            event.begin();
+            PromiscuityEvents.ExpansionRecorder recorder = new PromiscuityEvents.ExpansionRecorder(sourceNode.getId());
+            int best_score = Integer.MAX_VALUE;
+            int queue_count = 0;
+            while (!queue.isEmpty()) {
+                queue_count++;
+                peak_entries = max(peak_entries, queue.size());
+                Entry head = queue.poll();
+                Node node = head.node;
+                int updated_path_score = max(config.weight(node), head.path_score);
+                if (head.depth == k) {
+                    boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
+                            .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
+                    if(tail_neighbor) best_score = min(best_score,updated_path_score);
+                }
+                else{
+                    PathEntry parent = config.simplePaths ? (PathEntry) head : null;
+                    node.getRelationships().iterator()
+                            .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), updated_path_score, head.depth+1, parent, tailNode, config));
+                    recorder.expanded(node.getId(), head.depth, head.degree, queue.size());
+                }
             }
-            else{
-                node.getRelationships().iterator()
-                        .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), updated_path_score, head.depth+1));
+            recorder.flush(queue.size());
+            if (event.shouldCommit()) {
+                event.engine = "naivePromiscuityScoreQueueCount";
+                Promiscuity.commitQueryEvent(event, sourceNode, tailNode, k, best_score, queue_count, recorder.total_expansions, peak_entries);
             }
+            result.add(new OutputQueueCount(best_score,queue_count,skipped_count,excluded_count,(long) estimated_entries,peak_entries));
+        } finally {
+            permit.close();
         }
-        result.add(new OutputQueueCount(best_score,queue_count));
 
         return result.stream();
     }
@@ -240,6 +219,7 @@ public class PromiscuityQueueNodeCount {
      * @param sourceNode node to start promiscuity search from
      * @param tailNode   node to end promiscuity search at
      * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
      * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
      */
     @Procedure(value = "promiscuityQueueCount.naivePromiscuityDFSScoreQueueCount")
@@ -247,26 +227,48 @@ public class PromiscuityQueueNodeCount {
     public Stream<OutputQueueCount> naiveDFSPromiscuityScore(
             @Name("sourceNode") Node sourceNode,
             @Name("tailNode") Node tailNode,
-            @Name("k") Number k_input) {
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
         ArrayList<OutputQueueCount> result = new ArrayList<>();
         int k = k_input.intValue();
-        Queue<Entry> queue = new LinkedList<>();
-
-        sourceNode.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1));
-        dfs_queue_cnt=0;
-        int best_score = Integer.MAX_VALUE;
-        while (!queue.isEmpty()) {
-            dfs_queue_cnt++;
-            Entry head = queue.poll();
-            Node node = head.node;
-            int head_score = promiscuity_naive_DFS_routine(node, tailNode,1, k, best_score);
-            if (head_score != -1) {
-                best_score = min(best_score, head_score);
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuityQueueCount.naivePromiscuityDFSScoreQueueCount",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            skipped_count = 0;
+            excluded_count = 0;
+            live_entries = 0;
+            peak_entries = 0;
+            double estimated_entries = CostModel.estimate(sourceNode, tailNode, k, config).peakEntries("promiscuity.naivePromiscuityDFSScore", 1);
+            Queue<Entry> queue = new LinkedList<>();
+
+            long[] path_stack = Promiscuity.newPathStack(sourceNode, k, config);
+            sourceNode.getRelationships().iterator()
+                    .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(sourceNode), 0, 1, path_stack, 0, tailNode, config));
+            dfs_queue_cnt=0;
+            trackEntries(queue.size());
+            PromiscuityEvents.QueryEvent event = new PromiscuityEvents.QueryEvent();
+            event.begin();
+            int best_score = Integer.MAX_VALUE;
+            while (!queue.isEmpty()) {
+                dfs_queue_cnt++;
+                Entry head = queue.poll();
+                live_entries--;
+                Node node = head.node;
+                int head_score = promiscuity_naive_DFS_routine(node, tailNode,1, k, best_score, path_stack, config);
+                if (head_score != -1) {
+                    best_score = min(best_score, head_score);
+                }
+            }
+            if (event.shouldCommit()) {
+                event.engine = "naivePromiscuityDFSScoreQueueCount";
+                Promiscuity.commitQueryEvent(event, sourceNode, tailNode, k, best_score, dfs_queue_cnt, 0, peak_entries);
             }
-        }
 
-        result.add(new OutputQueueCount(best_score,dfs_queue_cnt));
+            result.add(new OutputQueueCount(best_score,dfs_queue_cnt,skipped_count,excluded_count,(long) estimated_entries,peak_entries));
+        } finally {
+            permit.close();
+        }
 
         return result.stream();
     }
@@ -284,12 +286,13 @@ public class PromiscuityQueueNodeCount {
      *     if path_found return MIN(DEGREE(node), path_score)
      *     else: return -1
      **/
-    private int promiscuity_naive_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score) {
+    private int promiscuity_naive_DFS_routine(Node node, Node tailNode, int depth, int k,  int best_score, long[] path_stack, SearchConfig config) {
         //String name = (String) node.getProperty("name");
+        if (path_stack != null) path_stack[depth] = node.getId();
         if(depth==k){
             boolean tail_neighbor = StreamSupport.stream(node.getRelationships().spliterator(), false)
                     .anyMatch(rel -> rel.getOtherNode(node).equals(tailNode));
-            if(tail_neighbor) return node.getDegree();
+            if(tail_neighbor) return config.weight(node);
             else return -1;
         }
 
@@ -298,15 +301,17 @@ public class PromiscuityQueueNodeCount {
         //We cannot use the promiscuity_subroutine to enqueue the neighbors of the source node, as the degree of the
         // source node has no effect on the promiscuity score of paths.
         node.getRelationships().iterator()
-                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), 0, 1));
+                .forEachRemaining(rel -> AddToQueue(queue, rel.getOtherNode(node), 0, 1, path_stack, depth, tailNode, config));
 
+        trackEntries(queue.size());
         int best_score_local = Integer.MAX_VALUE;
 
         while (!queue.isEmpty()) {
             dfs_queue_cnt++;
             Entry head = queue.poll();
+            live_entries--;
             Node headNode = head.node;
-            int head_score = promiscuity_naive_DFS_routine(headNode, tailNode,depth+1, k,  min(best_score,best_score_local));
+            int head_score = promiscuity_naive_DFS_routine(headNode, tailNode,depth+1, k,  min(best_score,best_score_local), path_stack, config);
             if (head_score != -1) {
                 best_score_local = min(best_score_local, head_score);
             }
@@ -318,27 +323,66 @@ public class PromiscuityQueueNodeCount {
             return -1;
         }
 
-        return max(best_score_local, node.getDegree());
+        return max(best_score_local, config.weight(node));
+    }
+
+
+    /**
+     * Records that a DFS level put count entries on its queue.
+     */
+    static void trackEntries(int count) {
+        live_entries += count;
+        peak_entries = max(peak_entries, live_entries);
     }
 
+    void AddToQueue(Queue<Entry> queue, Node node, int path_score, int depth, PathEntry parent, Node tail, SearchConfig config) {
+        if (config.isHub(node)) {
+            excluded_count++;
+        } else if (config.simplePaths && (node.equals(tail) || parent.onPath(node))) {
+            skipped_count++;
+        } else {
+            int degree = config.weight(node);
+            if (config.exceedsMaxDegree(degree)) excluded_count++;
+            else if (config.simplePaths) queue.add(new PathEntry(degree, path_score, depth, node, parent));
+            else queue.add(new Entry(degree, path_score, depth, node));
+        }
+    }
 
-    void AddToQueue(Queue<Entry> priorityQueue, Node node, int path_score, int depth) {
-        Entry e = new Entry(node.getDegree(), path_score, depth, node);
-        priorityQueue.add(e);
+    void AddToQueue(Queue<Entry> queue, Node node, int path_score, int depth, long[] path_stack, int stack_depth, Node tail, SearchConfig config) {
+        if (config.isHub(node)) {
+            excluded_count++;
+        } else if (path_stack != null && (node.equals(tail) || Promiscuity.onPathStack(path_stack, stack_depth, node))) {
+            skipped_count++;
+        } else {
+            int degree = config.weight(node);
+            if (config.exceedsMaxDegree(degree)) excluded_count++;
+            else queue.add(new Entry(degree, path_score, depth, node));
+        }
     }
 
 
     public static class OutputQueueCount {
         public final Number promiscuity_score;
         public final Number queue_count;
+        public final Number skipped_count;
+        public final Number excluded_count;
+        public final Number estimated_entries;
+        public final Number peak_entries;
 
-        public OutputQueueCount(Number promiscuity_score, Number queue_count) {
+        public OutputQueueCount(Number promiscuity_score, Number queue_count, Number skipped_count, Number excluded_count,
+                                Number estimated_entries, Number peak_entries) {
             this.promiscuity_score = promiscuity_score;
             this.queue_count = queue_count;
+            this.skipped_count = skipped_count;
+            this.excluded_count = excluded_count;
+            this.estimated_entries = estimated_entries;
+            this.peak_entries = peak_entries;
         }
 
-        public OutputQueueCount(int promiscuity_score, int queue_count) {
-            this( (Number) promiscuity_score, (Number) queue_count);
+        public OutputQueueCount(int promiscuity_score, int queue_count, int skipped_count, int excluded_count,
+                                long estimated_entries, long peak_entries) {
+            this( (Number) promiscuity_score, (Number) queue_count, (Number) skipped_count, (Number) excluded_count,
+                    (Number) estimated_entries, (Number) peak_entries);
         }
     }
 
@@ -0,0 +1,76 @@
+package promiscuity;
+
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Admin;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedures here show and change the admission control of heavy promiscuity queries, see QueryScheduler.
+ */
+public class PromiscuityScheduler {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    /**
+     * @return A SchedulerOutput with the settings of the scheduler, the heavy calls running and waiting, and the counts
+     * and wait times of the calls admitted or rejected since the instance started.
+     */
+    @Procedure(value = "promiscuity.scheduler.stats")
+    @Description("Get the queue depth, wait times and rejections of heavy promiscuity queries.")
+    public Stream<SchedulerOutput> stats() {
+        return Stream.of(new SchedulerOutput(QueryScheduler.SHARED.stats()));
+    }
+
+    /**
+     * This procedure changes the settings of the scheduler until the instance restarts. Only admins may call it.
+     *
+     * @param settings map with any of maxHeavy, heavyEntries and waitTimeoutMs, see QueryScheduler.
+     * @return A SchedulerOutput with the new settings.
+     */
+    @Admin
+    @Procedure(value = "promiscuity.scheduler.configure", mode = Mode.DBMS)
+    @Description("Change how many heavy promiscuity queries run at once, what counts as heavy, and how long they wait.")
+    public Stream<SchedulerOutput> configure(@Name("settings") Map<String, Object> settings) {
+        QueryScheduler.SHARED.configure(settings);
+        log.info("Promiscuity scheduler settings changed: %s", settings);
+        return Stream.of(new SchedulerOutput(QueryScheduler.SHARED.stats()));
+    }
+
+    public static class SchedulerOutput {
+        public final Number max_heavy;
+        public final Number heavy_entries;
+        public final Number wait_timeout_ms;
+        public final Number running;
+        public final Number queued;
+        public final Number queued_users;
+        public final Number light;
+        public final Number admitted;
+        public final Number rejected;
+        public final Number total_wait_ms;
+        public final Number max_wait_ms;
+
+        public SchedulerOutput(long[] stats) {
+            this.max_heavy = stats[0];
+            this.heavy_entries = stats[1];
+            this.wait_timeout_ms = stats[2];
+            this.running = stats[3];
+            this.queued = stats[4];
+            this.queued_users = stats[5];
+            this.light = stats[6];
+            this.admitted = stats[7];
+            this.rejected = stats[8];
+            this.total_wait_ms = stats[9];
+            this.max_wait_ms = stats[10];
+        }
+    }
+}
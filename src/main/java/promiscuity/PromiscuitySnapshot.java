@@ -0,0 +1,219 @@
+package promiscuity;
+
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Admin;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import promiscuity.Promiscuity.Output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedures here write the graph to a snapshot file (see Snapshot) and run the promiscuity search over a memory
+ * mapped snapshot instead of the store. Mapping a snapshot takes about as long as opening the file, so unlike an
+ * adjacency built on the heap there is nothing to rebuild after a restart.
+ *
+ * Snapshot files are named relative to the snapshot directory, given by the promiscuity.snapshot.dir system property
+ * (e.g. dbms.jvm.additional=-Dpromiscuity.snapshot.dir=/var/lib/neo4j/snapshots), or promiscuity-snapshots in the data
+ * directory of Neo4j if it is not set. Names may not be absolute or contain "..", so no file outside of it is read or
+ * written. Writing and mapping snapshots is reserved to admins.
+ */
+public class PromiscuitySnapshot {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction tx;
+
+    static final String DIRECTORY_PROPERTY = "promiscuity.snapshot.dir";
+
+    //Snapshots mapped so far, by resolved file path. They are shared by all calls until the file is rewritten.
+    static final Map<Path, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * This procedure writes a snapshot of the whole graph to the given file, replacing any earlier snapshot there.
+     * A compressed snapshot stores neighbor lists as varint encoded gaps, which typically takes a third to a quarter of
+     * the space of the plain int targets, at the cost of decoding them during expansion.
+     *
+     * Nodes are numbered by Neo4j id unless order is 'degree', in which case they are renumbered by ascending degree so
+     * the low degree nodes the search concentrates on are stored next to each other.
+     *
+     * @param file       name of the snapshot file in the snapshot directory.
+     * @param compressed whether to use the compressed (VARINT) encoding for neighbor lists.
+     * @param order      'id' or 'degree', the order nodes are numbered and stored in.
+     * @return A SnapshotOutput with the size of the snapshot written.
+     */
+    @Admin
+    @Procedure(value = "promiscuity.snapshot.write")
+    @Description("Write a snapshot of the graph's adjacency to a file for promiscuity.snapshot.score.")
+    public Stream<SnapshotOutput> write(
+            @Name("file") String file,
+            @Name(value = "compressed", defaultValue = "false") boolean compressed,
+            @Name(value = "order", defaultValue = "id") String order) {
+        long start = System.nanoTime();
+        Path path = resolve(db, file);
+        int node_order;
+        switch (order) {
+            case "id": node_order = Snapshot.ID; break;
+            case "degree": node_order = Snapshot.DEGREE; break;
+            default: throw new IllegalArgumentException("Unknown snapshot order: " + order + ", expected 'id' or 'degree'");
+        }
+        long[] counts;
+        try {
+            Files.createDirectories(path.getParent());
+            counts = Snapshot.write(tx, path, compressed, node_order);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write promiscuity snapshot " + path, e);
+        }
+        snapshots.remove(path);
+        long time_ms = (System.nanoTime() - start) / 1_000_000;
+        log.info("Wrote promiscuity snapshot %s with %d nodes in %d ms", path, counts[0], time_ms);
+        return Stream.of(new SnapshotOutput(path.toString(), compressed, order, counts[0], counts[1], counts[2], time_ms));
+    }
+
+    /**
+     * This procedure maps the given snapshot file so later calls of promiscuity.snapshot.score can use it. Calling it
+     * is optional, as promiscuity.snapshot.score maps the file on first use.
+     *
+     * @param file name of the snapshot file in the snapshot directory.
+     * @return A SnapshotOutput with the size of the snapshot mapped.
+     */
+    @Admin
+    @Procedure(value = "promiscuity.snapshot.load")
+    @Description("Map a snapshot file written by promiscuity.snapshot.write.")
+    public Stream<SnapshotOutput> load(@Name("file") String file) {
+        long start = System.nanoTime();
+        Path path = resolve(db, file);
+        Snapshot snapshot = snapshot(path);
+        long time_ms = (System.nanoTime() - start) / 1_000_000;
+        return Stream.of(new SnapshotOutput(path.toString(), snapshot.compressed(),
+                snapshot.degreeOrdered() ? "degree" : "id", snapshot.nodeCount(), snapshot.adjacencyCount(), snapshot.sizeBytes(), time_ms));
+    }
+
+    /**
+     * This procedure takes a snapshot file, a source Node, a tail Node, and a length parameter k, and computes the
+     * score promiscuity.promiscuityScore would compute on the graph the snapshot was taken from.
+     *
+     * @param file       name of the snapshot file in the snapshot directory.
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return An Output instance with the lowest scoring promiscuity score fo the pathway.
+     */
+    @Procedure(value = "promiscuity.snapshot.score")
+    @Description("Get the lowest promiscuity score of paths of length k connecting a source and tail node in a snapshot.")
+    public Stream<Output> score(
+            @Name("file") String file,
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        ArrayList<Output> result = new ArrayList<>();
+        Snapshot snapshot = snapshot(resolve(db, file));
+        int source = snapshot.denseId(sourceNode.getId());
+        int tail = snapshot.denseId(tailNode.getId());
+        //Nodes created after the snapshot was written have no paths in it.
+        if (source == -1 || tail == -1) return result.stream();
+
+        int k = k_input.intValue();
+        SearchConfig config = new SearchConfig(config_input, tx);
+        AdjacencySearch search = new AdjacencySearch(snapshot, config);
+        int best_score;
+        //Classified by the degrees of the live graph, which the snapshot was taken from.
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuity.snapshot.score",
+                CostModel.admissionEstimate(db, sourceNode, tailNode, k, config));
+        try {
+            best_score = search.lowestScore(source, tail, k);
+        } finally {
+            permit.close();
+        }
+        if (best_score < Integer.MAX_VALUE) {
+            result.add(new Output(best_score));
+        }
+        return result.stream();
+    }
+
+    /**
+     * @return the path of the named file in the snapshot directory.
+     * @throws IllegalArgumentException if the name is absolute or contains "..".
+     */
+    static Path resolve(GraphDatabaseService db, String file) {
+        Path name = Paths.get(file);
+        if (file.isEmpty() || name.isAbsolute() || name.getRoot() != null) {
+            throw new IllegalArgumentException("Snapshot files are named relative to the snapshot directory, got " + file);
+        }
+        for (Path part : name) {
+            if (part.toString().equals("..")) {
+                throw new IllegalArgumentException("Snapshot file names may not contain '..', got " + file);
+            }
+        }
+        Path directory = directory(db);
+        Path path = directory.resolve(name).normalize();
+        if (!path.startsWith(directory) || path.equals(directory)) {
+            throw new IllegalArgumentException("Snapshot file " + file + " is not in the snapshot directory");
+        }
+        return path;
+    }
+
+    private static Path directory(GraphDatabaseService db) {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        if (configured != null) return Paths.get(configured).toAbsolutePath().normalize();
+        Config config = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Config.class);
+        return config.get(GraphDatabaseSettings.data_directory).resolve("promiscuity-snapshots").toAbsolutePath().normalize();
+    }
+
+    private static Snapshot snapshot(Path file) {
+        return snapshots.computeIfAbsent(file, path -> {
+            try {
+                return Snapshot.open(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map promiscuity snapshot " + path, e);
+            }
+        });
+    }
+
+    public static class SnapshotOutput {
+        public final String file;
+        public final boolean compressed;
+        public final String order;
+        public final Number node_count;
+        public final Number adjacency_count;
+        public final Number size_bytes;
+        public final Number time_ms;
+
+        public SnapshotOutput(String file, boolean compressed, String order, Number node_count, Number adjacency_count,
+                              Number size_bytes, Number time_ms) {
+            this.file = file;
+            this.compressed = compressed;
+            this.order = order;
+            this.node_count = node_count;
+            this.adjacency_count = adjacency_count;
+            this.size_bytes = size_bytes;
+            this.time_ms = time_ms;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package promiscuity;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * The procedures here maintain promiscuity scores of a watch-list of (source, tail, k) pairs. Watched scores are
+ * recomputed in the background when a committed change may affect them, see WatchList, so reading them is a lookup.
+ */
+public class PromiscuityWatch {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public Transaction tx;
+
+    @Context
+    public GraphDatabaseService db;
+
+    /**
+     * This procedure takes a source Node, a tail Node, and a length parameter k, computes the lowest promiscuity score
+     * and a path scoring it as promiscuity.promiscuityPath would, and keeps both up to date from then on.
+     *
+     * @param sourceNode node to start promiscuity search from
+     * @param tailNode   node to end promiscuity search at
+     * @param k_input    length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param config_input optional map of search options, see SearchConfig.
+     * @return A WatchOutput with the current score of the pair.
+     */
+    @Procedure(value = "promiscuity.watch")
+    @Description("Compute the lowest promiscuity score of a source and tail node and keep it up to date as the graph changes.")
+    public Stream<WatchOutput> watch(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        WatchList list = WatchList.of(db);
+        WatchList.Watch watch = list.watch(tx, sourceNode, tailNode, k_input.intValue(), config_input);
+        return Stream.of(list.read(watch, WatchOutput::new));
+    }
+
+    /**
+     * Stops watching a pair watched with the same k and search options.
+     *
+     * @return The last WatchOutput of the pair, or nothing if it was not watched.
+     */
+    @Procedure(value = "promiscuity.unwatch")
+    @Description("Stop keeping the promiscuity score of a source and tail node up to date.")
+    public Stream<WatchOutput> unwatch(
+            @Name("sourceNode") Node sourceNode,
+            @Name("tailNode") Node tailNode,
+            @Name("k") Number k_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        WatchList list = WatchList.of(db);
+        WatchList.Watch watch = list.unwatch(tx, sourceNode, tailNode, k_input.intValue(), config_input);
+        if (watch == null) return Stream.empty();
+        return Stream.of(list.read(watch, WatchOutput::new));
+    }
+
+    /**
+     * @return A WatchOutput for every watched pair, with the ids of the source and tail, and the score and the node ids
+     * of its path as last computed. Pairs whose score may have changed since are marked stale until the background
+     * thread has recomputed them. The error of the last failed recomputation is kept until one succeeds, and pairs
+     * whose recomputation failed every retry are marked failed until the graph around them changes again.
+     */
+    @Procedure(value = "promiscuity.watched")
+    @Description("Get the current promiscuity scores of all watched source and tail nodes.")
+    public Stream<WatchOutput> watched() {
+        return WatchList.of(db).watched(WatchOutput::new).stream();
+    }
+
+    /**
+     * @return A WatchStatsOutput with the size of the watch-list, the recompute backlog and lag.
+     */
+    @Procedure(value = "promiscuity.watch.stats")
+    @Description("Get the number of watched promiscuity scores, the recompute backlog and the recompute lag.")
+    public Stream<WatchStatsOutput> stats() {
+        return Stream.of(new WatchStatsOutput(WatchList.of(db).stats()));
+    }
+
+    public static class WatchOutput {
+        public final Number source;
+        public final Number tail;
+        public final Number k;
+        public final Number promiscuity_score;
+        public final List<Long> path;
+        public final boolean stale;
+        public final Number computed_at;
+        public final String error;
+        public final boolean failed;
+
+        public WatchOutput(WatchList.Watch watch) {
+            this.source = watch.key.source;
+            this.tail = watch.key.tail;
+            this.k = watch.key.k;
+            this.promiscuity_score = watch.score < Integer.MAX_VALUE ? watch.score : null;
+            this.path = new ArrayList<>(watch.path.length);
+            for (long id : watch.path) this.path.add(id);
+            this.stale = watch.stale;
+            this.computed_at = watch.computed_at;
+            this.error = watch.error;
+            this.failed = watch.failed;
+        }
+    }
+
+    public static class WatchStatsOutput {
+        public final Number watches;
+        public final Number backlog;
+        public final Number oldest_pending_ms;
+        public final Number recomputations;
+        public final Number last_lag_ms;
+        public final Number max_lag_ms;
+
+        public WatchStatsOutput(long[] stats) {
+            this.watches = stats[0];
+            this.backlog = stats[1];
+            this.oldest_pending_ms = stats[2];
+            this.recomputations = stats[3];
+            this.last_lag_ms = stats[4];
+            this.max_lag_ms = stats[5];
+        }
+    }
+}
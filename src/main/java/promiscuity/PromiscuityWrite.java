@@ -0,0 +1,334 @@
+package promiscuity;
+
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.*;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.lang.Math.min;
+
+
+/**
+ * The procedure here computes promiscuity scores for many (source, tail) pairs in one call and writes them back to the
+ * graph as properties of score nodes, using a pool of worker threads which each run in their own transactions.
+ */
+public class PromiscuityWrite {
+    // This gives us a log instance that outputs messages to the
+    // standard log, normally found under `data/log/console.log`
+    @Context
+    public Log log;
+
+    @Context
+    public GraphDatabaseService db;
+
+    @Context
+    public Transaction tx;
+
+    //A batch whose write transaction fails with a transient error (e.g. a deadlock between two batches creating
+    // relationships on the same node) is retried this many times in total.
+    static final int MAX_WRITE_ATTEMPTS = 3;
+
+    /**
+     * This procedure runs pairQuery, which must return a source and a tail column holding nodes or node ids, and
+     * computes the promiscuity score of every pair as promiscuity.promiscuityScore would. The score is stored in
+     * writeProperty on the node labeled writeLabel (PromiscuityScore unless set in the config) whose source and tail
+     * properties hold the ids of the pair, which is created if it does not exist yet. Pairs without a path of length k
+     * are not written. The score nodes have no relationships, so the searches never reach them and the degrees they
+     * score by stay the same: writing scores again gives the same scores. As node ids are reused, the score nodes of a
+     * deleted node should be deleted with it.
+     * Both phases are split into batches of batchSize pairs and run on concurrency worker threads, with each write batch
+     * committed in its own transaction. A pair returned more than once is scored and written once, so that two batches
+     * never both create its score node.
+     * The workers run with the access of the caller, in transactions of their own which cannot see uncommitted changes,
+     * so the procedure fails if the calling transaction (or pairQuery) has written to the graph.
+     * All pairs and their scores (20 bytes per pair), and the ids of the existing score nodes (32 bytes per node), are
+     * held in memory until they are written, so a call is limited to the pairs that fit on the heap; split larger pair
+     * sets over several calls, e.g. by source node.
+     *
+     * @param pairQuery     Cypher query returning the pairs as columns source and tail.
+     * @param k_input       length of paths. If k=2 s->v1->v2->t would be a valid path. Must be of type Number to satisfy Neo4j.
+     * @param writeProperty score node property the score is written to.
+     * @param batchSize_input   number of pairs per batch and per write transaction.
+     * @param concurrency_input number of worker threads.
+     * @param config_input  optional map of search options, see SearchConfig, plus writeLabel.
+     * @return A WriteOutput for every completed batch of each phase (compute, then write), followed by a summary row.
+     */
+    @Procedure(value = "promiscuity.write", mode = Mode.WRITE)
+    @Description("Compute promiscuity scores for the (source, tail) pairs of a query and write them to score nodes.")
+    public Stream<WriteOutput> write(
+            @Name("pairQuery") String pairQuery,
+            @Name("k") Number k_input,
+            @Name("writeProperty") String writeProperty,
+            @Name(value = "batchSize", defaultValue = "1000") Number batchSize_input,
+            @Name(value = "concurrency", defaultValue = "4") Number concurrency_input,
+            @Name(value = "config", defaultValue = "{}") Map<String, Object> config_input) {
+        int k = k_input.intValue();
+        int batchSize = batchSize_input.intValue();
+        int concurrency = concurrency_input.intValue();
+        if (batchSize < 1 || concurrency < 1) {
+            throw new IllegalArgumentException("batchSize and concurrency must be at least 1");
+        }
+        Map<String, Object> search_config = new HashMap<>(config_input);
+        Label label = Label.label((String) search_config.getOrDefault("writeLabel", "PromiscuityScore"));
+        search_config.remove("writeLabel");
+        SearchConfig config = new SearchConfig(search_config, tx, db);
+
+        LongArrayList sources = new LongArrayList();
+        LongArrayList tails = new LongArrayList();
+        //Tails seen so far per source, to drop duplicate pairs.
+        LongObjectHashMap<LongHashSet> seen = new LongObjectHashMap<>();
+        try (Result pairs = tx.execute(pairQuery)) {
+            while (pairs.hasNext()) {
+                Map<String, Object> row = pairs.next();
+                long source = nodeId(row.get("source"));
+                long tail = nodeId(row.get("tail"));
+                if (!seen.getIfAbsentPut(source, LongHashSet::new).add(tail)) continue;
+                sources.add(source);
+                tails.add(tail);
+            }
+        }
+        if (Promiscuity.hasPendingChanges(tx)) {
+            throw new IllegalStateException("promiscuity.write computes and writes in transactions of its own, which " +
+                    "cannot see the uncommitted changes of this transaction; commit them first");
+        }
+
+        //Score node ids by source and tail, so a batch finds the node of a pair without a scan of the label.
+        LongObjectHashMap<LongLongHashMap> score_nodes = new LongObjectHashMap<>();
+        try (ResourceIterator<Node> nodes = tx.findNodes(label)) {
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                Object source = node.getProperty("source", null);
+                Object tail = node.getProperty("tail", null);
+                if (!(source instanceof Number) || !(tail instanceof Number)) continue;
+                score_nodes.getIfAbsentPut(((Number) source).longValue(), LongLongHashMap::new)
+                        .put(((Number) tail).longValue(), node.getId());
+            }
+        }
+
+        //Admitted by the distinct sources of the pairs; the batches run while the stream is read, so the call keeps its
+        // slot until the stream is closed.
+        List<Node> source_nodes = new ArrayList<>(seen.size());
+        seen.forEachKey(source -> source_nodes.add(tx.getNodeById(source)));
+        QueryScheduler.Permit permit = QueryScheduler.admit(tx, "promiscuity.write", CostModel.admissionEstimate(db, source_nodes, k, config));
+        WriteJob job;
+        try {
+            job = new WriteJob(sources.toArray(), tails.toArray(), k, writeProperty, label, score_nodes,
+                    Promiscuity.securityContext(tx), config, batchSize, concurrency);
+        } catch (RuntimeException | Error e) {
+            permit.close();
+            throw e;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(job, Spliterator.ORDERED), false)
+                .onClose(job::close).onClose(permit::close);
+    }
+
+    private static long nodeId(Object value) {
+        if (value instanceof Node) return ((Node) value).getId();
+        if (value instanceof Number) return ((Number) value).longValue();
+        throw new IllegalArgumentException("pairQuery must return nodes or node ids as source and tail, got " + value);
+    }
+
+    /**
+     * Runs the compute and write phases on a worker pool. Iterating over the job waits for the next batch to complete
+     * and returns its progress row, so rows are streamed to the caller while the remaining batches are still running.
+     */
+    private class WriteJob implements Iterator<WriteOutput> {
+        final long[] sources;
+        final long[] tails;
+        final int[] scores;
+        final int k;
+        final String writeProperty;
+        final Label label;
+        final LongObjectHashMap<LongLongHashMap> score_nodes;
+        final SecurityContext security;
+        final SearchConfig config;
+        final int batchSize;
+        final int numBatches;
+        final ExecutorService executor;
+        //Every batch completes with {pairs processed, scores written}.
+        final CompletionService<int[]> completion;
+        final long start = System.nanoTime();
+
+        int computed_batches = 0;
+        int written_batches = 0;
+        boolean summary_returned = false;
+        long pairs_computed = 0;
+        long pairs_stored = 0;
+        long pairs_written = 0;
+
+        WriteJob(long[] sources, long[] tails, int k, String writeProperty, Label label,
+                 LongObjectHashMap<LongLongHashMap> score_nodes, SecurityContext security, SearchConfig config,
+                 int batchSize, int concurrency) {
+            this.sources = sources;
+            this.tails = tails;
+            this.scores = new int[sources.length];
+            this.k = k;
+            this.writeProperty = writeProperty;
+            this.label = label;
+            this.score_nodes = score_nodes;
+            this.security = security;
+            this.config = config;
+            this.batchSize = batchSize;
+            this.numBatches = (sources.length + batchSize - 1) / batchSize;
+            AtomicInteger thread_count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread thread = new Thread(r, "promiscuity-write-" + thread_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.completion = new ExecutorCompletionService<>(executor);
+            for (int batch = 0; batch < numBatches; batch++) {
+                int from = batch * batchSize;
+                completion.submit(() -> computeBatch(from, min(from + batchSize, sources.length)));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !summary_returned;
+        }
+
+        @Override
+        public WriteOutput next() {
+            if (computed_batches < numBatches) {
+                pairs_computed += take()[0];
+                computed_batches++;
+                if (computed_batches == numBatches) submitWrites();
+                return progress("compute", computed_batches, pairs_computed);
+            }
+            if (written_batches < numBatches) {
+                int[] batch_result = take();
+                pairs_stored += batch_result[0];
+                pairs_written += batch_result[1];
+                written_batches++;
+                return progress("write", written_batches, pairs_stored);
+            }
+            if (summary_returned) throw new NoSuchElementException();
+            summary_returned = true;
+            close();
+            return progress("summary", null, sources.length);
+        }
+
+        void close() {
+            executor.shutdownNow();
+        }
+
+        private void submitWrites() {
+            for (int batch = 0; batch < numBatches; batch++) {
+                int from = batch * batchSize;
+                completion.submit(() -> writeBatch(from, min(from + batchSize, sources.length)));
+            }
+        }
+
+        private int[] take() {
+            try {
+                return completion.take().get();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for promiscuity.write batches", e);
+            } catch (ExecutionException e) {
+                close();
+                throw new RuntimeException("A promiscuity.write batch failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        private WriteOutput progress(String phase, Integer batches_completed, long pairs) {
+            long time_ms = (System.nanoTime() - start) / 1_000_000;
+            double pairs_per_second = time_ms == 0 ? 0 : pairs * 1000.0 / time_ms;
+            if (batches_completed == null) {
+                log.info("promiscuity.write processed %d pairs and wrote %d scores in %d ms (%.1f pairs/s)",
+                        sources.length, pairs_written, time_ms, pairs_per_second);
+            }
+            return new WriteOutput(phase, batches_completed, pairs, pairs_written, time_ms, pairs_per_second);
+        }
+
+        /**
+         * Computes the scores of the pairs in [from, to) in a read transaction of its own.
+         *
+         * @return the number of pairs processed, and no scores written.
+         */
+        private int[] computeBatch(int from, int to) {
+            Promiscuity promiscuity = new Promiscuity();
+            try (Transaction batchTx = Promiscuity.beginTx(db, security)) {
+                promiscuity.tx = batchTx;
+                promiscuity.db = db;
+                for (int i = from; i < to; i++) {
+                    scores[i] = promiscuity.lowestScore(batchTx.getNodeById(sources[i]), batchTx.getNodeById(tails[i]), k, config);
+                }
+                batchTx.commit();
+            }
+            return new int[]{to - from, 0};
+        }
+
+        /**
+         * Writes the scores of the pairs in [from, to) in a single transaction, retrying it on transient failures.
+         *
+         * @return the number of pairs processed and the number of scores written.
+         */
+        private int[] writeBatch(int from, int to) {
+            for (int attempt = 1; ; attempt++) {
+                try (Transaction batchTx = Promiscuity.beginTx(db, security)) {
+                    int written = 0;
+                    for (int i = from; i < to; i++) {
+                        if (scores[i] == Integer.MAX_VALUE) continue;
+                        scoreNode(batchTx, sources[i], tails[i]).setProperty(writeProperty, scores[i]);
+                        written++;
+                    }
+                    batchTx.commit();
+                    return new int[]{to - from, written};
+                } catch (TransientFailureException e) {
+                    if (attempt == MAX_WRITE_ATTEMPTS) throw e;
+                }
+            }
+        }
+
+        /**
+         * @return the score node of the pair, created if there is none. Only read from the workers, as every pair is
+         * written by a single batch.
+         */
+        private Node scoreNode(Transaction batchTx, long source, long tail) {
+            LongLongHashMap by_tail = score_nodes.get(source);
+            if (by_tail != null && by_tail.containsKey(tail)) {
+                try {
+                    return batchTx.getNodeById(by_tail.get(tail));
+                } catch (NotFoundException e) {
+                    //Deleted since the call started.
+                }
+            }
+            Node node = batchTx.createNode(label);
+            node.setProperty("source", source);
+            node.setProperty("tail", tail);
+            return node;
+        }
+    }
+
+    public static class WriteOutput {
+        public final String phase;
+        public final Number batches_completed;
+        public final Number pairs_processed;
+        public final Number pairs_written;
+        public final Number time_ms;
+        public final Number pairs_per_second;
+
+        public WriteOutput(String phase, Number batches_completed, Number pairs_processed, Number pairs_written, Number time_ms,
+                           Number pairs_per_second) {
+            this.phase = phase;
+            this.batches_completed = batches_completed;
+            this.pairs_processed = pairs_processed;
+            this.pairs_written = pairs_written;
+            this.time_ms = time_ms;
+            this.pairs_per_second = pairs_per_second;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package promiscuity;
+
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.InternalTransaction;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.Math.max;
+
+/**
+ * Admission control for the promiscuity searches, so that a few expensive calls cannot take every Cypher worker thread
+ * from the interactive traffic of the instance.
+ *
+ * Every call is classified by its work as CostModel estimates it from k and the degrees around the source and tail: the
+ * number of paths of length up to k the priority-queue search may enqueue in the worst case, which the DFS engines
+ * walk as well even though they hold fewer of them at once. Light calls (below heavyEntries) run right away. At most
+ * maxHeavy heavy calls run at once, and the others wait their turn: every user has a queue of their own, and a freed
+ * slot goes to the next waiting user in round-robin order, so one user submitting many heavy calls only delays their
+ * own. A call which waited waitTimeoutMs without a slot is rejected with an IllegalStateException.
+ *
+ * Settings (see configure, and promiscuity.scheduler.configure):
+ *   maxHeavy      - heavy calls which may run at once. Defaults to half the available processors, at least 1.
+ *   heavyEntries  - estimated paths from which a call is heavy. Defaults to 1,000,000.
+ *   waitTimeoutMs - how long a heavy call waits for a slot before it is rejected. Defaults to 30 seconds.
+ */
+public class QueryScheduler {
+    static final QueryScheduler SHARED = new QueryScheduler();
+
+    private int max_heavy = max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private double heavy_entries = 1_000_000;
+    private long wait_timeout_ms = 30_000;
+
+    private int running = 0;
+    //Waiting calls per user, with the users in the order they get their next slot.
+    private final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+    private int queued = 0;
+    private long light = 0;
+    private long admitted = 0;
+    private long rejected = 0;
+    private long total_wait_ms = 0;
+    private long max_wait_ms = 0;
+
+    /**
+     * Admits a call of the procedure to the shared scheduler, waiting for a slot if it is heavy.
+     *
+     * @return the permit of the call, to be closed once it is done.
+     */
+    static Permit admit(Transaction tx, String procedure, CostModel cost) {
+        return SHARED.admit(user(tx), procedure, cost.bfs_entries);
+    }
+
+    /**
+     * @return the name of the user running the transaction, "" if there is none (e.g. authentication is disabled).
+     */
+    static String user(Transaction tx) {
+        String user = ((InternalTransaction) tx).securityContext().subject().username();
+        return user == null ? "" : user;
+    }
+
+    /**
+     * Returns right away if the call is light. Otherwise takes a slot for it, waiting in the user's queue while all
+     * maxHeavy slots are taken.
+     *
+     * @throws IllegalStateException if no slot was free within waitTimeoutMs, or the thread was interrupted.
+     */
+    synchronized Permit admit(String user, String procedure, double estimated_entries) {
+        if (estimated_entries < heavy_entries) {
+            light++;
+            return Permit.NONE;
+        }
+        if (running < max_heavy && queued == 0) {
+            running++;
+            admitted++;
+            return new Permit(this);
+        }
+
+        Ticket ticket = new Ticket();
+        waiting.computeIfAbsent(user, u -> new ArrayDeque<>()).add(ticket);
+        queued++;
+        long start = System.currentTimeMillis();
+        long deadline = start + wait_timeout_ms;
+        try {
+            while (!ticket.granted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    dequeue(user, ticket);
+                    rejected++;
+                    throw new IllegalStateException(String.format("%s waited %d ms for one of the %d slots of heavy " +
+                            "promiscuity queries (estimated %.0f paths) and was rejected. Retry later, or lower " +
+                            "k or exclude hubs with maxDegree or hubs.", procedure, wait_timeout_ms, max_heavy, estimated_entries));
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            if (ticket.granted) {
+                release();
+            } else {
+                dequeue(user, ticket);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(procedure + " was interrupted while waiting for a slot of heavy promiscuity queries");
+        }
+        long waited = System.currentTimeMillis() - start;
+        total_wait_ms += waited;
+        max_wait_ms = max(max_wait_ms, waited);
+        admitted++;
+        return new Permit(this);
+    }
+
+    private void dequeue(String user, Ticket ticket) {
+        ArrayDeque<Ticket> tickets = waiting.get(user);
+        tickets.remove(ticket);
+        if (tickets.isEmpty()) waiting.remove(user);
+        queued--;
+    }
+
+    private synchronized void release() {
+        running--;
+        grant();
+    }
+
+    /**
+     * Hands free slots to the waiting calls, taking the oldest call of the next user and moving the user to the back.
+     */
+    private void grant() {
+        while (running < max_heavy && !waiting.isEmpty()) {
+            Iterator<Map.Entry<String, ArrayDeque<Ticket>>> users = waiting.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Ticket>> next = users.next();
+            users.remove();
+            next.getValue().poll().granted = true;
+            if (!next.getValue().isEmpty()) waiting.put(next.getKey(), next.getValue());
+            queued--;
+            running++;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Changes the settings given in the map, see the class comment. Raising maxHeavy admits waiting calls right away.
+     */
+    synchronized void configure(Map<String, Object> settings) {
+        for (String key : settings.keySet()) {
+            switch (key) {
+                case "maxHeavy":
+                case "heavyEntries":
+                case "waitTimeoutMs":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown promiscuity scheduler setting: " + key);
+            }
+        }
+        int max_heavy = ((Number) settings.getOrDefault("maxHeavy", this.max_heavy)).intValue();
+        if (max_heavy < 1) throw new IllegalArgumentException("maxHeavy must be at least 1");
+        this.max_heavy = max_heavy;
+        this.heavy_entries = ((Number) settings.getOrDefault("heavyEntries", heavy_entries)).doubleValue();
+        this.wait_timeout_ms = ((Number) settings.getOrDefault("waitTimeoutMs", wait_timeout_ms)).longValue();
+        grant();
+    }
+
+    /**
+     * @return the settings, the heavy calls running and waiting, the users waiting, the light, admitted heavy and
+     * rejected calls so far, and the total and longest wait of admitted calls in milliseconds.
+     */
+    synchronized long[] stats() {
+        return new long[]{max_heavy, (long) heavy_entries, wait_timeout_ms, running, queued, waiting.size(), light,
+                admitted, rejected, total_wait_ms, max_wait_ms};
+    }
+
+    private static class Ticket {
+        boolean granted = false;
+    }
+
+    /**
+     * The slot of an admitted call, given back by close. Closing it more than once has no effect.
+     */
+    static class Permit implements AutoCloseable {
+        //The permit of light calls, which hold no slot.
+        static final Permit NONE = new Permit(null);
+
+        private QueryScheduler scheduler;
+
+        private Permit(QueryScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (scheduler == null) return;
+            scheduler.release();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package promiscuity;
+
+import org.eclipse.collections.api.set.primitive.LongSet;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.internal.kernel.api.NodeCursor;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.storageengine.api.RelationshipSelection;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Options shared by the promiscuity procedures. They are read from the optional config map every procedure accepts as
+ * its last parameter, e.g. CALL promiscuity.promiscuityScore(s, t, 3, {simplePaths: true}).
+ *
+ * Supported keys:
+ *   simplePaths - if true, only paths which never revisit a node (including the source and tail) are considered.
+ *   maxDegree   - nodes with a degree above this value are never put on a path.
+ *   hubs        - list of nodes (or node ids) which are never put on a path.
+ *   hubLabel    - label whose nodes are never put on a path. They are read once from the label index per call.
+ *   maxHeapShare  - guards against queries whose queues would not fit in memory, see CostModel. If the estimated heap
+ *                 of a query exceeds this share (0 to 1) of the free heap, promiscuity.promiscuityScore switches to the
+ *                 DFS search, whose memory only grows with k, and promiscuity.promiscuityPath and
+ *                 promiscuity.naivePromiscuityScore refuse to run. Not set by default.
+ *   streaming   - if true, promiscuity.promiscuityPath returns every path as soon as no better one can be found, and
+ *                 does no further work once the caller stops reading, instead of returning once the search is done.
+ *   frontierCache - if true, promiscuity.promiscuityScore answers from a cached expansion of the source node (see
+ *                 FrontierCache), computing and caching it if needed. Ignored together with simplePaths.
+ *   weightProperty - name of a numeric node property used as the weight of nodes in place of their degree, both for
+ *                 the order of the search and for the scores, see WeightCache. maxDegree then applies to the weights.
+ *                 Nodes without the property are never put on a path. Not supported by snapshots, which store degrees.
+ *
+ * Two configs are equal if they select the same paths, so equal configs can share cached results.
+ */
+public class SearchConfig {
+    public static final SearchConfig DEFAULT = new SearchConfig(Collections.emptyMap());
+
+    public final boolean simplePaths;
+    public final int maxDegree;
+    public final boolean frontierCache;
+    public final double maxHeapShare;
+    public final boolean streaming;
+    public final String weightProperty;
+    //The cached values of weightProperty, or null if the degree is used.
+    private final WeightCache weights;
+    //Ids of the nodes from hubs and hubLabel, looked up by id so a hub is skipped without touching its relationships.
+    private final LongSet hubIds;
+
+    public SearchConfig(Map<String, Object> config) {
+        this(config, null);
+    }
+
+    /**
+     * @param tx transaction used to read the nodes of hubLabel. May be null if hubLabel is not used.
+     */
+    public SearchConfig(Map<String, Object> config, Transaction tx) {
+        this(config, tx, null);
+    }
+
+    /**
+     * @param tx transaction used to read the nodes of hubLabel. May be null if hubLabel is not used.
+     * @param db database whose weightProperty values are cached. May be null if weightProperty is not used.
+     */
+    public SearchConfig(Map<String, Object> config, Transaction tx, GraphDatabaseService db) {
+        for (String key : config.keySet()) {
+            switch (key) {
+                case "simplePaths":
+                case "maxDegree":
+                case "hubs":
+                case "hubLabel":
+                case "frontierCache":
+                case "maxHeapShare":
+                case "streaming":
+                case "weightProperty":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown promiscuity config key: " + key);
+            }
+        }
+        this.simplePaths = (Boolean) config.getOrDefault("simplePaths", false);
+        this.maxDegree = ((Number) config.getOrDefault("maxDegree", Integer.MAX_VALUE)).intValue();
+        this.frontierCache = (Boolean) config.getOrDefault("frontierCache", false);
+        this.maxHeapShare = ((Number) config.getOrDefault("maxHeapShare", 0)).doubleValue();
+        this.streaming = (Boolean) config.getOrDefault("streaming", false);
+        this.weightProperty = (String) config.get("weightProperty");
+        if (weightProperty != null && db == null) {
+            throw new IllegalArgumentException("weightProperty is only supported by procedures searching the live graph");
+        }
+        this.weights = weightProperty == null ? null : WeightCache.of(db, weightProperty);
+
+        LongHashSet hubIds = new LongHashSet();
+        for (Object hub : (List<?>) config.getOrDefault("hubs", Collections.emptyList())) {
+            hubIds.add(hub instanceof Node ? ((Node) hub).getId() : ((Number) hub).longValue());
+        }
+        if (config.containsKey("hubLabel")) {
+            if (tx == null) throw new IllegalArgumentException("hubLabel requires a transaction to read the label from");
+            tx.findNodes(Label.label((String) config.get("hubLabel")))
+                    .forEachRemaining(node -> hubIds.add(node.getId()));
+        }
+        this.hubIds = hubIds;
+    }
+
+    /**
+     * Returns true if the node may not be put on a path because it is on the hub blocklist. This only looks at the id,
+     * so it should be checked before the degree of the node is read.
+     */
+    public boolean isHub(Node node) {
+        return isHub(node.getId());
+    }
+
+    public boolean isHub(long nodeId) {
+        return !hubIds.isEmpty() && hubIds.contains(nodeId);
+    }
+
+    /**
+     * Returns the weight of the node: its degree, or its cached weightProperty value if that is set.
+     */
+    public int weight(Node node) {
+        return weights == null ? node.getDegree() : weights.weight(node.getId());
+    }
+
+    /**
+     * Returns the weight of the node with the given id, read without a Node: the cached weightProperty value, or the
+     * degree read through the kernel with the cursor, which is reused from node to node.
+     *
+     * @throws NotFoundException if there is no such node.
+     */
+    public int weight(Read read, NodeCursor cursor, long nodeId) {
+        if (weights != null) return weights.weight(nodeId);
+        read.singleNode(nodeId, cursor);
+        if (!cursor.next()) throw new NotFoundException("Node " + nodeId + " not found");
+        return cursor.degree(RelationshipSelection.ALL_RELATIONSHIPS);
+    }
+
+    /**
+     * Returns the weight of a node whose degree has already been read.
+     */
+    public int weight(Node node, int degree) {
+        return weights == null ? degree : weights.weight(node.getId());
+    }
+
+    /**
+     * Returns true if a node with this degree (or weight) may not be put on a path because of maxDegree, or because it
+     * has no value of weightProperty.
+     */
+    public boolean exceedsMaxDegree(int degree) {
+        return degree > maxDegree || (weights != null && degree == WeightCache.MISSING);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SearchConfig)) return false;
+        SearchConfig other = (SearchConfig) o;
+        return simplePaths == other.simplePaths && maxDegree == other.maxDegree && hubIds.equals(other.hubIds)
+                && Objects.equals(weightProperty, other.weightProperty);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(simplePaths, maxDegree, hubIds, weightProperty);
+    }
+}
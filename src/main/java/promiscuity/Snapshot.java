@@ -0,0 +1,398 @@
+package promiscuity;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static java.lang.Math.min;
+
+/**
+ * An Adjacency read from a snapshot file through FileChannel.map, so the adjacency lives in the OS page cache rather than
+ * on the heap. Opening a snapshot only maps the file, and the pages stay cached across Neo4j restarts.
+ *
+ * File layout (big-endian, every section starts 8-byte aligned):
+ *   header   - magic (long), version (int), encoding (int), node count n (long), adjacency count m (long),
+ *              order (int), padding (int)
+ *   degrees  - int[n], the Neo4j degree of every node, padded to 8 bytes
+ *   offsets  - long[n + 1], neighbors of node i are targets[offsets[i]..offsets[i + 1])
+ *   node ids - long[n], the Neo4j id of every node
+ *   lookup   - only present for DEGREE order: long[n] holding the Neo4j ids in ascending order, followed by int[n]
+ *              holding the dense id of each, padded to 8 bytes
+ *   targets  - the distinct neighbors of every node as ascending dense ids, stored according to the encoding:
+ *              PLAIN  - int[m], with offsets counting ints.
+ *              VARINT - the first neighbor of a node followed by the gaps between consecutive neighbors, each as an
+ *                       unsigned LEB128 varint, with offsets counting bytes. Gaps between sorted ids are small, so most
+ *                       neighbors take one or two bytes instead of four. The offsets act as a block index with one
+ *                       block per node, which is decoded sequentially while the node is expanded.
+ *
+ * The order decides how nodes are numbered:
+ *   ID     - dense ids follow ascending Neo4j ids, so the node ids section is sorted and itself used for lookups.
+ *   DEGREE - dense ids follow ascending degree (ties by Neo4j id). The search pops low degree nodes first, so the
+ *            nodes it spends most of its time on have neighboring dense ids, and their degrees, offsets and neighbor
+ *            lists sit in the same few pages instead of being scattered in insertion order.
+ * Version 1 files have a 32 byte header without the order field and always use ID order.
+ *
+ * A snapshot is not updated when the graph changes; write a new one to pick up changes.
+ */
+public class Snapshot implements Adjacency {
+    static final long MAGIC = 0x50524f4d534e4150L; // "PROMSNAP"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 40;
+    static final int PLAIN = 0;
+    static final int VARINT = 1;
+    static final int ID = 0;
+    static final int DEGREE = 1;
+    //A MappedByteBuffer holds at most 2GB, so larger files are mapped in segments. The segment size is a multiple of 8,
+    // so no aligned int or long straddles two segments.
+    static final int SEGMENT_SHIFT = 30;
+    static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final MappedByteBuffer[] segments;
+    private final int encoding;
+    private final int order;
+    private final int nodeCount;
+    private final long adjacencyCount;
+    private final long degreesStart;
+    private final long offsetsStart;
+    private final long idsStart;
+    private final long lookupIdsStart;
+    private final long lookupDenseStart;
+    private final long targetsStart;
+
+    private Snapshot(MappedByteBuffer[] segments, int headerBytes, int encoding, int order, int nodeCount, long adjacencyCount) {
+        this.segments = segments;
+        this.encoding = encoding;
+        this.order = order;
+        this.nodeCount = nodeCount;
+        this.adjacencyCount = adjacencyCount;
+        this.degreesStart = headerBytes;
+        this.offsetsStart = degreesStart + align(4L * nodeCount);
+        this.idsStart = offsetsStart + 8L * (nodeCount + 1);
+        if (order == DEGREE) {
+            this.lookupIdsStart = idsStart + 8L * nodeCount;
+            this.lookupDenseStart = lookupIdsStart + 8L * nodeCount;
+            this.targetsStart = lookupDenseStart + align(4L * nodeCount);
+        } else {
+            this.lookupIdsStart = idsStart;
+            this.lookupDenseStart = -1;
+            this.targetsStart = idsStart + 8L * nodeCount;
+        }
+    }
+
+    /**
+     * Maps a snapshot file written by write(). Nothing but the header is read here.
+     */
+    public static Snapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 32) throw new IOException(file + " is not a promiscuity snapshot");
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, min(size - start, 1L << SEGMENT_SHIFT));
+            }
+            //The mapping stays valid after the channel is closed.
+            ByteBuffer header = segments[0];
+            if (header.getLong(0) != MAGIC) throw new IOException(file + " is not a promiscuity snapshot");
+            int version = header.getInt(8);
+            if (version != 1 && version != VERSION) throw new IOException(file + " has unsupported snapshot version " + version);
+            int encoding = header.getInt(12);
+            if (encoding != PLAIN && encoding != VARINT) throw new IOException(file + " has unknown encoding " + encoding);
+            int order = version == 1 ? ID : header.getInt(32);
+            if (order != ID && order != DEGREE) throw new IOException(file + " has unknown node order " + order);
+            //Dense ids are ints, so a snapshot holds at most Integer.MAX_VALUE nodes.
+            int nodeCount;
+            try {
+                nodeCount = Math.toIntExact(header.getLong(16));
+            } catch (ArithmeticException e) {
+                throw new IOException(file + " has " + header.getLong(16) + " nodes, more than a snapshot supports", e);
+            }
+            if (nodeCount < 0) throw new IOException(file + " has a negative node count");
+            Snapshot snapshot = new Snapshot(segments, version == 1 ? 32 : HEADER_BYTES, encoding, order,
+                    nodeCount, header.getLong(24));
+            if (size < snapshot.targetsStart) throw new IOException(file + " is truncated");
+            long targetBytes = encoding == VARINT ? snapshot.offset(snapshot.nodeCount) : 4L * snapshot.adjacencyCount;
+            if (snapshot.targetsStart + targetBytes != size) throw new IOException(file + " is truncated");
+            return snapshot;
+        }
+    }
+
+    /**
+     * Writes a snapshot of every node and relationship visible to tx. The targets are streamed to the file while the
+     * nodes are read, so only the degrees, offsets and node ids are held on the heap. The file is written next to the
+     * destination and moved over it once complete, so a snapshot that is already mapped is never modified.
+     *
+     * @param compressed if true the targets are written with the VARINT encoding, otherwise as PLAIN ints.
+     * @param order      ID or DEGREE, see above.
+     * @return the number of nodes, the number of adjacency entries and the size of the file in bytes.
+     */
+    public static long[] write(Transaction tx, Path file, boolean compressed, int order) throws IOException {
+        LongArrayList id_list = new LongArrayList();
+        tx.getAllNodes().forEach(node -> id_list.add(node.getId()));
+        long[] ids = id_list.sortThis().toArray();
+        int n = ids.length;
+        //nodes[d] is the index into ids of the node with dense id d, and dense[i] is the dense id of ids[i].
+        int[] nodes = new int[n];
+        int[] dense = new int[n];
+        int[] degrees = new int[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = i;
+            degrees[i] = tx.getNodeById(ids[i]).getDegree();
+        }
+        if (order == DEGREE) {
+            //Sorting (degree, index) pairs packed into longs orders by degree with ties by Neo4j id.
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) keys[i] = ((long) degrees[i] << 32) | i;
+            Arrays.sort(keys);
+            for (int d = 0; d < n; d++) nodes[d] = (int) keys[d];
+        }
+        for (int d = 0; d < n; d++) dense[nodes[d]] = d;
+        long[] offsets = new long[n + 1];
+        long adjacencyCount = 0;
+        long size;
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long targetsStart = HEADER_BYTES + align(4L * n) + 8L * (n + 1) + 8L * n;
+            if (order == DEGREE) targetsStart += 8L * n + align(4L * n);
+            ChannelWriter out = new ChannelWriter(channel, targetsStart);
+            IntHashSet neighbors = new IntHashSet();
+            for (int i = 0; i < n; i++) {
+                Node node = tx.getNodeById(ids[nodes[i]]);
+                neighbors.clear();
+                for (Relationship rel : node.getRelationships()) {
+                    neighbors.add(dense[Arrays.binarySearch(ids, rel.getOtherNode(node).getId())]);
+                }
+                int[] sorted = neighbors.toSortedArray();
+                adjacencyCount += sorted.length;
+                if (compressed) {
+                    long bytes = 0;
+                    int previous = 0;
+                    for (int target : sorted) {
+                        bytes += out.putVarint(target - previous);
+                        previous = target;
+                    }
+                    offsets[i + 1] = offsets[i] + bytes;
+                } else {
+                    for (int target : sorted) out.putInt(target);
+                    offsets[i + 1] = offsets[i] + sorted.length;
+                }
+            }
+            out.flush();
+            size = out.position;
+
+            out = new ChannelWriter(channel, 0);
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(compressed ? VARINT : PLAIN);
+            out.putLong(n);
+            out.putLong(adjacencyCount);
+            out.putInt(order);
+            out.putInt(0);
+            for (int node : nodes) out.putInt(degrees[node]);
+            if (n % 2 == 1) out.putInt(0);
+            for (long offset : offsets) out.putLong(offset);
+            for (int node : nodes) out.putLong(ids[node]);
+            if (order == DEGREE) {
+                for (long id : ids) out.putLong(id);
+                for (int d : dense) out.putInt(d);
+                if (n % 2 == 1) out.putInt(0);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new long[]{n, adjacencyCount, size};
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public long adjacencyCount() {
+        return adjacencyCount;
+    }
+
+    public boolean compressed() {
+        return encoding == VARINT;
+    }
+
+    public boolean degreeOrdered() {
+        return order == DEGREE;
+    }
+
+    public long sizeBytes() {
+        long size = 0;
+        for (MappedByteBuffer segment : segments) size += segment.capacity();
+        return size;
+    }
+
+    @Override
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int degree(int node) {
+        return getInt(degreesStart + 4L * node);
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntProcedure consumer) {
+        long end = offset(node + 1);
+        if (encoding == VARINT) {
+            long position = targetsStart + offset(node);
+            long block_end = targetsStart + end;
+            int target = 0;
+            while (position < block_end) {
+                byte b;
+                int shift = 0;
+                do {
+                    b = getByte(position++);
+                    target += (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                consumer.value(target);
+            }
+            return;
+        }
+        for (long i = offset(node); i < end; i++) {
+            consumer.value(getInt(targetsStart + 4L * i));
+        }
+    }
+
+    @Override
+    public boolean hasNeighbor(int node, int other) {
+        if (encoding == VARINT) {
+            //Varints cannot be searched, but the decode can stop at the first neighbor past the one we look for.
+            long position = targetsStart + offset(node);
+            long block_end = targetsStart + offset(node + 1);
+            int target = 0;
+            while (position < block_end) {
+                byte b;
+                int shift = 0;
+                do {
+                    b = getByte(position++);
+                    target += (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                if (target >= other) return target == other;
+            }
+            return false;
+        }
+        //Neighbors are sorted, so this is a binary search over the node's slice of targets.
+        long low = offset(node);
+        long high = offset(node + 1) - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int target = getInt(targetsStart + 4L * mid);
+            if (target < other) low = mid + 1;
+            else if (target > other) high = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long originalId(int node) {
+        return getLong(idsStart + 8L * node);
+    }
+
+    @Override
+    public int denseId(long originalId) {
+        int low = 0;
+        int high = nodeCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = getLong(lookupIdsStart + 8L * mid);
+            if (id < originalId) low = mid + 1;
+            else if (id > originalId) high = mid - 1;
+            else return order == DEGREE ? getInt(lookupDenseStart + 4L * mid) : mid;
+        }
+        return -1;
+    }
+
+    private long offset(int node) {
+        return getLong(offsetsStart + 8L * node);
+    }
+
+    private byte getByte(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+    }
+
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Buffers sequential writes to a FileChannel starting at a given position.
+     */
+    static class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long position;
+
+        ChannelWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) flush();
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes the value as an unsigned LEB128 varint: 7 bits per byte, low bits first, with the high bit set on
+         * every byte but the last.
+         *
+         * @return the number of bytes written.
+         */
+        int putVarint(int value) throws IOException {
+            int bytes = 1;
+            while ((value & ~0x7f) != 0) {
+                putByte((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+                bytes++;
+            }
+            putByte((byte) value);
+            return bytes;
+        }
+
+        void putByte(byte value) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put(value);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package promiscuity;
+
+import org.eclipse.collections.api.block.procedure.primitive.IntProcedure;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+
+/**
+ * An Adjacency over the live graph of a transaction, so that the procedures run the same AdjacencySearch as snapshots
+ * and the command line runner. Dense ids are handed out as nodes are first seen, and degrees are read from the store
+ * on first use (or their weights, see SearchConfig.weightProperty). Neighbors are passed once per relationship, in the
+ * order the store returns them.
+ */
+public class TransactionAdjacency implements Adjacency {
+    private final Transaction tx;
+    private final SearchConfig config;
+    private final LongIntHashMap dense_ids = new LongIntHashMap();
+    private final LongArrayList ids = new LongArrayList();
+    private final ArrayList<Node> nodes = new ArrayList<>();
+    //-1 until the degree of the node has been read.
+    private final IntArrayList degrees = new IntArrayList();
+
+    public TransactionAdjacency(Transaction tx) {
+        this(tx, SearchConfig.DEFAULT);
+    }
+
+    /**
+     * @param config config whose weightProperty, if set, is used as the degree of nodes.
+     */
+    public TransactionAdjacency(Transaction tx, SearchConfig config) {
+        this.tx = tx;
+        this.config = config;
+    }
+
+    /**
+     * @return the dense id of the node, assigning one if it has not been seen yet.
+     */
+    public int denseId(Node node) {
+        int dense = dense_ids.getIfAbsent(node.getId(), -1);
+        if (dense != -1) return dense;
+        dense = ids.size();
+        dense_ids.put(node.getId(), dense);
+        ids.add(node.getId());
+        nodes.add(node);
+        degrees.add(-1);
+        return dense;
+    }
+
+    /**
+     * The number of nodes seen so far.
+     */
+    @Override
+    public int nodeCount() {
+        return ids.size();
+    }
+
+    @Override
+    public int degree(int node) {
+        int degree = degrees.get(node);
+        if (degree == -1) {
+            degree = config.weight(nodes.get(node));
+            degrees.set(node, degree);
+        }
+        return degree;
+    }
+
+    @Override
+    public void forEachNeighbor(int node, IntProcedure consumer) {
+        Node n = nodes.get(node);
+        for (Relationship rel : n.getRelationships()) {
+            consumer.value(denseId(rel.getOtherNode(n)));
+        }
+    }
+
+    @Override
+    public boolean hasNeighbor(int node, int other) {
+        Node n = nodes.get(node);
+        long other_id = ids.get(other);
+        for (Relationship rel : n.getRelationships()) {
+            if (rel.getOtherNodeId(n.getId()) == other_id) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The node with the given dense id.
+     */
+    public Node node(int node) {
+        return nodes.get(node);
+    }
+
+    @Override
+    public long originalId(int node) {
+        return ids.get(node);
+    }
+
+    /**
+     * The dense id of the node with the given Neo4j id, looking the node up in the transaction if it has not been seen.
+     */
+    @Override
+    public int denseId(long originalId) {
+        int dense = dense_ids.getIfAbsent(originalId, -1);
+        return dense != -1 ? dense : denseId(tx.getNodeById(originalId));
+    }
+}
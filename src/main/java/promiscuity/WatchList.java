@@ -0,0 +1,422 @@
+package promiscuity;
+
+import org.eclipse.collections.api.iterator.LongIterator;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+import org.neo4j.internal.kernel.api.security.SecurityContext;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The watched (source, tail, k) pairs of one database, with their current score and witness path, kept up to date in
+ * the background as the graph changes.
+ *
+ * Every watch records a region: the nodes reached from the source within k hops when only expanding nodes with a
+ * degree below the current score, plus the witness path and the tail. A change can only affect the score if it touches
+ * a node of the region: a path scoring lower than before is made of nodes with a degree below the old score, so up to
+ * the first node whose relationships changed it only uses nodes the region expanded, and the score can only rise if a
+ * node of the witness path changed. An inverted index from node id to watches finds the watches covering the nodes
+ * touched by a committed transaction. Those are marked stale and queued, and a single background thread recomputes
+ * them, each in its own transaction with the access of the user who watched the pair, with the search of
+ * promiscuity.promiscuityPath. A recomputation which fails (e.g. the scheduler rejects it) is retried after
+ * RETRY_DELAY_MS, doubling the delay after every failure; after MAX_RECOMPUTE_ATTEMPTS failures in a row the watch is
+ * marked failed, and only recomputed again once a change touches it. Changes to the hubLabel label are not tracked.
+ * Every user may watch at most MAX_WATCHES_PER_USER pairs per database.
+ */
+public class WatchList {
+    static final int MAX_WATCHES_PER_USER = 100_000;
+    static final int MAX_RECOMPUTE_ATTEMPTS = 5;
+    static final long RETRY_DELAY_MS = 1000;
+    private static final Map<String, WatchList> lists = new ConcurrentHashMap<>();
+
+    private final GraphDatabaseService db;
+    private final Map<Key, Watch> watches = new LinkedHashMap<>();
+    private final LongObjectHashMap<Set<Watch>> index = new LongObjectHashMap<>();
+    //Number of watches per user.
+    private final Map<String, Integer> user_watches = new HashMap<>();
+    //Stale watches in the order they were marked, waiting for the background thread.
+    private final LinkedHashSet<Watch> backlog = new LinkedHashSet<>();
+    private final ScheduledExecutorService executor;
+    private boolean draining = false;
+    private long recomputations = 0;
+    private long last_lag_ms = 0;
+    private long max_lag_ms = 0;
+
+    private WatchList(GraphDatabaseService db) {
+        this.db = db;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "promiscuity-watch-" + db.databaseName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static WatchList of(GraphDatabaseService db) {
+        return lists.computeIfAbsent(db.databaseName(), name -> {
+            WatchList list = new WatchList(db);
+            ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(DatabaseManagementService.class)
+                    .registerTransactionEventListener(name, list.new Listener());
+            return list;
+        });
+    }
+
+    /**
+     * Computes the pair in the given transaction and starts watching it, replacing any watch of the same pair, k and
+     * search options.
+     */
+    Watch watch(Transaction tx, Node sourceNode, Node tailNode, int k, Map<String, Object> config_input) {
+        SearchConfig config = new SearchConfig(config_input, tx, db);
+        Watch watch = new Watch(new Key(sourceNode.getId(), tailNode.getId(), k, config), QueryScheduler.user(tx),
+                Promiscuity.securityContext(tx), config_input);
+        checkLimit(watch);
+        Result result = compute(tx, watch);
+        synchronized (this) {
+            checkLimit(watch);
+            Watch previous = watches.get(watch.key);
+            if (previous != null) forget(previous);
+            watches.put(watch.key, watch);
+            user_watches.merge(watch.user, 1, Integer::sum);
+            apply(watch, result, watch.version);
+        }
+        return watch;
+    }
+
+    /**
+     * @throws IllegalStateException if the user of the watch already watches MAX_WATCHES_PER_USER other pairs.
+     */
+    private synchronized void checkLimit(Watch watch) {
+        int count = user_watches.getOrDefault(watch.user, 0);
+        Watch previous = watches.get(watch.key);
+        if (previous != null && previous.user.equals(watch.user)) count--;
+        if (count >= MAX_WATCHES_PER_USER) {
+            throw new IllegalStateException("At most " + MAX_WATCHES_PER_USER + " pairs can be watched per user, " +
+                    "unwatch some with promiscuity.unwatch first");
+        }
+    }
+
+    synchronized Watch unwatch(Transaction tx, Node sourceNode, Node tailNode, int k, Map<String, Object> config_input) {
+        Key key = new Key(sourceNode.getId(), tailNode.getId(), k, new SearchConfig(config_input, tx, db));
+        Watch watch = watches.get(key);
+        if (watch != null) forget(watch);
+        return watch;
+    }
+
+    /**
+     * Stops watching the pair of the watch.
+     */
+    private void forget(Watch watch) {
+        watches.remove(watch.key);
+        remove(watch);
+        user_watches.computeIfPresent(watch.user, (user, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Maps every watch to a row while holding the lock, so that the background thread cannot update it half way.
+     */
+    synchronized <T> List<T> watched(Function<Watch, T> row) {
+        List<T> rows = new ArrayList<>(watches.size());
+        for (Watch watch : watches.values()) rows.add(row.apply(watch));
+        return rows;
+    }
+
+    synchronized <T> T read(Watch watch, Function<Watch, T> row) {
+        return row.apply(watch);
+    }
+
+    /**
+     * @return the number of watches, the backlog, the age in ms of the oldest stale watch, the number of background
+     * recomputations, and the lag in ms (from commit to recomputed) of the last and the slowest of them.
+     */
+    synchronized long[] stats() {
+        long oldest_pending_ms = 0;
+        long now = System.currentTimeMillis();
+        for (Watch watch : backlog) oldest_pending_ms = Math.max(oldest_pending_ms, now - watch.pending_since);
+        return new long[]{watches.size(), backlog.size(), oldest_pending_ms, recomputations, last_lag_ms, max_lag_ms};
+    }
+
+    /**
+     * Waits until the backlog has been recomputed, for at most timeout_ms.
+     *
+     * @return true if the backlog is empty.
+     */
+    synchronized boolean awaitIdle(long timeout_ms) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout_ms;
+        while (draining || !backlog.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private synchronized void touched(LongHashSet touched) {
+        LongIterator it = touched.longIterator();
+        long now = System.currentTimeMillis();
+        while (it.hasNext()) {
+            Set<Watch> covering = index.get(it.next());
+            if (covering == null) continue;
+            for (Watch watch : covering) {
+                watch.version++;
+                watch.stale = true;
+                watch.failures = 0;
+                watch.failed = false;
+                if (watch.pending_since == 0) watch.pending_since = now;
+                backlog.add(watch);
+            }
+        }
+        startDraining();
+    }
+
+    private synchronized void startDraining() {
+        if (!backlog.isEmpty() && !draining) {
+            draining = true;
+            executor.submit(this::drain);
+        }
+    }
+
+    /**
+     * Queues a watch whose recomputation failed again, unless it was unwatched or recomputed meanwhile.
+     */
+    private synchronized void retry(Watch watch) {
+        if (watches.get(watch.key) != watch || !watch.stale || watch.failed) return;
+        backlog.add(watch);
+        startDraining();
+    }
+
+    /**
+     * Recomputes the backlog on the background thread until it is empty. A watch touched again while it is being
+     * recomputed stays stale and is queued again.
+     */
+    private void drain() {
+        while (true) {
+            Watch watch;
+            int version;
+            synchronized (this) {
+                Iterator<Watch> it = backlog.iterator();
+                if (!it.hasNext()) {
+                    draining = false;
+                    notifyAll();
+                    return;
+                }
+                watch = it.next();
+                it.remove();
+                version = watch.version;
+            }
+            Result result;
+            try (Transaction tx = Promiscuity.beginTx(db, watch.security)) {
+                result = compute(tx, watch);
+                tx.commit();
+            } catch (NotFoundException e) {
+                //The source or tail node was deleted.
+                result = null;
+            } catch (RuntimeException e) {
+                result = new Result(e.getMessage());
+            }
+            synchronized (this) {
+                if (watches.get(watch.key) != watch) continue;
+                if (result == null) {
+                    forget(watch);
+                    continue;
+                }
+                if (result.error != null && !backlog.contains(watch)) {
+                    watch.failures++;
+                    if (watch.failures >= MAX_RECOMPUTE_ATTEMPTS) {
+                        watch.failed = true;
+                    } else {
+                        executor.schedule(() -> retry(watch), RETRY_DELAY_MS << (watch.failures - 1), TimeUnit.MILLISECONDS);
+                    }
+                }
+                long lag_ms = System.currentTimeMillis() - watch.pending_since;
+                if (apply(watch, result, version)) {
+                    recomputations++;
+                    last_lag_ms = lag_ms;
+                    max_lag_ms = Math.max(max_lag_ms, lag_ms);
+                }
+            }
+        }
+    }
+
+    private Result compute(Transaction tx, Watch watch) {
+        Node sourceNode = tx.getNodeById(watch.key.source);
+        Node tailNode = tx.getNodeById(watch.key.tail);
+        Promiscuity promiscuity = new Promiscuity();
+        promiscuity.tx = tx;
+        promiscuity.db = db;
+        Optional<Promiscuity.PathOutput> best;
+        //Closing the stream gives back the scheduler slot of a streaming search.
+        try (Stream<Promiscuity.PathOutput> paths = promiscuity.promiscuityPath(sourceNode, tailNode, watch.key.k, 1, watch.config_input)) {
+            best = paths.findFirst();
+        }
+        int score = best.map(path -> path.promiscuity_score.intValue()).orElse(Integer.MAX_VALUE);
+        long[] path = new long[0];
+        if (best.isPresent()) {
+            List<Long> ids = new ArrayList<>();
+            best.get().promiscuity_path.nodes().forEach(node -> ids.add(node.getId()));
+            path = ids.stream().mapToLong(Long::longValue).toArray();
+        }
+        LongHashSet region = region(sourceNode, watch.key.k, score, watch.key.config);
+        region.addAll(path);
+        region.add(watch.key.tail);
+        return new Result(score, path, region.toArray());
+    }
+
+    /**
+     * @return the nodes within k hops of the source, only expanding nodes allowed on paths with a degree below score.
+     */
+    private static LongHashSet region(Node sourceNode, int k, int score, SearchConfig config) {
+        LongHashSet region = new LongHashSet();
+        region.add(sourceNode.getId());
+        List<Node> frontier = Collections.singletonList(sourceNode);
+        for (int depth = 1; depth <= k && !frontier.isEmpty(); depth++) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : frontier) {
+                for (Relationship rel : node.getRelationships()) {
+                    Node other = rel.getOtherNode(node);
+                    if (!region.add(other.getId()) || depth == k || config.isHub(other)) continue;
+                    int degree = config.weight(other);
+                    if (degree < score && !config.exceedsMaxDegree(degree)) next.add(other);
+                }
+            }
+            frontier = next;
+        }
+        return region;
+    }
+
+    /**
+     * Stores a computed result in the watch and re-indexes its region. The watch is only marked fresh if it was not
+     * touched since the computation started.
+     *
+     * @return true if the watch is fresh.
+     */
+    private boolean apply(Watch watch, Result result, int version) {
+        watch.error = result.error;
+        if (result.error == null) {
+            remove(watch);
+            watch.score = result.score;
+            watch.path = result.path;
+            watch.region = result.region;
+            watch.computed_at = System.currentTimeMillis();
+            for (long id : watch.region) {
+                Set<Watch> covering = index.get(id);
+                if (covering == null) index.put(id, covering = new HashSet<>());
+                covering.add(watch);
+            }
+        }
+        if (watch.version != version || result.error != null) return false;
+        watch.stale = false;
+        watch.pending_since = 0;
+        watch.failures = 0;
+        return true;
+    }
+
+    private void remove(Watch watch) {
+        backlog.remove(watch);
+        for (long id : watch.region) {
+            Set<Watch> covering = index.get(id);
+            if (covering == null) continue;
+            covering.remove(watch);
+            if (covering.isEmpty()) index.remove(id);
+        }
+    }
+
+    private class Listener extends TransactionEventListenerAdapter<LongHashSet> {
+        @Override
+        public LongHashSet beforeCommit(TransactionData data, Transaction transaction, GraphDatabaseService databaseService) {
+            return FrontierCache.touchedNodes(data);
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, LongHashSet touched, GraphDatabaseService databaseService) {
+            if (touched != null && !touched.isEmpty()) touched(touched);
+        }
+    }
+
+    static class Key {
+        final long source;
+        final long tail;
+        final int k;
+        final SearchConfig config;
+
+        Key(long source, long tail, int k, SearchConfig config) {
+            this.source = source;
+            this.tail = tail;
+            this.k = k;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return source == other.source && tail == other.tail && k == other.k && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, tail, k, config);
+        }
+    }
+
+    static class Watch {
+        final Key key;
+        final String user;
+        //The access the watch is recomputed with.
+        final SecurityContext security;
+        final Map<String, Object> config_input;
+        //Guarded by the WatchList.
+        int score = Integer.MAX_VALUE;
+        long[] path = new long[0];
+        long[] region = new long[0];
+        boolean stale = false;
+        long pending_since = 0;
+        long computed_at = 0;
+        int version = 0;
+        String error = null;
+        //Recomputations failed in a row, and whether they are given up on until the watch is touched again.
+        int failures = 0;
+        boolean failed = false;
+
+        Watch(Key key, String user, SecurityContext security, Map<String, Object> config_input) {
+            this.key = key;
+            this.user = user;
+            this.security = security;
+            this.config_input = config_input;
+        }
+    }
+
+    private static class Result {
+        final int score;
+        final long[] path;
+        final long[] region;
+        final String error;
+
+        Result(int score, long[] path, long[] region) {
+            this.score = score;
+            this.path = path;
+            this.region = region;
+            this.error = null;
+        }
+
+        Result(String error) {
+            this.score = Integer.MAX_VALUE;
+            this.path = null;
+            this.region = null;
+            this.error = error;
+        }
+    }
+}
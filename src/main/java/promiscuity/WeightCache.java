@@ -0,0 +1,231 @@
+package promiscuity;
+
+import org.eclipse.collections.api.iterator.LongIterator;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The values of one node property of one database, used as node weights by the weightProperty option of SearchConfig
+ * in place of Node.getDegree(). The values are held in an int array indexed by node id, so a weight is read with an
+ * array lookup rather than a property read through the store.
+ *
+ * The array is filled by a single scan of all nodes the first time the property is used, and kept up to date by a
+ * transaction event listener from then on, so it holds the committed values (not changes of the running transaction).
+ * The scan runs outside of the map of caches, so loading one property does not hold up lookups of the others; callers
+ * of the same property wait for the one scan. Changes are written into the array in place, so a search running
+ * meanwhile may see some of them. Node ids too large to index an array are kept in a map instead. Numeric values are
+ * rounded to the nearest int, and negative ones weigh 0, as scores must not be negative; nodes without a numeric value
+ * weigh MISSING, and are never put on a path.
+ *
+ * At most MAX_CACHES properties are cached, over all databases; beyond that the least recently used cache is evicted,
+ * its listener unregistered and the frontiers derived from its weights dropped. A search still holding an evicted
+ * cache reads its last values, and the next search using the property scans it again.
+ */
+public class WeightCache {
+    static final int MISSING = Integer.MAX_VALUE;
+    private static final int INITIAL_SIZE = 1024;
+    //The largest node id kept in the array, which keeps its length within what the JVM can allocate.
+    private static final long MAX_ARRAY_ID = Integer.MAX_VALUE - 9;
+    static final int MAX_CACHES = 8;
+
+    //Caches by database and property, in the order of their last use. Guarded by itself.
+    private static final LinkedHashMap<String, WeightCache> caches = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final GraphDatabaseService db;
+    private final String property;
+    private volatile int[] weights;
+    //Weights of the nodes with ids beyond MAX_ARRAY_ID.
+    private final Map<Long, Integer> large_ids = new ConcurrentHashMap<>();
+    private final FutureTask<Void> loader;
+    private final Listener listener = new Listener();
+    //Changes committed while the scan runs, applied once it is done. Null once the cache is loaded.
+    private List<LongIntHashMap> pending = new ArrayList<>();
+
+    private WeightCache(GraphDatabaseService db, String property) {
+        this.db = db;
+        this.property = property;
+        this.loader = new FutureTask<>(() -> load(db), null);
+    }
+
+    /**
+     * @return the cache of the property in the database, loading it if it is not cached yet.
+     */
+    static WeightCache of(GraphDatabaseService db, String property) {
+        String key = db.databaseName() + '\u0000' + property;
+        WeightCache cache;
+        List<WeightCache> evicted = new ArrayList<>();
+        synchronized (caches) {
+            cache = caches.get(key);
+            if (cache == null) {
+                cache = new WeightCache(db, property);
+                //The listener is registered before the scan, so no change committed during the scan is missed.
+                managementService(db).registerTransactionEventListener(db.databaseName(), cache.listener);
+                caches.put(key, cache);
+                Iterator<WeightCache> eldest = caches.values().iterator();
+                while (caches.size() > MAX_CACHES) {
+                    evicted.add(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+        for (WeightCache old : evicted) old.close();
+        //The first caller scans, the others wait for it. A failed scan is forgotten, so the next call tries again.
+        cache.loader.run();
+        try {
+            cache.loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading the weights of " + property, e);
+        } catch (ExecutionException e) {
+            boolean removed;
+            synchronized (caches) {
+                removed = caches.remove(key, cache);
+            }
+            if (removed) cache.close();
+            throw new RuntimeException("Failed to load the weights of " + property + ": " + e.getCause().getMessage(), e.getCause());
+        }
+        return cache;
+    }
+
+    /**
+     * Stops tracking the changes of a cache no longer in the map, and drops the frontiers derived from its weights,
+     * which changes to the property no longer invalidate.
+     */
+    private void close() {
+        managementService(db).unregisterTransactionEventListener(db.databaseName(), listener);
+        FrontierCache.invalidateWeights(db.databaseName(), property);
+    }
+
+    private static DatabaseManagementService managementService(GraphDatabaseService db) {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(DatabaseManagementService.class);
+    }
+
+    /**
+     * @return true if the property is cached for any database.
+     */
+    static boolean isCached(String property) {
+        synchronized (caches) {
+            for (WeightCache cache : caches.values()) {
+                if (cache.property.equals(property)) return true;
+            }
+        }
+        return false;
+    }
+
+    private void load(GraphDatabaseService db) {
+        int[] loaded = new int[INITIAL_SIZE];
+        Arrays.fill(loaded, MISSING);
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : tx.getAllNodes()) {
+                loaded = put(loaded, node.getId(), toWeight(node.getProperty(property, null)));
+            }
+            tx.commit();
+        }
+        synchronized (this) {
+            weights = loaded;
+            for (LongIntHashMap changes : pending) apply(changes);
+            pending = null;
+        }
+    }
+
+    /**
+     * @return the weight of the node, or MISSING if it has no numeric value of the property.
+     */
+    int weight(long nodeId) {
+        int[] weights = this.weights;
+        if (nodeId < weights.length) return weights[(int) nodeId];
+        return nodeId > MAX_ARRAY_ID ? large_ids.getOrDefault(nodeId, MISSING) : MISSING;
+    }
+
+    /**
+     * Rounds a value of the property to a weight. Negative values weigh 0, since the searches rely on scores being at
+     * least 0: -1 and -2 are the results for no path and QUEUE_LIMIT_EXCEEDED, and degrees are compared by subtraction.
+     */
+    private static int toWeight(Object value) {
+        if (!(value instanceof Number)) return MISSING;
+        long weight = Math.round(((Number) value).doubleValue());
+        return (int) Math.max(0, Math.min(MISSING - 1, weight));
+    }
+
+    /**
+     * Sets the weight of the node, growing the array if needed.
+     *
+     * @return the array, or its grown copy.
+     */
+    private int[] put(int[] weights, long nodeId, int weight) {
+        if (nodeId > MAX_ARRAY_ID) {
+            if (weight == MISSING) large_ids.remove(nodeId);
+            else large_ids.put(nodeId, weight);
+            return weights;
+        }
+        if (nodeId >= weights.length) {
+            int[] grown = Arrays.copyOf(weights, (int) Math.max(nodeId + 1, Math.min(MAX_ARRAY_ID + 1, 2L * weights.length)));
+            Arrays.fill(grown, weights.length, grown.length, MISSING);
+            weights = grown;
+        }
+        weights[(int) nodeId] = weight;
+        return weights;
+    }
+
+    /**
+     * @return the new weights of the nodes changed by a committed transaction, or null if it changed none.
+     */
+    private LongIntHashMap changes(TransactionData data) {
+        LongIntHashMap changes = new LongIntHashMap();
+        for (Node node : data.deletedNodes()) changes.put(node.getId(), MISSING);
+        //Ids of deleted nodes are reused, so a created node starts without a weight.
+        for (Node node : data.createdNodes()) changes.put(node.getId(), MISSING);
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            if (entry.key().equals(property)) changes.put(entry.entity().getId(), MISSING);
+        }
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            if (entry.key().equals(property)) changes.put(entry.entity().getId(), toWeight(entry.value()));
+        }
+        return changes.isEmpty() ? null : changes;
+    }
+
+    /**
+     * Writes the changes into the array, which is only replaced if it has to grow.
+     */
+    private void apply(LongIntHashMap changes) {
+        int[] updated = weights;
+        LongIterator ids = changes.keySet().longIterator();
+        while (ids.hasNext()) {
+            long id = ids.next();
+            updated = put(updated, id, changes.get(id));
+        }
+        weights = updated;
+    }
+
+    private class Listener extends TransactionEventListenerAdapter<Object> {
+        @Override
+        public void afterCommit(TransactionData data, Object state, GraphDatabaseService databaseService) {
+            LongIntHashMap changes = changes(data);
+            if (changes == null) return;
+            synchronized (WeightCache.this) {
+                if (pending != null) {
+                    pending.add(changes);
+                } else {
+                    apply(changes);
+                }
+            }
+        }
+    }
+}
@@ -9,8 +9,15 @@ import org.neo4j.driver.types.Path;
 import org.neo4j.harness.Neo4j;
 import org.neo4j.harness.Neo4jBuilders;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,6 +35,16 @@ public class PromiscuityTests {
                 .withDisabledServer()
                 .withProcedure(Promiscuity.class)
                 .withProcedure(PromiscuityQueueNodeCount.class)
+                .withProcedure(PromiscuityWrite.class)
+                .withProcedure(PromiscuitySnapshot.class)
+                .withProcedure(PromiscuityCache.class)
+                .withProcedure(PromiscuityAuto.class)
+                .withProcedure(PromiscuityEstimate.class)
+                .withProcedure(PromiscuityWatch.class)
+                .withProcedure(PromiscuityScheduler.class)
+                .withProcedure(PromiscuityJobs.class)
+                .withProcedure(PromiscuityMatrix.class)
+                .withFunction(PromiscuityFunctions.class)
                 .build();
 
         driver = GraphDatabase.driver(embeddedDatabaseServer.boltURI(), driverConfig);
@@ -164,6 +181,1171 @@ public class PromiscuityTests {
         }
     }
 
+    /**
+     * Runs promiscuity.promiscuityScoreProfile on the s -> n -> i -> t graph. Paths of length 2 and 4 connect source and
+     * tail (the latter by walking back and forth), and each row must agree with a separate promiscuityScore call.
+     */
+    @Test
+    public void promiscuityScoreProfileTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            List<Record> record_list = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityScoreProfile(s,t,4) YIELD k, promiscuity_score RETURN k, promiscuity_score").list();
+            assertEquals(record_list.size(),2);
+            assertEquals(record_list.get(0).get("k").asInt(),2);
+            assertEquals(record_list.get(0).get("promiscuity_score").asInt(),4);
+            assertEquals(record_list.get(1).get("k").asInt(),4);
+
+            for(Record r : record_list){
+                Record single = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                        "promiscuity.promiscuityScore(s,t,$k) YIELD promiscuity_score RETURN promiscuity_score",
+                        Values.parameters("k", r.get("k").asInt())).single();
+                assertEquals(single.get("promiscuity_score").asInt(),r.get("promiscuity_score").asInt());
+            }
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityScoreProfile(s,t,4,true) YIELD k, promiscuity_score RETURN k, promiscuity_score").single();
+            assertEquals(record.get("k").asInt(),2);
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+        }
+    }
+
+    /**
+     * On the s -> n -> i -> t graph the only paths of length 4 walk back and forth (e.g. s -> degree3 -> a0 -> degree3
+     * -> i -> t). With simplePaths set, every procedure must reject them, and the queue count procedures must report
+     * the skipped revisits.
+     */
+    @Test
+    public void simplePathsTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityScore(s,t,4) YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+
+            for(String procedure : new String[]{"promiscuityScore", "promiscuityDFSScore", "naivePromiscuityDFSScore"}){
+                List<Record> record_list = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                        "promiscuity." + procedure + "(s,t,4,{simplePaths:true}) YIELD promiscuity_score RETURN promiscuity_score").list();
+                assertTrue(record_list.isEmpty(), procedure);
+            }
+            List<Record> record_list = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityPath(s,t,4,10,{simplePaths:true}) YIELD promiscuity_score RETURN promiscuity_score").list();
+            assertTrue(record_list.isEmpty());
+
+            //The simple path of length 2 is unaffected.
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityDFSScore(s,t,2,{simplePaths:true}) YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuityQueueCount.naivePromiscuityScoreQueueCount(s,t,4,{simplePaths:true}) YIELD skipped_count RETURN skipped_count").single();
+            assertTrue(record.get("skipped_count").asInt() > 0);
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuityQueueCount.naivePromiscuityScoreQueueCount(s,t,4) YIELD skipped_count RETURN skipped_count").single();
+            assertEquals(record.get("skipped_count").asInt(),0);
+        }
+    }
+
+    /**
+     * Runs the beam search procedures on the s -> n -> i -> t graph. A beam of width 3 keeps s -> degree3 -> i and finds
+     * the optimal score of 4, with a matching lower bound. A beam of width 1 only keeps dead ends at depth 2, so no
+     * score is found but the lower bound still holds.
+     */
+    @Test
+    public void approxPromiscuityTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.approxPromiscuityScore(s,t,2,3) YIELD promiscuity_score, lower_bound RETURN promiscuity_score, lower_bound").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+            assertEquals(record.get("lower_bound").asInt(),4);
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.approxPromiscuityScore(s,t,2,1) YIELD promiscuity_score, lower_bound RETURN promiscuity_score, lower_bound").single();
+            assertTrue(record.get("promiscuity_score").isNull());
+            assertEquals(record.get("lower_bound").asInt(),3);
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.approxPromiscuityPath(s,t,2,3) YIELD promiscuity_score, promiscuity_path RETURN promiscuity_score, promiscuity_path").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+            Object[] nodeArray = IteratorUtils.toArray(record.get("promiscuity_path").asPath().nodes().iterator());
+            assertEquals(((InternalNode) nodeArray[1]).get("name").asString(),"degree3");
+            assertEquals(((InternalNode) nodeArray[2]).get("name").asString(),"intermediate");
+            assertEquals(nodeArray.length,4);
+        }
+    }
+
+    /**
+     * Excludes the intermediate nodes of the test graph through maxDegree, the hubs list and hubLabel, and checks the
+     * next best path is found each time.
+     */
+    @Test
+    public void hubExclusionTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            String query = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.%s(s,t,1,%s) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score";
+
+            Record record = session.run(String.format(query, "promiscuityScore", "{maxDegree:4}")).single();
+            assertEquals(record.get("promiscuity_score").asInt(),3);
+            assertTrue(session.run(String.format(query, "promiscuityDFSScore", "{maxDegree:2}")).list().isEmpty());
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}), (h {name:'degree3'}) CALL " +
+                    "promiscuity.promiscuityScore(s,t,1,{hubs:[h]}) YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(),5);
+
+            session.run("MATCH (n:Node) WHERE n.name IN ['degree3','degree5'] SET n:Hub");
+            for(String procedure : new String[]{"promiscuityScore", "promiscuityDFSScore", "naivePromiscuityScore", "naivePromiscuityDFSScore"}){
+                record = session.run(String.format(query, procedure, "{hubLabel:'Hub'}")).single();
+                assertEquals(record.get("promiscuity_score").asInt(),10, procedure);
+            }
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuityQueueCount.promiscuityScoreQueueCount(s,t,1,{hubLabel:'Hub'}) YIELD promiscuity_score, excluded_count " +
+                    "RETURN promiscuity_score, excluded_count").single();
+            assertEquals(record.get("promiscuity_score").asInt(),10);
+            assertEquals(record.get("excluded_count").asInt(),2);
+        }
+    }
+
+    /**
+     * Writes the scores of two pairs with promiscuity.write, one batch per pair. Only the pair connected by a path of
+     * length 1 gets a PromiscuityScore node holding its score, a single one although the query returns it twice. Writing
+     * again gives the same score, as score nodes are not traversed, and a transaction with pending writes cannot call it.
+     */
+    @Test
+    public void promiscuityWriteTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+
+            String pairQuery = "MATCH (s {name:'source'}), (t {name:'tail'}) RETURN s AS source, t AS tail " +
+                    "UNION ALL MATCH (s {name:'a0'}), (t {name:'c0'}) RETURN s AS source, id(t) AS tail " +
+                    "UNION ALL MATCH (s {name:'source'}), (t {name:'tail'}) RETURN id(s) AS source, t AS tail";
+            String score_query = "MATCH (s:Node {name:'source'}), (t:Node {name:'tail'}), " +
+                    "(p:PromiscuityScore {source: id(s), tail: id(t)}) RETURN p.score AS score";
+            String degree_query = "MATCH (s:Node {name:'source'}), (t:Node {name:'tail'}) RETURN size((s)--()) + size((t)--()) AS degree";
+            int degree = session.run(degree_query).single().get("degree").asInt();
+            for (int run = 0; run < 2; run++) {
+                List<Record> record_list = session.run("CALL promiscuity.write($pairQuery, 1, 'score', 1, 2) " +
+                        "YIELD phase, pairs_processed, pairs_written RETURN phase, pairs_processed, pairs_written",
+                        Values.parameters("pairQuery", pairQuery)).list();
+                assertEquals(record_list.size(),5);
+                Record summary = record_list.get(4);
+                assertEquals(summary.get("phase").asString(),"summary");
+                assertEquals(summary.get("pairs_processed").asInt(),2);
+                assertEquals(summary.get("pairs_written").asInt(),1);
+
+                Record record = session.run(score_query).single();
+                assertEquals(record.get("score").asInt(),3);
+                record = session.run("MATCH (p:PromiscuityScore) RETURN count(p) AS count").single();
+                assertEquals(record.get("count").asInt(),1);
+                assertEquals(session.run(degree_query).single().get("degree").asInt(), degree);
+            }
+
+            try (org.neo4j.driver.Transaction write_tx = session.beginTransaction()) {
+                write_tx.run("CREATE (:Node {name:'pending'})").consume();
+                assertThrows(org.neo4j.driver.exceptions.ClientException.class, () -> write_tx.run(
+                        "CALL promiscuity.write($pairQuery, 1, 'score')", Values.parameters("pairQuery", pairQuery)).consume());
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the test graph and scores it with promiscuity.snapshot.score. The snapshot keeps the score
+     * of the graph it was written from until it is written again. Files outside of the snapshot directory are refused.
+     */
+    @Test
+    public void snapshotScoreTest() {
+        String file = "score-test/graph.snapshot";
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            String score_query = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.snapshot.score($file,s,t,1) YIELD promiscuity_score RETURN promiscuity_score";
+
+            Record record = session.run("CALL promiscuity.snapshot.write($file)", Values.parameters("file", file)).single();
+            assertEquals(record.get("node_count").asInt(),17);
+            record = session.run(score_query, Values.parameters("file", file)).single();
+            assertEquals(record.get("promiscuity_score").asInt(),3);
+
+            session.run("MATCH (n:Node {name:'degree3'})-[r:Edge]->(t:Node {name:'tail'}) DELETE r");
+            record = session.run(score_query, Values.parameters("file", file)).single();
+            assertEquals(record.get("promiscuity_score").asInt(),3);
+
+            session.run("CALL promiscuity.snapshot.write($file)", Values.parameters("file", file)).consume();
+            record = session.run(score_query, Values.parameters("file", file)).single();
+            assertEquals(record.get("promiscuity_score").asInt(),5);
+
+            //Files are named within the snapshot directory.
+            for (String outside : new String[]{java.nio.file.Paths.get(file).toAbsolutePath().toString(), "../graph.snapshot", "score-test/../../graph.snapshot"}) {
+                assertThrows(org.neo4j.driver.exceptions.ClientException.class, () ->
+                        session.run("CALL promiscuity.snapshot.write($file)", Values.parameters("file", outside)).consume(), outside);
+                assertThrows(org.neo4j.driver.exceptions.ClientException.class, () ->
+                        session.run("CALL promiscuity.snapshot.load($file)", Values.parameters("file", outside)).consume(), outside);
+            }
+        }
+    }
+
+    /**
+     * Writes a plain and a compressed snapshot of the intermediate test graph. Both give the same scores, and the
+     * compressed one is smaller.
+     */
+    @Test
+    public void compressedSnapshotTest() {
+        String plain = "compressed-test/plain.snapshot";
+        String compressed = "compressed-test/compressed.snapshot";
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            Record plain_record = session.run("CALL promiscuity.snapshot.write($file)", Values.parameters("file", plain)).single();
+            Record compressed_record = session.run("CALL promiscuity.snapshot.write($file, true)", Values.parameters("file", compressed)).single();
+            assertTrue(compressed_record.get("compressed").asBoolean());
+            assertEquals(compressed_record.get("adjacency_count").asLong(), plain_record.get("adjacency_count").asLong());
+            assertTrue(compressed_record.get("size_bytes").asLong() < plain_record.get("size_bytes").asLong());
+
+            assertSnapshotScoresMatch(session, plain, Values.parameters());
+            assertSnapshotScoresMatch(session, compressed, Values.parameters());
+        }
+    }
+
+    /**
+     * Writes a degree ordered snapshot of the intermediate test graph, with and without compression. Scores are the
+     * same as on the graph, including with hubs given by their Neo4j ids, which have to be mapped through the
+     * renumbering.
+     */
+    @Test
+    public void degreeOrderedSnapshotTest() {
+        String plain = "degree-test/plain.snapshot";
+        String compressed = "degree-test/compressed.snapshot";
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            session.run("CALL promiscuity.snapshot.write($file, false, 'degree')", Values.parameters("file", plain)).consume();
+            session.run("CALL promiscuity.snapshot.write($file, true, 'degree')", Values.parameters("file", compressed)).consume();
+            Record record = session.run("CALL promiscuity.snapshot.load($file)", Values.parameters("file", plain)).single();
+            assertEquals(record.get("order").asString(),"degree");
+
+            Value hubs = Values.parameters("hubs", session.run("MATCH (n {name:'degree3'}) RETURN collect(id(n)) AS hubs").single().get("hubs"));
+            for (String file : new String[]{plain, compressed}) {
+                assertSnapshotScoresMatch(session, file, Values.parameters());
+                assertSnapshotScoresMatch(session, file, hubs);
+            }
+        }
+    }
+
+    /**
+     * Scores the source of the intermediate test graph against every node as tail with the frontier cache, which must
+     * give the same scores as the search. The first tail computes the frontier and the others hit it, until an edge
+     * inside the frontier is deleted and the frontier is dropped.
+     */
+    @Test
+    public void frontierCacheTest() {
+
+        try(Session session = driver.session()) {
+            session.run("CALL promiscuity.frontierCache.clear()").consume();
+            buildIntermediateTestGraph(session);
+            String compare_query = "MATCH (s {name:'source'}), (t:Node) " +
+                    "CALL promiscuity.promiscuityScore(s,t,$k) YIELD promiscuity_score " +
+                    "WITH s, t, promiscuity_score AS expected " +
+                    "CALL promiscuity.promiscuityScore(s,t,$k,{frontierCache: true}) YIELD promiscuity_score " +
+                    "RETURN count(*) AS count, sum(CASE WHEN expected = promiscuity_score THEN 1 ELSE 0 END) AS matching";
+
+            for (int k = 1; k <= 3; k++) {
+                Record record = session.run(compare_query, Values.parameters("k", k)).single();
+                assertEquals(record.get("count").asInt(), record.get("matching").asInt());
+                assertTrue(record.get("count").asInt() > 0);
+            }
+            Record stats = session.run("CALL promiscuity.frontierCache.stats()").single();
+            assertEquals(stats.get("frontiers").asInt(),3);
+            assertEquals(stats.get("misses").asInt(),3);
+            assertTrue(stats.get("hits").asInt() > 0);
+
+            session.run("MATCH (n:Node {name:'degree3'})-[r:Edge]->(i:Node {name:'intermediate'}) DELETE r");
+            stats = session.run("CALL promiscuity.frontierCache.stats()").single();
+            assertTrue(stats.get("invalidations").asInt() > 0);
+            Record record = session.run(compare_query, Values.parameters("k", 2)).single();
+            assertEquals(record.get("count").asInt(), record.get("matching").asInt());
+
+            //A transaction which is rolled back sees its own writes, without leaving them in the cache.
+            String score = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityScore(s,t,2,{frontierCache: true}) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score";
+            try (org.neo4j.driver.Transaction write_tx = session.beginTransaction()) {
+                write_tx.run("MATCH (n:Node {name:'degree5'})-[r:Edge]->(i:Node {name:'intermediate'}) DELETE r").consume();
+                assertEquals(write_tx.run(score).single().get("promiscuity_score").asInt(), 10);
+                write_tx.rollback();
+            }
+            assertEquals(session.run(score).single().get("promiscuity_score").asInt(), 5);
+        }
+    }
+
+    /**
+     * Runs promiscuity.auto on the intermediate test graph. With the default memory budget it picks the priority-queue
+     * search, and with a budget too small for the estimated queue it picks the DFS. Both give the search's score.
+     */
+    @Test
+    public void autoTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.auto(s,t,2) " +
+                    "YIELD promiscuity_score, engine RETURN promiscuity_score, engine").single();
+            assertEquals(record.get("engine").asString(),"bfs");
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.auto(s,t,2,{maxQueueBytes: 100}) " +
+                    "YIELD promiscuity_score, engine, reason RETURN promiscuity_score, engine, reason").single();
+            assertEquals(record.get("engine").asString(),"dfs");
+            assertTrue(record.get("reason").asString().contains("exceeds maxQueueBytes"));
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+
+            //There is no path of length 1, which is reported as a null score.
+            record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.auto(s,t,1) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertTrue(record.get("promiscuity_score").isNull());
+        }
+    }
+
+    /**
+     * Estimates the memory of queries on the intermediate test graph, and checks the maxHeapShare guard: with a share
+     * too small for any query promiscuityScore falls back to the DFS and still scores, while promiscuityPath refuses.
+     * The queue count procedures report the estimate next to the actual peak.
+     */
+    @Test
+    public void estimateTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            String estimate_query = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.estimate($procedure,s,t,2,$numPaths) " +
+                    "YIELD estimated_entries, estimated_bytes RETURN estimated_entries, estimated_bytes";
+
+            Record score = session.run(estimate_query, Values.parameters("procedure", "promiscuityScore", "numPaths", 1)).single();
+            Record path = session.run(estimate_query, Values.parameters("procedure", "promiscuity.promiscuityPath", "numPaths", 1000)).single();
+            Record dfs = session.run(estimate_query, Values.parameters("procedure", "promiscuityDFSScore", "numPaths", 1)).single();
+            assertTrue(score.get("estimated_entries").asLong() > 0);
+            assertTrue(path.get("estimated_bytes").asLong() > score.get("estimated_bytes").asLong());
+            assertTrue(dfs.get("estimated_bytes").asLong() > 0);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityScore(s,t,2,{maxHeapShare: 0.0000000001}) YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+            assertThrows(org.neo4j.driver.exceptions.ClientException.class, () -> session.run("MATCH (s {name:'source'}), (t {name:'tail'}) " +
+                    "CALL promiscuity.promiscuityPath(s,t,2,1000,{maxHeapShare: 0.0000000001}) YIELD promiscuity_score RETURN promiscuity_score").list());
+
+            for (String procedure : new String[]{"promiscuityScoreQueueCount", "promiscuityDFSScoreQueueCount",
+                    "naivePromiscuityScoreQueueCount", "naivePromiscuityDFSScoreQueueCount"}) {
+                record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuityQueueCount." + procedure +
+                        "(s,t,2) YIELD estimated_entries, peak_entries RETURN estimated_entries, peak_entries").single();
+                assertTrue(record.get("estimated_entries").asLong() > 0);
+                assertTrue(record.get("peak_entries").asLong() > 0);
+            }
+        }
+    }
+
+    /**
+     * Runs promiscuity.promiscuityPath in streaming mode, which must return the same paths in the same order as the
+     * default mode, and promiscuity.promiscuityDFSScoreProgressive, whose last row is the optimal score.
+     */
+    @Test
+    public void streamingTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+
+            List<Record> streamed = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityPath(s,t,1,10,{streaming: true}) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score").list();
+            assertEquals(streamed.size(),3);
+            assertEquals(streamed.get(0).get("promiscuity_score").asInt(),3);
+            assertEquals(streamed.get(1).get("promiscuity_score").asInt(),5);
+            assertEquals(streamed.get(2).get("promiscuity_score").asInt(),10);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityPath(s,t,1,10,{streaming: true}) " +
+                    "YIELD promiscuity_path RETURN [n IN nodes(promiscuity_path) | n.name] AS names LIMIT 1").single();
+            assertEquals(record.get("names").asList(Values.ofString()).get(1),"degree3");
+
+            List<Record> progress = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityDFSScoreProgressive(s,t,1) " +
+                    "YIELD promiscuity_score, optimal RETURN promiscuity_score, optimal").list();
+            Record last = progress.get(progress.size() - 1);
+            assertTrue(last.get("optimal").asBoolean());
+            assertEquals(last.get("promiscuity_score").asInt(),3);
+            for (int i = 0; i < progress.size() - 1; i++) {
+                assertFalse(progress.get(i).get("optimal").asBoolean());
+            }
+        }
+    }
+
+    /**
+     * Compares promiscuity.iterativeDeepeningScore to promiscuity.promiscuityScore for the source of the intermediate
+     * test graph and every node as tail, with and without simple paths.
+     */
+    @Test
+    public void iterativeDeepeningScoreTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            List<String> names = session.run("MATCH (n:Node) RETURN n.name AS name").list(r -> r.get("name").asString());
+
+            for (boolean simplePaths : new boolean[]{false, true}) {
+                Value config = Values.parameters("simplePaths", simplePaths);
+                for (int k = 1; k <= 4; k++) {
+                    for (String name : names) {
+                        Value parameters = Values.parameters("name", name, "k", k, "config", config);
+                        List<Record> expected = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                                "promiscuity.promiscuityScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score", parameters).list();
+                        List<Record> actual = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                                "promiscuity.iterativeDeepeningScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score", parameters).list();
+                        assertEquals(expected.size(), actual.size());
+                        if (!expected.isEmpty()) {
+                            assertEquals(expected.get(0).get("promiscuity_score").asInt(), actual.get(0).get("promiscuity_score").asInt());
+                        }
+                    }
+                }
+            }
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.iterativeDeepeningScore(s,t,2) YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(),4);
+        }
+    }
+
+    /**
+     * Labels the tail and a neighbor of degree5 as Target, and checks the ToLabel procedures against the paths to each
+     * of them. An unknown label has no paths.
+     */
+    @Test
+    public void toLabelTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            session.run("MATCH (n:Node) WHERE n.name IN ['tail', 'b0'] SET n:Target");
+
+            Record record = session.run("MATCH (s {name:'source'}) CALL promiscuity.promiscuityScoreToLabel(s,'Target',1) " +
+                    "YIELD promiscuity_score, tail RETURN promiscuity_score, tail.name AS name").single();
+            assertEquals(record.get("promiscuity_score").asInt(), 3);
+            assertEquals(record.get("name").asString(), "tail");
+
+            List<Record> paths = session.run("MATCH (s {name:'source'}) CALL promiscuity.promiscuityPathToLabel(s,'Target',1,5) " +
+                    "YIELD promiscuity_score, promiscuity_path RETURN promiscuity_score, last(nodes(promiscuity_path)).name AS name").list();
+            assertEquals(paths.size(), 4);
+            assertEquals(paths.get(0).get("promiscuity_score").asInt(), 3);
+            assertEquals(paths.get(1).get("promiscuity_score").asInt(), 5);
+            assertEquals(paths.get(2).get("promiscuity_score").asInt(), 5);
+            assertEquals(paths.get(3).get("promiscuity_score").asInt(), 10);
+            Set<String> reached = new HashSet<>();
+            for (Record path : paths.subList(1, 3)) reached.add(path.get("name").asString());
+            assertEquals(reached, new HashSet<>(Arrays.asList("tail", "b0")));
+
+            //Without the degree3 edge to the tail, b0 and the tail tie through degree5.
+            session.run("MATCH (n:Node {name:'degree3'})-[r:Edge]->(t:Node {name:'tail'}) DELETE r");
+            record = session.run("MATCH (s {name:'source'}) CALL promiscuity.promiscuityScoreToLabel(s,'Target',1,{simplePaths:true}) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score").single();
+            assertEquals(record.get("promiscuity_score").asInt(), 5);
+
+            assertEquals(session.run("MATCH (s {name:'source'}) CALL promiscuity.promiscuityScoreToLabel(s,'Missing',1) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score").list().size(), 0);
+        }
+    }
+
+    /**
+     * Checks promiscuity.score against promiscuity.promiscuityScore, and that repeated rows within one query are
+     * answered from the memo.
+     */
+    @Test
+    public void scoreFunctionTest() throws Exception {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) " +
+                    "RETURN promiscuity.score(s,t,1) AS score, promiscuity.score(s,t,3,{simplePaths:true}) AS none").single();
+            assertEquals(record.get("score").asInt(), 3);
+            assertTrue(record.get("none").isNull());
+
+            //Every score computed rather than read from the memo is one search, and one promiscuity.Query event.
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("promiscuity", ".jfr");
+            List<Record> ranked;
+            try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+                recording.enable("promiscuity.Query");
+                recording.start();
+                ranked = session.run("UNWIND range(1,10) AS i MATCH (s {name:'source'}), (t:Node) " +
+                        "WHERE t.name IN ['tail', 'a0'] WITH t, promiscuity.score(s,t,2) AS score " +
+                        "RETURN t.name AS name, score ORDER BY score").list();
+                recording.stop();
+                recording.dump(file);
+            }
+            long searches = jdk.jfr.consumer.RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("promiscuity.Query")).count();
+            java.nio.file.Files.delete(file);
+            assertEquals(ranked.size(), 20);
+            assertEquals(searches, 2);
+
+            for (String name : new String[]{"tail", "a0"}) {
+                List<Record> expected = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                        "promiscuity.promiscuityScore(s,t,2) YIELD promiscuity_score RETURN promiscuity_score",
+                        Values.parameters("name", name)).list();
+                for (Record row : ranked) {
+                    if (!row.get("name").asString().equals(name)) continue;
+                    if (expected.isEmpty()) assertTrue(row.get("score").isNull());
+                    else assertEquals(expected.get(0).get("promiscuity_score").asInt(), row.get("score").asInt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares promiscuity.dpPromiscuityScore to promiscuity.promiscuityScore for the source of the intermediate test
+     * graph and every node as tail, and checks the path of promiscuity.dpPromiscuityPath scores what it reports.
+     */
+    @Test
+    public void dpPromiscuityScoreTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            List<String> names = session.run("MATCH (n:Node) RETURN n.name AS name").list(r -> r.get("name").asString());
+
+            for (Value config : new Value[]{Values.parameters(), Values.parameters("maxDegree", 6)}) {
+                for (int k = 1; k <= 5; k++) {
+                    for (String name : names) {
+                        Value parameters = Values.parameters("name", name, "k", k, "config", config);
+                        List<Record> expected = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                                "promiscuity.promiscuityScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score", parameters).list();
+                        List<Record> actual = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                                "promiscuity.dpPromiscuityScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score", parameters).list();
+                        assertEquals(expected.size(), actual.size());
+                        if (!expected.isEmpty()) {
+                            assertEquals(expected.get(0).get("promiscuity_score").asInt(), actual.get(0).get("promiscuity_score").asInt());
+                        }
+                    }
+                }
+            }
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.dpPromiscuityPath(s,t,2) " +
+                    "YIELD promiscuity_score, promiscuity_path RETURN promiscuity_score, length(promiscuity_path) AS length, " +
+                    "reduce(m = 0, n IN nodes(promiscuity_path)[1..-1] | CASE WHEN size((n)--()) > m THEN size((n)--()) ELSE m END) AS max_degree").single();
+            assertEquals(record.get("promiscuity_score").asInt(), 4);
+            assertEquals(record.get("length").asInt(), 3);
+            assertEquals(record.get("max_degree").asInt(), 4);
+
+            assertThrows(Exception.class, () -> session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.dpPromiscuityScore(s,t,2,{simplePaths:true}) YIELD promiscuity_score RETURN promiscuity_score").list());
+        }
+    }
+
+    /**
+     * Watches the source and tail of the test graph, deletes the edge of the least promiscuous path and checks the
+     * watched score is recomputed in the background, also after its first recomputation was rejected.
+     */
+    @Test
+    public void watchTest() throws InterruptedException {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+
+            Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.watch(s,t,1) " +
+                    "YIELD promiscuity_score, path, stale RETURN promiscuity_score, size(path) AS length, stale").single();
+            assertEquals(record.get("promiscuity_score").asInt(), 3);
+            assertEquals(record.get("length").asInt(), 3);
+            assertFalse(record.get("stale").asBoolean());
+            long recomputations = session.run("CALL promiscuity.watch.stats() YIELD recomputations RETURN recomputations")
+                    .single().get("recomputations").asLong();
+
+            session.run("MATCH (n:Node {name:'degree3'})-[r:Edge]->(t:Node {name:'tail'}) DELETE r").consume();
+            assertTrue(WatchList.of(embeddedDatabaseServer.defaultDatabaseService()).awaitIdle(10_000));
+
+            record = session.run("MATCH (s {name:'source'}) CALL promiscuity.watched() YIELD source, promiscuity_score, stale " +
+                    "WHERE source = id(s) RETURN promiscuity_score, stale").single();
+            assertEquals(record.get("promiscuity_score").asInt(), 5);
+            assertFalse(record.get("stale").asBoolean());
+            record = session.run("CALL promiscuity.watch.stats() YIELD recomputations, backlog RETURN recomputations, backlog").single();
+            assertEquals(record.get("recomputations").asLong(), recomputations + 1);
+            assertEquals(record.get("backlog").asLong(), 0);
+
+            session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.unwatch(s,t,1) YIELD k RETURN k").consume();
+            assertEquals(session.run("MATCH (s {name:'source'}) CALL promiscuity.watched() YIELD source " +
+                    "WHERE source = id(s) RETURN source").list().size(), 0);
+
+            //With every call heavy, a streaming watch recomputed in the background gives its scheduler slot back.
+            long[] defaults = QueryScheduler.SHARED.stats();
+            Map<String, Object> settings = new HashMap<>();
+            settings.put("heavyEntries", 0);
+            QueryScheduler.SHARED.configure(settings);
+            try {
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.watch(s,t,1,{streaming:true}) " +
+                        "YIELD promiscuity_score RETURN promiscuity_score").consume();
+                session.run("MATCH (n:Node {name:'degree5'})-[r:Edge]->(t:Node {name:'tail'}) DELETE r").consume();
+                assertTrue(WatchList.of(embeddedDatabaseServer.defaultDatabaseService()).awaitIdle(10_000));
+                assertEquals(QueryScheduler.SHARED.stats()[3], 0);
+            } finally {
+                settings.put("heavyEntries", defaults[1]);
+                QueryScheduler.SHARED.configure(settings);
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.unwatch(s,t,1,{streaming:true}) " +
+                        "YIELD k RETURN k").consume();
+            }
+
+            //A recomputation rejected by the scheduler keeps its error and is retried until it succeeds.
+            String watched = "MATCH (s {name:'source'}) CALL promiscuity.watched() YIELD source, promiscuity_score, stale, error " +
+                    "WHERE source = id(s) RETURN promiscuity_score, stale, error";
+            session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.watch(s,t,1) YIELD k RETURN k").consume();
+            settings.put("heavyEntries", 0);
+            settings.put("maxHeavy", 1);
+            settings.put("waitTimeoutMs", 50);
+            QueryScheduler.SHARED.configure(settings);
+            QueryScheduler.Permit permit = QueryScheduler.SHARED.admit("someone-else", "watchTest", 1);
+            try {
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CREATE (s)-[:Edge]->(:Node {name:'shortcut'})-[:Edge]->(t)").consume();
+                assertTrue(WatchList.of(embeddedDatabaseServer.defaultDatabaseService()).awaitIdle(10_000));
+                record = session.run(watched).single();
+                assertTrue(record.get("stale").asBoolean());
+                assertFalse(record.get("error").isNull());
+            } finally {
+                permit.close();
+                settings.put("heavyEntries", defaults[1]);
+                settings.put("maxHeavy", defaults[0]);
+                settings.put("waitTimeoutMs", defaults[2]);
+                QueryScheduler.SHARED.configure(settings);
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            do {
+                Thread.sleep(100);
+                record = session.run(watched).single();
+            } while (record.get("stale").asBoolean() && System.currentTimeMillis() < deadline);
+            assertFalse(record.get("stale").asBoolean());
+            assertTrue(record.get("error").isNull());
+            assertEquals(record.get("promiscuity_score").asInt(), 2);
+            session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.unwatch(s,t,1) YIELD k RETURN k").consume();
+        }
+    }
+
+    /**
+     * Exports the intermediate test graph as an edge list and checks that PromiscuityCli scores the source against every
+     * node as promiscuity.promiscuityScore does.
+     */
+    @Test
+    public void cliTest() throws Exception {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("promiscuity");
+            java.nio.file.Path edges = dir.resolve("edges.csv");
+            java.nio.file.Path pairs = dir.resolve("pairs.tsv");
+            StringBuilder edge_list = new StringBuilder("start,end\n");
+            for (Record record : session.run("MATCH (a)-[r]->(b) RETURN id(a) AS a, id(b) AS b").list()) {
+                edge_list.append('"').append(record.get("a").asLong()).append("\",").append(record.get("b").asLong()).append('\n');
+            }
+            java.nio.file.Files.write(edges, edge_list.toString().getBytes());
+            StringBuilder pair_list = new StringBuilder("# source\ttail\n");
+            List<Record> nodes = session.run("MATCH (s {name:'source'}), (t:Node) RETURN id(s) AS s, id(t) AS t, t.name AS name").list();
+            for (Record record : nodes) pair_list.append(record.get("s").asLong()).append('\t').append(record.get("t").asLong()).append('\n');
+            java.nio.file.Files.write(pairs, pair_list.toString().getBytes());
+
+            for (int k = 1; k <= 3; k++) {
+                java.nio.file.Path output = dir.resolve("scores" + k + ".csv");
+                PromiscuityCli.main(new String[]{edges.toString(), pairs.toString(), String.valueOf(k), output.toString(), "--threads=2"});
+                List<String> lines = java.nio.file.Files.readAllLines(output);
+                assertEquals(lines.get(0), "source,tail,promiscuity_score");
+                assertEquals(lines.size(), nodes.size() + 1);
+                for (int i = 0; i < nodes.size(); i++) {
+                    List<Record> expected = session.run("MATCH (s {name:'source'}), (t {name:$name}) CALL " +
+                            "promiscuity.promiscuityScore(s,t,$k) YIELD promiscuity_score RETURN promiscuity_score",
+                            Values.parameters("name", nodes.get(i).get("name").asString(), "k", k)).list();
+                    String[] columns = lines.get(i + 1).split(",", -1);
+                    assertEquals(Long.parseLong(columns[1]), nodes.get(i).get("t").asLong());
+                    assertEquals(columns[2], expected.isEmpty() ? "" : String.valueOf(expected.get(0).get("promiscuity_score").asInt()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the searches of AdjacencySearch over an edge list with many paths between its ends: the priority-queue, DFS
+     * and iterative deepening searches must agree, and the priority-queue search must only hold its queued entries
+     * (and, for simple paths, their ancestors) rather than every entry it ever queued.
+     */
+    @Test
+    public void adjacencySearchTest() throws Exception {
+        java.nio.file.Path edges = java.nio.file.Files.createTempFile("promiscuity", ".csv");
+        StringBuilder edge_list = new StringBuilder();
+        //Node 0 and node 1 are joined through three layers of five nodes, every layer fully connected to the next.
+        for (int layer = 0; layer < 3; layer++) {
+            for (int a = 0; a < 5; a++) {
+                int node = 10 * (layer + 1) + a;
+                if (layer == 0) edge_list.append("0,").append(node).append('\n');
+                if (layer == 2) edge_list.append(node).append(",1\n");
+                else for (int b = 0; b < 5; b++) edge_list.append(node).append(',').append(10 * (layer + 2) + b).append('\n');
+            }
+        }
+        //Extra neighbors give the nodes of the first layer different degrees.
+        for (int a = 0; a < 5; a++) {
+            for (int extra = 0; extra < a; extra++) edge_list.append(10 + a).append(',').append(100 + 10 * a + extra).append('\n');
+        }
+        java.nio.file.Files.write(edges, edge_list.toString().getBytes());
+        EdgeListAdjacency graph = EdgeListAdjacency.load(edges);
+        java.nio.file.Files.delete(edges);
+        int source = graph.denseId(0);
+        int tail = graph.denseId(1);
+
+        for (boolean simplePaths : new boolean[]{false, true}) {
+            SearchConfig config = new SearchConfig(Collections.singletonMap("simplePaths", simplePaths));
+            AdjacencySearch search = new AdjacencySearch(graph, config);
+            for (int k = 1; k <= 5; k++) {
+                int expected = search.lowestScore(source, tail, k);
+                //Without simple paths no ancestors are kept: only the queue and the entry being expanded are held.
+                if (!simplePaths) assertTrue(search.peakEntries() <= search.peakQueueSize() + 1);
+                assertEquals(expected, search.dfsLowestScore(source, tail, k), "dfs, k=" + k);
+                assertEquals(expected, search.deepeningLowestScore(source, tail, k), "deepening, k=" + k);
+            }
+
+            //Read every path of length 5, which passes the tail, so that many more entries are queued than held.
+            search.startPaths(source, tail, 5);
+            int paths = 0;
+            while (search.queued() > 0) {
+                int found = search.step();
+                if (found != -1) {
+                    assertEquals(search.path(found).length, 6);
+                    search.release(found);
+                    paths++;
+                }
+            }
+            assertTrue(paths > 0);
+            assertTrue(search.dequeued() > 2 * search.peakEntries());
+        }
+    }
+
+    /**
+     * Records a flight recording while running promiscuityScore, promiscuityPath and promiscuityScoreQueueCount on the
+     * graph from buildTestGraph, and checks the promiscuity events in it.
+     */
+    @Test
+    public void jfrTest() throws Exception {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            Record ids = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) RETURN id(s) AS s, id(t) AS t").single();
+            long source = ids.get("s").asLong();
+            long tail = ids.get("t").asLong();
+
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("promiscuity", ".jfr");
+            try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+                recording.enable("promiscuity.Query");
+                recording.enable("promiscuity.ExpansionBatch");
+                recording.enable("promiscuity.BuildPath");
+                recording.start();
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityScore(s,t,1) YIELD promiscuity_score RETURN promiscuity_score").consume();
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityPath(s,t,1,3) YIELD promiscuity_score RETURN promiscuity_score").consume();
+                session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuityQueueCount.promiscuityScoreQueueCount(s,t,1) YIELD promiscuity_score RETURN promiscuity_score").consume();
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<jdk.jfr.consumer.RecordedEvent> events = jdk.jfr.consumer.RecordingFile.readAllEvents(file);
+            java.nio.file.Files.delete(file);
+            Set<String> engines = new HashSet<>();
+            int batches = 0;
+            int paths = 0;
+            for (jdk.jfr.consumer.RecordedEvent event : events) {
+                switch (event.getEventType().getName()) {
+                    case "promiscuity.Query":
+                        engines.add(event.getString("engine"));
+                        assertEquals(event.getLong("sourceNodeId"), source);
+                        assertEquals(event.getLong("tailNodeId"), tail);
+                        assertEquals(event.getInt("k"), 1);
+                        assertEquals(event.getInt("score"), 3);
+                        assertTrue(event.getLong("dequeued") > 0);
+                        break;
+                    case "promiscuity.ExpansionBatch":
+                        assertEquals(event.getLong("sourceNodeId"), source);
+                        batches++;
+                        break;
+                    case "promiscuity.BuildPath":
+                        assertEquals(event.getLong("sourceNodeId"), source);
+                        assertEquals(event.getLong("tailNodeId"), tail);
+                        assertEquals(event.getInt("length"), 2);
+                        paths++;
+                        break;
+                }
+            }
+            assertEquals(engines, new HashSet<>(Arrays.asList("promiscuityScore", "promiscuityPath", "promiscuityScoreQueueCount")));
+            //All three run the AdjacencySearch, which records the expansion of the source, and with k=1 expand nothing else.
+            assertEquals(batches, 3);
+            assertEquals(paths, 3);
+        }
+    }
+
+    /**
+     * Checks that QueryScheduler runs light calls right away, hands the slots of heavy calls to the waiting users in
+     * turn and rejects calls which waited too long. Then runs promiscuity.promiscuityScore and a streaming
+     * promiscuity.promiscuityPath as heavy calls, and checks they give their slots back.
+     */
+    @Test
+    public void schedulerTest() throws Exception {
+
+        QueryScheduler scheduler = new QueryScheduler();
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("maxHeavy", 1);
+        settings.put("heavyEntries", 10);
+        scheduler.configure(settings);
+        QueryScheduler.Permit held = scheduler.admit("a", "test", 100);
+        scheduler.admit("a", "test", 1).close();
+
+        List<String> order = java.util.Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (String user : Arrays.asList("a", "a", "a", "b")) {
+            Thread thread = new Thread(() -> {
+                try (QueryScheduler.Permit permit = scheduler.admit(user, "test", 100)) {
+                    order.add(user);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            //Start the calls one at a time, so they are queued in this order.
+            while (scheduler.stats()[4] < threads.size()) Thread.sleep(1);
+        }
+        assertEquals(scheduler.stats()[5], 2);
+        held.close();
+        held.close();
+        for (Thread thread : threads) thread.join();
+        //b waited behind all calls of a, but gets the slot right after the first of them.
+        assertEquals(order, Arrays.asList("a", "b", "a", "a"));
+        long[] stats = scheduler.stats();
+        assertEquals(stats[3], 0);
+        assertEquals(stats[4], 0);
+        assertEquals(stats[6], 1);
+        assertEquals(stats[7], 5);
+
+        settings.put("waitTimeoutMs", 50);
+        scheduler.configure(settings);
+        held = scheduler.admit("a", "test", 100);
+        assertThrows(IllegalStateException.class, () -> scheduler.admit("c", "test", 100));
+        held.close();
+        stats = scheduler.stats();
+        assertEquals(stats[3], 0);
+        assertEquals(stats[4], 0);
+        assertEquals(stats[8], 1);
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            Record before = session.run("CALL promiscuity.scheduler.configure({heavyEntries: 0}) YIELD heavy_entries, admitted " +
+                    "RETURN heavy_entries, admitted").single();
+            try {
+                Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                        "promiscuity.promiscuityScore(s,t,1) YIELD promiscuity_score RETURN promiscuity_score").single();
+                assertEquals(record.get("promiscuity_score").asInt(), 3);
+                List<Record> paths = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                        "promiscuity.promiscuityPath(s,t,1,3,{streaming: true}) YIELD promiscuity_score RETURN promiscuity_score").list();
+                assertEquals(paths.size(), 3);
+                Record after = session.run("CALL promiscuity.scheduler.stats() YIELD admitted, running, queued " +
+                        "RETURN admitted, running, queued").single();
+                assertEquals(after.get("admitted").asLong(), before.get("admitted").asLong() + 2);
+                assertEquals(after.get("running").asLong(), 0);
+                assertEquals(after.get("queued").asLong(), 0);
+            } finally {
+                //heavy_entries was set to 0 by the call, restore the default.
+                session.run("CALL promiscuity.scheduler.configure({heavyEntries: 1000000})").consume();
+            }
+        }
+    }
+
+    /**
+     * Submits promiscuityPath and promiscuityScore as jobs on the graph from buildTestGraph, waits for them with
+     * promiscuity.status, and checks their progress and results. Then cancels a finished job, which forgets it.
+     */
+    @Test
+    public void jobsTest() throws Exception {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            Record ids = session.run("MATCH (s {name:'source'}), (n {name:'degree3'}), (t {name:'tail'}) " +
+                    "RETURN id(s) AS s, id(n) AS n, id(t) AS t").single();
+
+            long path_job = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.submit(" +
+                    "'promiscuityPath', {sourceNode: s, tailNode: t, k: 1, numPaths: 3}) YIELD job_id RETURN job_id").single().get("job_id").asLong();
+            long score_job = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.submit(" +
+                    "'promiscuity.promiscuityScore', {sourceNode: id(s), tailNode: id(t), k: 1}) YIELD job_id RETURN job_id").single().get("job_id").asLong();
+
+            Record status = awaitJob(session, path_job);
+            assertEquals(status.get("state").asString(), "done");
+            assertEquals(status.get("best_score").asInt(), 3);
+            assertEquals(status.get("results").asLong(), 3);
+            assertTrue(status.get("dequeued").asLong() >= 3);
+            List<Record> results = session.run("CALL promiscuity.results($id) YIELD promiscuity_score, path " +
+                    "RETURN promiscuity_score, path", Values.parameters("id", path_job)).list();
+            assertEquals(results.size(), 3);
+            assertEquals(results.get(0).get("promiscuity_score").asInt(), 3);
+            assertEquals(results.get(1).get("promiscuity_score").asInt(), 5);
+            assertEquals(results.get(2).get("promiscuity_score").asInt(), 10);
+            assertEquals(results.get(0).get("path").asList(Value::asLong),
+                    Arrays.asList(ids.get("s").asLong(), ids.get("n").asLong(), ids.get("t").asLong()));
+
+            status = awaitJob(session, score_job);
+            assertEquals(status.get("state").asString(), "done");
+            results = session.run("CALL promiscuity.results($id) YIELD promiscuity_score RETURN promiscuity_score",
+                    Values.parameters("id", score_job)).list();
+            assertEquals(results.size(), 1);
+            assertEquals(results.get(0).get("promiscuity_score").asInt(), 3);
+
+            //Jobs belong to the user who submitted them, here the anonymous user of the test server.
+            assertThrows(IllegalArgumentException.class, () -> JobStore.get(score_job, "someone-else"));
+            assertEquals(JobStore.get(score_job, "").id, score_job);
+
+            session.run("CALL promiscuity.cancel($id)", Values.parameters("id", path_job)).consume();
+            assertThrows(org.neo4j.driver.exceptions.ClientException.class, () ->
+                    session.run("CALL promiscuity.status($id)", Values.parameters("id", path_job)).consume());
+            //Ended jobs are forgotten once they are older than the retention period.
+            JobStore.evict(System.currentTimeMillis() + JobStore.RETENTION_MS + 1000);
+            assertThrows(IllegalArgumentException.class, () -> JobStore.get(score_job, ""));
+            assertThrows(org.neo4j.driver.exceptions.ClientException.class, () ->
+                    session.run("CALL promiscuity.submit('promiscuityDFSScore', {})").consume());
+        }
+    }
+
+    /**
+     * Polls promiscuity.status until the job has ended, for at most 30 seconds.
+     */
+    private Record awaitJob(Session session, long job_id) throws InterruptedException {
+        for (int i = 0; i < 3000; i++) {
+            Record status = session.run("CALL promiscuity.status($id) YIELD state, best_score, results, dequeued, error " +
+                    "RETURN state, best_score, results, dequeued, error", Values.parameters("id", job_id)).single();
+            String state = status.get("state").asString();
+            if (!state.equals("queued") && !state.equals("running")) return status;
+            Thread.sleep(10);
+        }
+        fail("Job " + job_id + " did not end");
+        return null;
+    }
+
+    /**
+     * Gives the three middle nodes of the graph from buildTestGraph a weight property which orders them differently
+     * from their degrees, and checks that the procedures score paths by it with weightProperty, also after the property
+     * is changed, rounded from a float, negative, or removed.
+     */
+    @Test
+    public void weightPropertyTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            session.run("MATCH (a {name:'degree3'}), (b {name:'degree5'}), (c {name:'degree10'}) SET a.w = 20, b.w = 4, c.w = 7").consume();
+            Value config = Values.parameters("weightProperty", "w");
+
+            for (String procedure : Arrays.asList("promiscuity.promiscuityScore", "promiscuity.promiscuityDFSScore",
+                    "promiscuity.naivePromiscuityScore", "promiscuity.iterativeDeepeningScore", "promiscuity.dpPromiscuityScore",
+                    "promiscuityQueueCount.promiscuityScoreQueueCount")) {
+                Record record = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " + procedure +
+                        "(s,t,1,$config) YIELD promiscuity_score RETURN promiscuity_score", Values.parameters("config", config)).single();
+                assertEquals(record.get("promiscuity_score").asInt(), 4, procedure);
+            }
+            List<Record> paths = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityPath(" +
+                    "s,t,1,3,$config) YIELD promiscuity_score RETURN promiscuity_score", Values.parameters("config", config)).list();
+            assertEquals(paths.size(), 3);
+            assertEquals(paths.get(0).get("promiscuity_score").asInt(), 4);
+            assertEquals(paths.get(1).get("promiscuity_score").asInt(), 7);
+            assertEquals(paths.get(2).get("promiscuity_score").asInt(), 20);
+
+            String score = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityScore(s,t,1,$config) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score";
+            Value cached = Values.parameters("weightProperty", "w", "frontierCache", true);
+            assertEquals(session.run(score, Values.parameters("config", cached)).single().get("promiscuity_score").asInt(), 4);
+
+            //The cached weights follow committed changes.
+            session.run("MATCH (b {name:'degree5'}) SET b.w = 30").consume();
+            assertEquals(session.run(score, Values.parameters("config", config)).single().get("promiscuity_score").asInt(), 7);
+            assertEquals(session.run(score, Values.parameters("config", cached)).single().get("promiscuity_score").asInt(), 7);
+            session.run("MATCH (a {name:'degree3'}) SET a.w = 2.6").consume();
+            assertEquals(session.run(score, Values.parameters("config", config)).single().get("promiscuity_score").asInt(), 3);
+            //Nodes without the property are not put on paths.
+            session.run("MATCH (a {name:'degree3'}), (c {name:'degree10'}) REMOVE a.w, c.w").consume();
+            assertEquals(session.run(score, Values.parameters("config", config)).single().get("promiscuity_score").asInt(), 30);
+            //Negative weights count as 0, rather than as scores below the sentinels for no path.
+            session.run("MATCH (b {name:'degree5'}) SET b.w = -5").consume();
+            assertEquals(session.run(score, Values.parameters("config", config)).single().get("promiscuity_score").asInt(), 0);
+
+            //Using MAX_CACHES other properties evicts the weights of w, and the frontiers derived from them, so a change
+            // committed while w is not cached is seen once it is used again.
+            assertEquals(session.run(score, Values.parameters("config", cached)).single().get("promiscuity_score").asInt(), 0);
+            for (int i = 0; i < WeightCache.MAX_CACHES; i++) {
+                session.run(score, Values.parameters("config", Values.parameters("weightProperty", "w" + i))).consume();
+            }
+            assertFalse(WeightCache.isCached("w"));
+            session.run("MATCH (b {name:'degree5'}) SET b.w = 6").consume();
+            assertEquals(session.run(score, Values.parameters("config", cached)).single().get("promiscuity_score").asInt(), 6);
+            assertTrue(WeightCache.isCached("w"));
+
+            //Snapshots store degrees, so they cannot use weights.
+            String file = "weight-test/graph.snapshot";
+            session.run("CALL promiscuity.snapshot.write($file)", Values.parameters("file", file)).consume();
+            Exception e = assertThrows(org.neo4j.driver.exceptions.ClientException.class, () -> session.run("MATCH " +
+                    "(s {name:'source'}), (t {name:'tail'}) CALL promiscuity.snapshot.score($file,s,t,1,$config) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score", Values.parameters("file", file, "config", config)).consume());
+            assertTrue(e.getMessage().contains("weightProperty"));
+        }
+    }
+
+    @Test
+    public void matrixTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            List<String> names = Arrays.asList("source", "tail", "degree3", "degree5", "intermediate", "a0", "c1");
+            for (Value config : Arrays.asList(Values.parameters(), Values.parameters("maxDegree", 6))) {
+                for (int k = 1; k <= 3; k++) {
+                    List<Record> rows = session.run("UNWIND $names AS name MATCH (n {name:name}) WITH collect(n) AS nodes " +
+                            "CALL promiscuity.matrix(nodes,$k,$config,2) YIELD source, promiscuity_scores " +
+                            "RETURN source.name AS name, promiscuity_scores",
+                            Values.parameters("names", names, "k", k, "config", config)).list();
+                    assertEquals(rows.size(), names.size());
+                    for (int i = 0; i < names.size(); i++) {
+                        assertEquals(rows.get(i).get("name").asString(), names.get(i));
+                        List<Object> scores = rows.get(i).get("promiscuity_scores").asList();
+                        for (int j = 0; j < names.size(); j++) {
+                            List<Record> expected = session.run("MATCH (s {name:$s}), (t {name:$t}) CALL " +
+                                    "promiscuity.promiscuityScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score",
+                                    Values.parameters("s", names.get(i), "t", names.get(j), "k", k, "config", config)).list();
+                            Object score = expected.isEmpty() ? null : expected.get(0).get("promiscuity_score").asLong();
+                            assertEquals(score, scores.get(j), names.get(i) + " -> " + names.get(j) + ", k=" + k);
+                        }
+                    }
+                }
+            }
+
+            Exception e = assertThrows(org.neo4j.driver.exceptions.ClientException.class, () -> session.run(
+                    "MATCH (s {name:'source'}) CALL promiscuity.matrix([s],2,{simplePaths:true}) YIELD source RETURN source").consume());
+            assertTrue(e.getMessage().contains("simplePaths"));
+        }
+    }
+
+    /**
+     * Checks the Sets procedures for the neighbors a0 of degree3 and b0 of degree5 as sources, and the tail and c0 as
+     * tails, against the best promiscuity.promiscuityScore over all pairs.
+     */
+    @Test
+    public void setsTest() {
+
+        try(Session session = driver.session()) {
+            buildTestGraph(session);
+            Value names = Values.parameters("sources", Arrays.asList("a0", "b0"), "tails", Arrays.asList("tail", "c0"));
+            String sets = "MATCH (s) WHERE s.name IN $sources WITH collect(s) AS sources " +
+                    "MATCH (t) WHERE t.name IN $tails WITH sources, collect(t) AS tails ";
+
+            Record record = session.run(sets + "CALL promiscuity.promiscuityScoreSets(sources,tails,1) " +
+                    "YIELD promiscuity_score, source, tail RETURN promiscuity_score, source.name AS source, tail.name AS tail", names).single();
+            assertEquals(record.get("promiscuity_score").asInt(), 3);
+            assertEquals(record.get("source").asString(), "a0");
+            assertEquals(record.get("tail").asString(), "tail");
+
+            List<Record> paths = session.run(sets + "CALL promiscuity.promiscuityPathSets(sources,tails,1,5) " +
+                    "YIELD promiscuity_score, promiscuity_path RETURN promiscuity_score, " +
+                    "head(nodes(promiscuity_path)).name AS source, last(nodes(promiscuity_path)).name AS tail", names).list();
+            assertEquals(paths.size(), 2);
+            assertEquals(paths.get(0).get("promiscuity_score").asInt(), 3);
+            assertEquals(paths.get(1).get("promiscuity_score").asInt(), 5);
+            assertEquals(paths.get(1).get("source").asString(), "b0");
+            assertEquals(paths.get(1).get("tail").asString(), "tail");
+
+            for (int k = 2; k <= 3; k++) {
+                Record best = session.run("MATCH (s), (t) WHERE s.name IN $sources AND t.name IN $tails " +
+                        "CALL promiscuity.promiscuityScore(s,t,$k) YIELD promiscuity_score RETURN min(promiscuity_score) AS score",
+                        Values.parameters("sources", Arrays.asList("a0", "b0"), "tails", Arrays.asList("tail", "c0"), "k", k)).single();
+                List<Record> records = session.run(sets + "CALL promiscuity.promiscuityScoreSets(sources,tails,$k) YIELD promiscuity_score, source, tail " +
+                        "CALL promiscuity.promiscuityScore(source,tail,$k) YIELD promiscuity_score AS pair_score " +
+                        "RETURN promiscuity_score, pair_score", Values.parameters("sources", Arrays.asList("a0", "b0"),
+                        "tails", Arrays.asList("tail", "c0"), "k", k)).list();
+                //There is no walk of length 2 from either source to either tail.
+                if (best.get("score").isNull()) {
+                    assertEquals(records.size(), 0);
+                    continue;
+                }
+                assertEquals(records.get(0).get("promiscuity_score").asInt(), best.get("score").asInt());
+                //The reported pair scores the same on its own.
+                assertEquals(records.get(0).get("pair_score").asInt(), best.get("score").asInt());
+            }
+
+            assertEquals(session.run("MATCH (s {name:'source'}) CALL promiscuity.promiscuityScoreSets([s],[],1) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score").list().size(), 0);
+        }
+    }
+
+    @Test
+    public void parallelPathTest() {
+
+        try(Session session = driver.session()) {
+            buildIntermediateTestGraph(session);
+            //Cross edges, so that longer paths tie and branch.
+            session.run("MATCH (a {name:'degree3'}), (b {name:'degree5'}), (c {name:'c0'}) CREATE (a)-[:Edge]->(b), (b)-[:Edge]->(c)").consume();
+            String sequential = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.promiscuityPath(s,t,$k,$n,$config) " +
+                    "YIELD promiscuity_score RETURN promiscuity_score";
+            String parallel = "MATCH (s {name:'source'}), (t {name:'tail'}) CALL promiscuity.parallelPromiscuityPath(s,t,$k,$n,$threads,$config) " +
+                    "YIELD promiscuity_score, promiscuity_path RETURN promiscuity_score, length(promiscuity_path) AS length, " +
+                    "head(nodes(promiscuity_path)).name AS source, last(nodes(promiscuity_path)).name AS tail";
+            for (Value config : Arrays.asList(Values.parameters(), Values.parameters("simplePaths", true), Values.parameters("maxDegree", 6))) {
+                for (int k = 1; k <= 4; k++) {
+                    for (int n : new int[]{1, 3, 20}) {
+                        List<Record> expected = session.run(sequential, Values.parameters("k", k, "n", n, "config", config)).list();
+                        for (int threads : new int[]{1, 4}) {
+                            List<Record> actual = session.run(parallel, Values.parameters("k", k, "n", n, "threads", threads, "config", config)).list();
+                            String message = config + ", k=" + k + ", n=" + n + ", threads=" + threads;
+                            assertEquals(expected.size(), actual.size(), message);
+                            for (int i = 0; i < expected.size(); i++) {
+                                assertEquals(expected.get(i).get("promiscuity_score").asInt(), actual.get(i).get("promiscuity_score").asInt(), message);
+                                assertEquals(actual.get(i).get("length").asInt(), k + 1, message);
+                                assertEquals(actual.get(i).get("source").asString(), "source", message);
+                                assertEquals(actual.get(i).get("tail").asString(), "tail", message);
+                            }
+                        }
+                    }
+                }
+            }
+
+            //The workers read the committed graph, so a transaction with uncommitted changes cannot call it.
+            try (org.neo4j.driver.Transaction write_tx = session.beginTransaction()) {
+                write_tx.run("MATCH (n:Node {name:'degree5'})-[r:Edge]->(i:Node {name:'intermediate'}) DELETE r").consume();
+                assertThrows(org.neo4j.driver.exceptions.ClientException.class, () -> write_tx.run(parallel,
+                        Values.parameters("k", 2, "n", 1, "threads", 2, "config", Values.parameters())).consume());
+            }
+        }
+    }
+
+    /**
+     * Checks that promiscuity.snapshot.score on the snapshot file returns the same scores as promiscuity.promiscuityScore
+     * for source and tail with k from 1 to 3 and the given config.
+     */
+    private void assertSnapshotScoresMatch(Session session, String file, Value config) {
+        for (int k = 1; k <= 3; k++) {
+            List<Record> expected = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.promiscuityScore(s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score",
+                    Values.parameters("k", k, "config", config)).list();
+            List<Record> actual = session.run("MATCH (s {name:'source'}), (t {name:'tail'}) CALL " +
+                    "promiscuity.snapshot.score($file,s,t,$k,$config) YIELD promiscuity_score RETURN promiscuity_score",
+                    Values.parameters("file", file, "k", k, "config", config)).list();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).get("promiscuity_score").asInt(), actual.get(i).get("promiscuity_score").asInt());
+            }
+        }
+    }
+
+    /*
+    This procedure creates the graph from buildTestGraph, then removes the connection between our existing paths and the
+    tail node and introduces a node titled "intermediate" which links them to the tail node. The resulting paths look
+    like s -> n -> i -> t.
+     */
+    private void buildIntermediateTestGraph(Session session){
+        buildTestGraph(session);
+
+        session.run("MATCH (n:Node)-[r:Edge]->(t:Node {name:'tail'}) DELETE r");
+        session.run("CREATE (i:Node {name:'intermediate'})");
+        session.run("MATCH (i:Node {name:'intermediate'}),(t:Node {name:'tail'}) CREATE (i)-[r:Edge]->(t)");
+        session.run("MATCH (n:Node), (i:Node {name:'intermediate'}) WHERE n.name IN ['degree3','degree5','degree10'] " +
+                "CREATE (n)-[r:Edge]->(i)");
+    }
+
     /*
     This procedure creates a simple graph in our neo4j session. In this graph are a node labeled source, a node labeled
     tail, and three nodes which act as an intermediary path between source and tail (s->x->t). These three nodes have